@@ -21,6 +21,8 @@ echo "source ~/.ec2/env" >> ~/.bashrc
 
 cp $SCRIPT_HOME/hashbang_job $EC2_HOME/bin/
 chmod +x $EC2_HOME/bin/hashbang_job
+cp $SCRIPT_HOME/hashbang_ingest $EC2_HOME/bin/
+chmod +x $EC2_HOME/bin/hashbang_ingest
 
 source ~/.ec2/env
 ec2-delete-keypair $USER-key-pair > /dev/null
@@ -0,0 +1,117 @@
+package org.hashbang.fs;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A block of a file stored on the data nodes: a range of the file and the
+ * addresses, <code>host:port</code>, of the data nodes holding a replica.
+ */
+public class Block implements Serializable {
+
+    private static final String NAME_PREFIX = "blk_";
+
+    private final long id;
+    private final long offset;
+    private final long length;
+    private final List<String> replicas;
+
+    public Block(long id, long offset, long length, List<String> replicas) {
+        this.id = id;
+        this.offset = offset;
+        this.length = length;
+        this.replicas = new ArrayList<>(replicas);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Returns the name of the block's file in a data node's data directory
+     *
+     * @return block name
+     */
+    public String getName() {
+        return NAME_PREFIX + id;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public List<String> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Returns true if the name can be a block name, it must not name a file
+     * outside of the data directory
+     *
+     * @param name
+     * @return true for a valid block name
+     */
+    public static boolean isValidName(String name) {
+        if (!name.startsWith(NAME_PREFIX) || name.length() == NAME_PREFIX.length()) {
+            return false;
+        }
+        for (int i = NAME_PREFIX.length(); i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static String getHost(String replica) {
+        return replica.substring(0, replica.lastIndexOf(':'));
+    }
+
+    public static int getPort(String replica) {
+        return Integer.parseInt(replica.substring(replica.lastIndexOf(':') + 1));
+    }
+
+    /**
+     * Formats the block as one line: <code>id offset length replica,replica...</code>
+     *
+     * @return the block as text
+     */
+    public String toLine() {
+        StringBuilder line = new StringBuilder();
+        line.append(id).append(' ').append(offset).append(' ').append(length).append(' ');
+        for (int i = 0; i < replicas.size(); i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append(replicas.get(i));
+        }
+        return line.toString();
+    }
+
+    /**
+     * Parses a block formatted with {@link #toLine()}
+     *
+     * @param line
+     * @return block
+     */
+    public static Block fromLine(String line) {
+        String[] fields = line.trim().split(" ");
+        List<String> replicas = new ArrayList<>();
+        if (fields.length > 3) {
+            for (String replica : fields[3].split(",")) {
+                replicas.add(replica);
+            }
+        }
+        return new Block(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]), replicas);
+    }
+
+    @Override
+    public String toString() {
+        return getName() + "@" + offset + "+" + length + replicas;
+    }
+}
@@ -0,0 +1,180 @@
+package org.hashbang.fs;
+
+import org.hashbang.jobtracker.JobTracker;
+import org.hashbang.mr.Configuration;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Ingest command: splits a local file into blocks, stores every block on
+ * <code>replication</code> data nodes and records the blocks with the
+ * JobTracker. Jobs then use the name as their input path.
+ * <pre>
+ * java org.hashbang.fs.BlockIngest jobTrackerIP localFile name [replication] [blockSizeMB]
+ * </pre>
+ * The block size defaults to <code>io.file.blocksize</code>.
+ */
+public class BlockIngest {
+
+    public static final int DEFAULT_REPLICATION = 3;
+    private static final int MAX_UPLOADS = 8;
+
+    private final String jobTrackerIP;
+
+    public BlockIngest(String jobTrackerIP) {
+        this.jobTrackerIP = jobTrackerIP;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Usage: BlockIngest <jobTrackerIP> <localFile> <name> [replication] [blockSizeMB]");
+            System.exit(1);
+        }
+        int replication = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_REPLICATION;
+        long blockSize = (args.length > 4 ? Long.parseLong(args[4])
+                : Long.parseLong(new Configuration().get("io.file.blocksize"))) * 1024 * 1024;
+        List<Block> blocks = new BlockIngest(args[0]).ingest(new File(args[1]), args[2], replication, blockSize);
+        System.out.println("Stored " + args[1] + " as " + args[2] + " in " + blocks.size() + " blocks");
+    }
+
+    /**
+     * Stores a file on the data nodes
+     *
+     * @param file
+     * @param name        name of the stored file
+     * @param replication
+     * @param blockSize
+     * @return the stored blocks
+     * @throws IOException if a block could not be stored on any data node
+     */
+    public List<Block> ingest(File file, String name, int replication, long blockSize) throws IOException {
+        List<Block> blocks = allocate(file.length(), blockSize, replication);
+        ExecutorService uploads = Executors.newFixedThreadPool(MAX_UPLOADS);
+        Map<Future<Boolean>, String[]> results = new LinkedHashMap<>();
+        try {
+            for (int i = 0; i < blocks.size(); i++) {
+                for (String replica : blocks.get(i).getReplicas()) {
+                    results.put(uploads.submit(upload(file, blocks.get(i), replica)),
+                            new String[]{String.valueOf(i), replica});
+                }
+            }
+            // drop the replicas that could not be stored
+            List<List<String>> stored = new ArrayList<>();
+            for (Block block : blocks) {
+                stored.add(new ArrayList<String>());
+            }
+            for (Map.Entry<Future<Boolean>, String[]> result : results.entrySet()) {
+                if (waitFor(result.getKey())) {
+                    stored.get(Integer.parseInt(result.getValue()[0])).add(result.getValue()[1]);
+                }
+            }
+            List<Block> storedBlocks = new ArrayList<>();
+            for (int i = 0; i < blocks.size(); i++) {
+                Block block = blocks.get(i);
+                if (stored.get(i).isEmpty()) {
+                    throw new IOException("Could not store " + block);
+                }
+                storedBlocks.add(new Block(block.getId(), block.getOffset(), block.getLength(), stored.get(i)));
+            }
+            commit(name, storedBlocks);
+            return storedBlocks;
+        } finally {
+            uploads.shutdown();
+        }
+    }
+
+    private static boolean waitFor(Future<Boolean> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Sends a block of the file to a data node and waits for its acknowledgement
+     */
+    private static Callable<Boolean> upload(final File file, final Block block, final String replica) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                SocketChannel channel = SocketChannel.open(
+                        new InetSocketAddress(Block.getHost(replica), Block.getPort(replica)));
+                try {
+                    Writer header = new OutputStreamWriter(channel.socket().getOutputStream(), "UTF-8");
+                    header.write(NamenodeService.BLOCK_WRITE_IDENTIFIER + "\n" + block.getName() + "\n"
+                            + block.getLength() + "\n");
+                    header.flush();
+                    new DataTransferUtil().transferFileToChannel(Paths.get(file.getPath()),
+                            block.getOffset(), block.getLength(), channel);
+                    BufferedReader in = new BufferedReader(new InputStreamReader(channel.socket().getInputStream()));
+                    return NamenodeService.BLOCK_WRITTEN.equals(in.readLine());
+                } finally {
+                    channel.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Asks the JobTracker for the blocks of a file and their data nodes
+     */
+    private List<Block> allocate(long length, long blockSize, int replication) throws IOException {
+        Socket socket = new Socket(jobTrackerIP, JobTracker.JT_LISTEN_PORT);
+        try {
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            out.println(JobTracker.BLOCK_ALLOCATE_IDENTIFIER);
+            out.println(length);
+            out.println(blockSize);
+            out.println(replication);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            int numBlocks = Integer.parseInt(in.readLine());
+            if (numBlocks < 0) {
+                throw new IOException(in.readLine());
+            }
+            List<Block> blocks = new ArrayList<>(numBlocks);
+            for (int i = 0; i < numBlocks; i++) {
+                blocks.add(Block.fromLine(in.readLine()));
+            }
+            return blocks;
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Records the stored blocks of the file with the JobTracker
+     */
+    private void commit(String name, List<Block> blocks) throws IOException {
+        Socket socket = new Socket(jobTrackerIP, JobTracker.JT_LISTEN_PORT);
+        try {
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            out.println(JobTracker.BLOCK_COMMIT_IDENTIFIER);
+            out.println(name);
+            out.println(blocks.size());
+            for (Block block : blocks) {
+                out.println(block.toLine());
+            }
+            // wait for the JobTracker to read the blocks
+            socket.getInputStream().read();
+        } finally {
+            socket.close();
+        }
+    }
+}
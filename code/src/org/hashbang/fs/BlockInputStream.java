@@ -0,0 +1,128 @@
+package org.hashbang.fs;
+
+import org.hashbang.io.ByteBufferInputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads a series of consecutive blocks as one stream. A block is opened only
+ * when the reader gets to it; it is memory-mapped when the local data node
+ * holds a replica, otherwise it is streamed from a replica on this host if
+ * there is one, or from a random replica to spread the reads.
+ */
+public class BlockInputStream extends InputStream {
+
+    private final List<Block> blocks;
+    private final DataNode localDataNode;
+    private int nextBlock;
+    private InputStream current;
+    private boolean closed;
+
+    /**
+     * @param blocks        blocks in file order
+     * @param localDataNode the data node of this process, may be null
+     */
+    public BlockInputStream(List<Block> blocks, DataNode localDataNode) {
+        this.blocks = blocks;
+        this.localDataNode = localDataNode;
+    }
+
+    /**
+     * Returns true if the first block can be read from the local data node
+     *
+     * @param blocks
+     * @param localDataNode
+     * @return true for a local block
+     */
+    public static boolean isLocal(List<Block> blocks, DataNode localDataNode) {
+        return localDataNode != null && !blocks.isEmpty() && localDataNode.getLocalBlockFile(blocks.get(0)) != null;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (!closed) {
+            if (current == null) {
+                if (nextBlock == blocks.size()) {
+                    return -1;
+                }
+                current = open(blocks.get(nextBlock++));
+            }
+            int n = current.read(b, off, len);
+            if (n >= 0) {
+                return n;
+            }
+            current.close();
+            current = null;
+        }
+        throw new IOException("Stream closed");
+    }
+
+    private InputStream open(Block block) throws IOException {
+        File localFile = localDataNode == null ? null : localDataNode.getLocalBlockFile(block);
+        if (localFile != null) {
+            RandomAccessFile raf = new RandomAccessFile(localFile, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                // the mapping stays valid after the channel is closed
+                return new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } finally {
+                raf.close();
+            }
+        }
+        IOException failure = null;
+        for (String replica : orderReplicas(block)) {
+            try {
+                return new NamenodeClient(Block.getHost(replica), Block.getPort(replica))
+                        .openStream(block.getName(), 0, -1);
+            } catch (IOException e) {
+                // try the next replica
+                failure = e;
+            }
+        }
+        throw failure != null ? failure : new IOException("No replica of " + block);
+    }
+
+    /**
+     * Returns the replicas on this host first, then the others in random order
+     */
+    private static List<String> orderReplicas(Block block) {
+        List<String> local = new ArrayList<>();
+        List<String> remote = new ArrayList<>();
+        for (String replica : block.getReplicas()) {
+            if (DataNode.isLocalHost(Block.getHost(replica))) {
+                local.add(replica);
+            } else {
+                remote.add(replica);
+            }
+        }
+        Collections.shuffle(remote);
+        local.addAll(remote);
+        return local;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package org.hashbang.fs;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The block metadata of the cluster, kept by the JobTracker: the data nodes
+ * and, for every ingested file, its blocks and their replicas.
+ * <p/>
+ * When the system property <code>hashbang.blockmap.file</code> is set, the
+ * files' blocks are saved there and loaded again on startup.
+ */
+public class BlockMap {
+
+    public static final String BLOCK_MAP_FILE = "hashbang.blockmap.file";
+    private static final String FIELD_SEPARATOR = "\t";
+
+    private final List<String> dataNodes;
+    private final Map<String, List<Block>> files;
+    private final File file;
+    private long nextBlockId;
+    private int nextDataNode;
+
+    public BlockMap() {
+        this.dataNodes = new ArrayList<>();
+        this.files = new LinkedHashMap<>();
+        String path = System.getProperty(BLOCK_MAP_FILE);
+        this.file = path == null ? null : new File(path);
+        // unique across restarts of the JobTracker
+        this.nextBlockId = System.currentTimeMillis();
+        if (file != null && file.isFile()) {
+            load();
+        }
+    }
+
+    /**
+     * Adds a data node, <code>host:port</code>, to the nodes blocks are stored on
+     *
+     * @param address
+     */
+    public synchronized void registerDataNode(String address) {
+        if (!dataNodes.contains(address)) {
+            dataNodes.add(address);
+            System.out.println("Data node " + address + " registered");
+        }
+    }
+
+    /**
+     * Splits a file into blocks and picks the data nodes of their replicas.
+     * Replicas of a block go to distinct data nodes, on distinct hosts while
+     * there are enough of them, and the first replicas are spread round robin.
+     *
+     * @param length      length of the file
+     * @param blockSize
+     * @param replication number of replicas of every block
+     * @return the blocks, to be stored and then added with {@link #addFile}
+     * @throws IOException if no data node is registered
+     */
+    public synchronized List<Block> allocate(long length, long blockSize, int replication) throws IOException {
+        if (dataNodes.isEmpty()) {
+            throw new IOException("No data nodes registered");
+        }
+        List<Block> blocks = new ArrayList<>();
+        int numReplicas = Math.max(1, Math.min(replication, dataNodes.size()));
+        long offset = 0;
+        do {
+            long blockLength = Math.min(blockSize, length - offset);
+            blocks.add(new Block(nextBlockId++, offset, blockLength, pickReplicas(numReplicas)));
+            offset += blockLength;
+        } while (offset < length);
+        return blocks;
+    }
+
+    private List<String> pickReplicas(int numReplicas) {
+        List<String> replicas = new ArrayList<>(numReplicas);
+        Set<String> hosts = new HashSet<>();
+        int start = nextDataNode++ % dataNodes.size();
+        // first pass: one replica per host, second pass: any data node left
+        for (int pass = 0; pass < 2 && replicas.size() < numReplicas; pass++) {
+            for (int i = 0; i < dataNodes.size() && replicas.size() < numReplicas; i++) {
+                String dataNode = dataNodes.get((start + i) % dataNodes.size());
+                if (replicas.contains(dataNode) || (pass == 0 && hosts.contains(Block.getHost(dataNode)))) {
+                    continue;
+                }
+                replicas.add(dataNode);
+                hosts.add(Block.getHost(dataNode));
+            }
+        }
+        return replicas;
+    }
+
+    /**
+     * Records the blocks of a file once they are stored
+     *
+     * @param name
+     * @param blocks
+     */
+    public synchronized void addFile(String name, List<Block> blocks) {
+        files.put(name, new ArrayList<>(blocks));
+        System.out.println("Stored " + name + " in " + blocks.size() + " blocks");
+        if (file != null) {
+            save();
+        }
+    }
+
+    /**
+     * Returns the blocks of a file
+     *
+     * @param name
+     * @return the blocks in file order, or null if the file is not stored on the data nodes
+     */
+    public synchronized List<Block> getBlocks(String name) {
+        List<Block> blocks = files.get(name);
+        return blocks == null ? null : new ArrayList<>(blocks);
+    }
+
+    private void load() {
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(file));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    int separator = line.indexOf(FIELD_SEPARATOR);
+                    String name = line.substring(0, separator);
+                    Block block = Block.fromLine(line.substring(separator + 1));
+                    List<Block> blocks = files.get(name);
+                    if (blocks == null) {
+                        blocks = new ArrayList<>();
+                        files.put(name, blocks);
+                    }
+                    blocks.add(block);
+                    nextBlockId = Math.max(nextBlockId, block.getId() + 1);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void save() {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(tmpFile)));
+            try {
+                for (Map.Entry<String, List<Block>> entry : files.entrySet()) {
+                    for (Block block : entry.getValue()) {
+                        out.println(entry.getKey() + FIELD_SEPARATOR + block.toLine());
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Cannot replace " + file);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
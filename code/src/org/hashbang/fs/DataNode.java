@@ -0,0 +1,141 @@
+package org.hashbang.fs;
+
+import org.hashbang.jobtracker.JobTracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Stores blocks in a data directory and serves them, and no other file of the
+ * directory, with a {@link NamenodeService}. Every task tracker runs one;
+ * more can be started on the same host with their own port and data directory:
+ * <pre>
+ * java org.hashbang.fs.DataNode jobTrackerIP [port] [dataDir]
+ * </pre>
+ * The defaults come from the system properties
+ * <code>hashbang.datanode.port</code> and <code>hashbang.datanode.dir</code>.
+ */
+public class DataNode extends Thread {
+
+    public static final String PORT = "hashbang.datanode.port";
+    public static final String DATA_DIR = "hashbang.datanode.dir";
+    public static final int DEFAULT_PORT = 9995;
+
+    private final int port;
+    private final Path dataDir;
+    private final NamenodeService service;
+
+    public DataNode(int port, Path dataDir) {
+        super("data-node-" + port);
+        this.port = port;
+        this.dataDir = dataDir.toAbsolutePath();
+        this.service = new NamenodeService(port, Integer.getInteger(NamenodeService.MAX_CONNECTIONS, 4096),
+                Integer.getInteger(NamenodeService.MAX_TRANSFERS, 64), this.dataDir);
+        service.setBlockReadsOnly(true);
+        setDaemon(true);
+    }
+
+    /**
+     * Creates a data node configured by the system properties
+     *
+     * @return data node
+     */
+    public static DataNode fromSystemProperties() {
+        String baseDir = System.getenv("HASHBANG_TMP_DIR");
+        String dataDir = System.getProperty(DATA_DIR, (baseDir == null ? "." : baseDir) + "/blocks");
+        return new DataNode(Integer.getInteger(PORT, DEFAULT_PORT), Paths.get(dataDir));
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("Usage: DataNode <jobTrackerIP> [port] [dataDir]");
+            return;
+        }
+        DataNode dataNode = fromSystemProperties();
+        if (args.length > 1) {
+            dataNode = new DataNode(Integer.parseInt(args[1]),
+                    args.length > 2 ? Paths.get(args[2]) : dataNode.getDataDir());
+        }
+        dataNode.start();
+        dataNode.register(args[0]);
+        dataNode.join();
+    }
+
+    @Override
+    public void run() {
+        try {
+            Files.createDirectories(dataDir);
+            System.out.println("Data node serving " + dataDir + " on port " + port);
+            service.serve();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public Path getDataDir() {
+        return dataDir;
+    }
+
+    /**
+     * Announces the data node to the JobTracker, which keeps the block metadata
+     *
+     * @param jobTrackerIP
+     */
+    public void register(String jobTrackerIP) {
+        try {
+            Socket socket = new Socket(jobTrackerIP, JobTracker.JT_LISTEN_PORT);
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            out.println(JobTracker.DATANODE_IDENTIFIER);
+            out.println(port);
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the file of a block if this data node holds a replica of it
+     *
+     * @param block
+     * @return the block's file, or null
+     */
+    public File getLocalBlockFile(Block block) {
+        for (String replica : block.getReplicas()) {
+            if (Block.getPort(replica) == port && isLocalHost(Block.getHost(replica))) {
+                File file = dataDir.resolve(block.getName()).toFile();
+                return file.isFile() ? file : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the address belongs to this host
+     *
+     * @param ip
+     * @return true for a local address
+     */
+    public static boolean isLocalHost(String ip) {
+        if (ip == null) {
+            return false;
+        }
+        try {
+            InetAddress address = InetAddress.getByName(ip);
+            return address.isLoopbackAddress() || address.isAnyLocalAddress()
+                    || NetworkInterface.getByInetAddress(address) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.hashbang.fs;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.*;
 import java.nio.file.FileSystem;
 
@@ -14,6 +15,8 @@ import java.nio.file.FileSystem;
 public class DataTransferUtil {
 
 
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
 	private FileSystem fs;
 	private int bufferCapacity;
 
@@ -96,6 +99,67 @@ public class DataTransferUtil {
 		}
 	}
 
+	/**
+	 * writeFileToStream : stream size bytes of the file from offset to the
+	 * 					   output stream through a fixed-size buffer
+	 * @param p
+	 * @param offset
+	 * @param size number of bytes, or -1 to write up to the end of the file
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeFileToStream(Path p, long offset, long size, OutputStream out) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(p.toFile(), "r");
+		try {
+			if (size < 0) {
+				size = file.length() - offset;
+			}
+			file.seek(offset);
+			byte[] data = new byte[STREAM_BUFFER_SIZE];
+			while (size > 0) {
+				int bytesRead = file.read(data, 0, (int) Math.min(data.length, size));
+				if (bytesRead == -1) {
+					break;
+				}
+				out.write(data, 0, bytesRead);
+				size -= bytesRead;
+			}
+			out.flush();
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * transferFileToChannel : send size bytes of the file from offset to the
+	 * 						   channel with FileChannel.transferTo, which lets
+	 * 						   the kernel copy file pages straight to a socket
+	 * @param p
+	 * @param offset
+	 * @param size number of bytes, or -1 to send up to the end of the file
+	 * @param target
+	 * @return number of bytes sent
+	 * @throws IOException
+	 */
+	public long transferFileToChannel(Path p, long offset, long size, WritableByteChannel target) throws IOException {
+		FileChannel fileChannel = FileChannel.open(p, StandardOpenOption.READ);
+		try {
+			long end = size < 0 ? fileChannel.size() : Math.min(fileChannel.size(), offset + size);
+			long position = offset;
+			// transferTo may send fewer bytes than asked for
+			while (position < end) {
+				long sent = fileChannel.transferTo(position, end - position, target);
+				if (sent <= 0) {
+					break;
+				}
+				position += sent;
+			}
+			return position - offset;
+		} finally {
+			fileChannel.close();
+		}
+	}
+
 	/**
 	 * writeFromBufferToStream : writes buffer data to the output stream
 	 * @param data
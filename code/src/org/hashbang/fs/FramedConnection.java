@@ -0,0 +1,181 @@
+package org.hashbang.fs;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A persistent {@link FramedProtocol} connection to a Namenode server,
+ * shared by all the reads of a task tracker. Requests are pipelined: any
+ * number can be outstanding, and a reader thread hands the response frames
+ * to the {@link Response} of their request.
+ */
+class FramedConnection extends Thread {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Object END_OF_RESPONSE = new Object();
+
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private final Map<Integer, Response> responses;
+    private final AtomicInteger nextRequestId;
+    private volatile boolean closed;
+
+    public FramedConnection(String serverIP, int port) throws IOException {
+        super("namenode-connection-" + serverIP);
+        this.socket = new Socket(serverIP, port);
+        this.socket.setTcpNoDelay(true);
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+        this.responses = new ConcurrentHashMap<>();
+        this.nextRequestId = new AtomicInteger();
+        out.write(FramedProtocol.MAGIC);
+        out.flush();
+        setDaemon(true);
+        start();
+    }
+
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Sends a read request
+     *
+     * @param path
+     * @param offset
+     * @param length
+     * @return the response, filled in as the data arrives
+     * @throws IOException if the connection is closed
+     */
+    public Response read(String path, long offset, long length) throws IOException {
+        Response response = new Response(nextRequestId.incrementAndGet(), length);
+        responses.put(response.id, response);
+        byte[] frame = FramedProtocol.readRequest(response.id, path, offset, length);
+        try {
+            synchronized (out) {
+                if (closed) {
+                    throw new IOException("Connection to the Namenode server is closed");
+                }
+                out.write(frame);
+                out.flush();
+            }
+        } catch (IOException e) {
+            responses.remove(response.id);
+            close(e);
+            throw e;
+        }
+        return response;
+    }
+
+    /**
+     * Drops the remaining data of a response the caller no longer needs
+     *
+     * @param response
+     */
+    public void cancel(Response response) {
+        responses.remove(response.id);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                int id = in.readInt();
+                byte status = in.readByte();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                Response response = responses.get(id);
+                if (response == null) {
+                    // cancelled
+                    continue;
+                }
+                if (status == FramedProtocol.DATA) {
+                    response.add(payload);
+                } else {
+                    responses.remove(id);
+                    if (status == FramedProtocol.END) {
+                        response.add(END_OF_RESPONSE);
+                    } else {
+                        String message = new String(payload, NamenodeService.UTF8);
+                        response.add(message.startsWith(FramedProtocol.NOT_FOUND)
+                                ? new FileNotFoundException(message) : new IOException(message));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            close(e);
+        }
+    }
+
+    /**
+     * Closes the connection, failing all outstanding requests
+     */
+    public void close(IOException cause) {
+        synchronized (out) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (Response response : responses.values()) {
+            response.add(new IOException("Connection to the Namenode server lost", cause));
+        }
+        responses.clear();
+    }
+
+    /**
+     * Response: the frames received for a read request.
+     */
+    static class Response {
+        private final int id;
+        private final long length;
+        private final LinkedBlockingQueue<Object> frames;
+
+        Response(int id, long length) {
+            this.id = id;
+            this.length = length;
+            this.frames = new LinkedBlockingQueue<>();
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        void add(Object frame) {
+            frames.add(frame);
+        }
+
+        /**
+         * Waits for the next block of data
+         *
+         * @return data, or null once the response is complete
+         * @throws FileNotFoundException if the file does not exist
+         * @throws IOException if the server failed to serve the read
+         */
+        public byte[] take() throws IOException {
+            Object frame;
+            try {
+                frame = frames.take();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            if (frame == END_OF_RESPONSE) {
+                return null;
+            }
+            if (frame instanceof IOException) {
+                throw (IOException) frame;
+            }
+            return (byte[]) frame;
+        }
+    }
+}
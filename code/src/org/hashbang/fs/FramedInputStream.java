@@ -0,0 +1,127 @@
+package org.hashbang.fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Streams a range of a file over a shared {@link FramedConnection}. The range
+ * is read as a series of windows; the next windows are requested before the
+ * current one is consumed, so the transfer does not stall between windows.
+ */
+class FramedInputStream extends InputStream {
+
+    private final FramedConnection connection;
+    private final String path;
+    private final long end;
+    private final int windowSize;
+    private final int windows;
+    private final Deque<FramedConnection.Response> outstanding;
+    private long nextOffset;
+
+    private FramedConnection.Response current;
+    private long currentReceived;
+    private byte[] chunk;
+    private int chunkPosition;
+    private boolean eof;
+
+    /**
+     * @param connection
+     * @param path
+     * @param offset
+     * @param size       number of bytes, or -1 to read up to the end of the file
+     * @param windowSize bytes per read request
+     * @param windows    read requests kept outstanding
+     * @throws IOException
+     */
+    public FramedInputStream(FramedConnection connection, String path, long offset, long size,
+                             int windowSize, int windows) throws IOException {
+        this.connection = connection;
+        this.path = path;
+        this.end = size < 0 ? Long.MAX_VALUE : offset + size;
+        this.windowSize = windowSize;
+        this.windows = Math.max(1, windows);
+        this.outstanding = new ArrayDeque<>();
+        this.nextOffset = offset;
+        requestWindows();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (chunk == null || chunkPosition == chunk.length) {
+            if (!nextChunk()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, chunk.length - chunkPosition);
+        System.arraycopy(chunk, chunkPosition, b, off, n);
+        chunkPosition += n;
+        return n;
+    }
+
+    /**
+     * Moves to the next block of data
+     *
+     * @return false at the end of the range
+     */
+    private boolean nextChunk() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (current == null) {
+            current = outstanding.poll();
+            currentReceived = 0;
+            if (current == null) {
+                eof = true;
+                return false;
+            }
+        }
+        chunk = current.take();
+        chunkPosition = 0;
+        if (chunk != null) {
+            currentReceived += chunk.length;
+            return true;
+        }
+        if (currentReceived < current.getLength()) {
+            // a short window: reached the end of the file
+            eof = true;
+            close();
+            return false;
+        }
+        current = null;
+        requestWindows();
+        return true;
+    }
+
+    private void requestWindows() throws IOException {
+        while (outstanding.size() < windows && nextOffset < end) {
+            long length = Math.min(windowSize, end - nextOffset);
+            outstanding.add(connection.read(path, nextOffset, length));
+            nextOffset += length;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (current != null) {
+            connection.cancel(current);
+            current = null;
+        }
+        for (FramedConnection.Response response : outstanding) {
+            connection.cancel(response);
+        }
+        outstanding.clear();
+        chunk = null;
+        eof = true;
+    }
+}
@@ -0,0 +1,67 @@
+package org.hashbang.fs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The framed protocol between {@link NamenodeClient} and {@link NamenodeService}.
+ * <p/>
+ * A client opens a persistent connection and sends the 4 byte {@link #MAGIC}
+ * once. Every request is a frame <code>length (int), type (byte),
+ * request id (int), offset (long), length (long), path (UTF)</code>. The
+ * response to a read is any number of <code>DATA</code> frames followed by an
+ * <code>END</code> frame, or an <code>ERROR</code> frame whose payload is the
+ * message. The frames of the reads being served are interleaved, one
+ * <code>DATA</code> frame of each read at a time, and are told apart by their
+ * request id. Response frames
+ * are <code>request id (int), status (byte), payload length (int), payload</code>.
+ * <p/>
+ * A read returns fewer bytes than requested only at the end of the file.
+ * Clients read large ranges as a series of windows, so several streams can
+ * share one connection and no stream buffers more than its open windows.
+ */
+public class FramedProtocol {
+
+    public static final byte[] MAGIC = {'H', 'B', 'F', '1'};
+
+    public static final byte READ = 1;
+
+    public static final byte DATA = 0;
+    public static final byte END = 1;
+    public static final byte ERROR = 2;
+
+    // start of the ERROR message for a file that does not exist
+    public static final String NOT_FOUND = "Invalid path :";
+
+    public static final int RESPONSE_HEADER_BYTES = 4 + 1 + 4;
+    public static final int MAX_REQUEST_BYTES = 64 * 1024;
+
+    /**
+     * Encodes a read request as a frame
+     *
+     * @param requestId
+     * @param path
+     * @param offset
+     * @param length
+     * @return the frame
+     * @throws IOException
+     */
+    public static byte[] readRequest(int requestId, String path, long offset, long length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeByte(READ);
+        out.writeInt(requestId);
+        out.writeLong(offset);
+        out.writeLong(length);
+        out.writeUTF(path);
+        byte[] frame = bytes.toByteArray();
+        int frameLength = frame.length - 4;
+        frame[0] = (byte) (frameLength >>> 24);
+        frame[1] = (byte) (frameLength >>> 16);
+        frame[2] = (byte) (frameLength >>> 8);
+        frame[3] = (byte) frameLength;
+        return frame;
+    }
+}
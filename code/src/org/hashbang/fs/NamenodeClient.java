@@ -1,17 +1,35 @@
 package org.hashbang.fs;
 
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Created by alwin on 4/7/15.
+ * <p/>
+ * Reads go over one persistent {@link FramedProtocol} connection per
+ * Namenode server, shared by all the clients of the process.
  */
 public class NamenodeClient {
+
+    // bytes per read request, and read requests kept outstanding per stream
+    public static final int WINDOW_SIZE = 1024 * 1024;
+    public static final int WINDOWS = 2;
+
+    // keyed by host:port
+    private static final Map<String, FramedConnection> connections = new HashMap<>();
+
     private String serverIP;
+    private int port;
 
     public NamenodeClient(String server) {
+        this(server, NamenodeService.NAMENODE_PORT);
+    }
+
+    public NamenodeClient(String server, int port) {
         this.serverIP = server;
+        this.port = port;
     }
 
     /**
@@ -25,18 +43,43 @@ public class NamenodeClient {
     public byte[] getData(String fileName, long offset, int size) {
         byte buffer[] = null;
         try {
-            Socket socket = new Socket(serverIP, NamenodeService.NAMENODE_PORT);
-            PrintWriter out =
-                    new PrintWriter(socket.getOutputStream(), true);
+            InputStream in = openStream(fileName, offset, size);
             DataTransferUtil util = new DataTransferUtil();
-            out.println(NamenodeService.MAPCLIENT_IDENTIFIER);
-            out.println(fileName);
-            out.println(offset);
-            out.println(size);
-            buffer = util.readStreamToBuffer(socket.getInputStream());
+            buffer = util.readStreamToBuffer(in);
+            in.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
         return buffer;
     }
+
+    /**
+     * Streams the file from offset over the connection to the Namenode
+     * server. The data is requested ahead of the caller in windows of
+     * {@link #WINDOW_SIZE}; closing the stream ends the transfer.
+     *
+     * @param fileName
+     * @param offset
+     * @param size number of bytes, or -1 to read up to the end of the file
+     * @return stream of the data
+     * @throws IOException
+     */
+    public InputStream openStream(String fileName, long offset, long size) throws IOException {
+        return new FramedInputStream(getConnection(), fileName, offset, size, WINDOW_SIZE, WINDOWS);
+    }
+
+    /**
+     * Returns the connection to the server, reconnecting if it was lost
+     */
+    private FramedConnection getConnection() throws IOException {
+        synchronized (connections) {
+            String server = serverIP + ":" + port;
+            FramedConnection connection = connections.get(server);
+            if (connection == null || !connection.isOpen()) {
+                connection = new FramedConnection(serverIP, port);
+                connections.put(server, connection);
+            }
+            return connection;
+        }
+    }
 }
@@ -1,154 +1,1081 @@
 package org.hashbang.fs;
 
+import org.hashbang.mr.FileOutputCommitter;
 
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by ankita on 3/31/15.
  * NamenodeService, this class listens to request, Serve the request according to the Client.
+ * <p/>
+ * All connections are served by a single selector thread: splits are sent
+ * with non-blocking {@link FileChannel#transferTo} calls, so the number of
+ * threads does not depend on the number of clients. Blocks and the part
+ * files committed by reducers are written and synced by a small pool of disk
+ * threads, the selector stops reading from a client while its data is being
+ * written. The resources are bounded by three system properties:
+ * <ul>
+ * <li><code>hashbang.namenode.max.connections</code>: open connections. Once
+ * reached, new connections wait in the accept backlog.</li>
+ * <li><code>hashbang.namenode.max.transfers</code>: connections sending
+ * split data at the same time. Further requests are queued until a transfer
+ * finishes.</li>
+ * <li><code>hashbang.namenode.disk.threads</code>: threads writing received
+ * files, 4 by default.</li>
+ * </ul>
+ * Requested paths are resolved against the service's data directory, which
+ * holds the blocks stored on a node, see {@link DataNode}; paths leading out
+ * of it are rejected. Only the Namenode server started by {@link #main}, on
+ * the JobTracker's host, accepts the part files of the reduce tasks, in the
+ * output directories under <code>hashbang.output.root</code>.
  */
 public class NamenodeService {
 
     public static final int NAMENODE_PORT = 9999; // dummy port number
     public static final String MAPCLIENT_IDENTIFIER = "MAP_CLIENT";
-    public static final String REDUCERCLIENT_IDENTIFIER = "REDUCER_CLIENT";
+    public static final String BLOCK_WRITE_IDENTIFIER = "BLOCK_WRITE";
+    public static final String OUTPUT_WRITE_IDENTIFIER = "OUTPUT_WRITE";
+    public static final String BLOCK_WRITTEN = "OK";
+    public static final String MAX_CONNECTIONS = "hashbang.namenode.max.connections";
+    public static final String MAX_TRANSFERS = "hashbang.namenode.max.transfers";
+    public static final String DISK_THREADS = "hashbang.namenode.disk.threads";
+    public static final String OUTPUT_ROOT = "hashbang.output.root";
 
-    public static void main(String[] args) {
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    static final int MAX_HEADER_LINE = 8 * 1024;
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+    private static final int ACCEPT_BACKLOG = 1024;
 
-        ServerSocket listener = null;
+    private final int port;
+    private final Path dataDir;
+    private final int maxConnections;
+    private final int maxTransfers;
+    // a data node only serves its block files
+    private boolean blockReadsOnly;
+    // only the JobTracker's Namenode server collects the jobs' part files
+    private Path outputRoot;
+    private Selector selector;
+    private SelectionKey acceptKey;
+    // shared by all connections, the selector thread handles one event at a time
+    private final ByteBuffer ioBuffer;
+    private int numConnections;
+    private int numTransfers;
+    private final Queue<Transfer> pendingTransfers;
+    private ExecutorService diskThreads;
+    // tasks handed back to the selector thread by the disk threads
+    private final Queue<Runnable> completions;
 
-        // Implement thread pool
-        List<DataProvider> dataProviders = new ArrayList<DataProvider>();
+    public NamenodeService(int port, int maxConnections, int maxTransfers) {
+        this(port, maxConnections, maxTransfers, Paths.get("").toAbsolutePath());
+    }
 
-        List<DataReceiver> dataRecievers = new ArrayList<DataReceiver>();
+    public NamenodeService(int port, int maxConnections, int maxTransfers, Path dataDir) {
+        this.port = port;
+        this.dataDir = dataDir.toAbsolutePath().normalize();
+        this.maxConnections = Math.max(1, maxConnections);
+        this.maxTransfers = Math.max(1, maxTransfers);
+        this.ioBuffer = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+        this.pendingTransfers = new ArrayDeque<>();
+        this.completions = new ConcurrentLinkedQueue<>();
+    }
 
+    public static void main(String[] args) {
+        NamenodeService service = new NamenodeService(NAMENODE_PORT,
+                Integer.getInteger(MAX_CONNECTIONS, 4096), Integer.getInteger(MAX_TRANSFERS, 64));
+        service.setOutputRoot(getOutputRoot());
         try {
-            listener = new ServerSocket(NAMENODE_PORT);
+            service.serve();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-            try {
-                while (true) {
-                    Socket clientSocket = listener.accept();
-                    BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                    String identifier = in.readLine();
+    /**
+     * Accepts and serves connections until the thread is interrupted
+     *
+     * @throws IOException if the server socket cannot be opened
+     */
+    public void serve() throws IOException {
+        selector = Selector.open();
+        diskThreads = Executors.newFixedThreadPool(Math.max(1, Integer.getInteger(DISK_THREADS, 4)));
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(port), Math.max(ACCEPT_BACKLOG, maxConnections));
+            serverChannel.configureBlocking(false);
+            acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
 
-                    if (identifier.contentEquals(REDUCERCLIENT_IDENTIFIER)) {
+            while (!Thread.currentThread().isInterrupted()) {
+                selector.select();
+                Runnable completion;
+                while ((completion = completions.poll()) != null) {
+                    completion.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key == acceptKey) {
+                        accept(serverChannel);
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        connection.close();
+                    } catch (RuntimeException e) {
+                        // a malformed request must not stop the service
+                        e.printStackTrace();
+                        connection.close();
+                    }
+                }
+            }
+        } finally {
+            serverChannel.close();
+            selector.close();
+            diskThreads.shutdown();
+        }
+    }
 
-                        DataReceiver dataReceiver = new DataReceiver(clientSocket);
-                        dataRecievers.add(dataReceiver);
-                        dataReceiver.start();
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel;
+        while (numConnections < maxConnections && (channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(this, key, channel));
+            numConnections++;
+        }
+        if (numConnections >= maxConnections) {
+            // leave further clients in the backlog until a connection closes
+            acceptKey.interestOps(0);
+        }
+    }
 
-                    } else if (identifier.contentEquals(MAPCLIENT_IDENTIFIER)) {
+    /**
+     * Resolves a requested path, it must name a file of the data directory
+     *
+     * @param path
+     * @return path of the file
+     * @throws IOException if the path leads out of the data directory
+     */
+    Path resolve(String path) throws IOException {
+        Path resolved = dataDir.resolve(path).normalize();
+        if (!resolved.startsWith(dataDir) || resolved.equals(dataDir)) {
+            throw new IOException("Path outside of the data directory " + path);
+        }
+        return resolved;
+    }
 
-                        DataProvider dataProvider = new DataProvider(clientSocket, in);
-                        dataProviders.add(dataProvider);
-                        dataProvider.start();
-                    }
-                }
-            } finally {
-                listener.close();
+    /**
+     * Resolves a path requested for reading, the name of a block file if the
+     * service only serves blocks
+     *
+     * @param path
+     * @return path of the file
+     * @throws IOException if the service does not serve the path
+     */
+    Path resolveRead(String path) throws IOException {
+        if (blockReadsOnly && !Block.isValidName(path)) {
+            throw new IOException("Invalid block name " + path);
+        }
+        return resolve(path);
+    }
+
+    /**
+     * Restricts the reads to the block files of the data directory, see
+     * {@link Block#isValidName}. Must be called before {@link #serve()}.
+     *
+     * @param blockReadsOnly
+     */
+    public void setBlockReadsOnly(boolean blockReadsOnly) {
+        this.blockReadsOnly = blockReadsOnly;
+    }
+
+    /**
+     * Returns the directory holding the jobs' output directories on the
+     * JobTracker's host, the system property <code>hashbang.output.root</code>
+     * or the home directory. Jobs are checked against it when submitted.
+     *
+     * @return absolute path of the output root
+     */
+    public static Path getOutputRoot() {
+        return Paths.get(System.getProperty(OUTPUT_ROOT, System.getProperty("user.home")))
+                .toAbsolutePath().normalize();
+    }
+
+    /**
+     * Returns true if a job may write its output to a directory
+     *
+     * @param outputRoot
+     * @param outputDir  absolute path of the job's output directory
+     * @return true if the directory is inside the output root
+     */
+    public static boolean isOutputDir(Path outputRoot, Path outputDir) {
+        Path dir = outputDir.normalize();
+        return dir.isAbsolute() && dir.startsWith(outputRoot) && !dir.equals(outputRoot);
+    }
+
+    /**
+     * Accepts the part files committed by the reduce tasks, see
+     * {@link org.hashbang.mr.NamenodeOutputCommitter}, in the output
+     * directories under a root. Must be called before {@link #serve()}.
+     *
+     * @param outputRoot absolute path, or null not to accept part files
+     */
+    public void setOutputRoot(Path outputRoot) {
+        this.outputRoot = outputRoot;
+    }
+
+    /**
+     * Resolves the part file of a partition in a job's output directory. The
+     * directory must be under the output root and the part file must not be
+     * committed yet, since a job's output directory does not exist when it
+     * is submitted and one attempt of each reduce task commits.
+     *
+     * @param outputDir absolute path of the job's output directory
+     * @param partition
+     * @return path of the part file
+     * @throws IOException if the service does not accept the part file
+     */
+    Path resolveOutput(String outputDir, int partition) throws IOException {
+        if (outputRoot == null) {
+            throw new IOException("Output writes are not accepted on port " + port);
+        }
+        if (partition < 0) {
+            throw new IOException("Invalid partition " + partition);
+        }
+        Path dir = Paths.get(outputDir).normalize();
+        if (!isOutputDir(outputRoot, dir)) {
+            throw new IOException("Output directory " + outputDir + " is not under " + outputRoot);
+        }
+        if (Files.exists(dir) && !Files.isDirectory(dir)) {
+            throw new IOException("Not an output directory " + outputDir);
+        }
+        Path partFile = dir.resolve(FileOutputCommitter.OUTPUT_SUBDIR)
+                .resolve(FileOutputCommitter.getPartFileName(partition));
+        if (Files.exists(partFile)) {
+            throw new IOException("Part file already committed " + partFile);
+        }
+        return partFile;
+    }
+
+    /**
+     * Runs blocking file I/O off the selector thread
+     *
+     * @param task
+     */
+    void runOnDiskThread(Runnable task) {
+        diskThreads.execute(task);
+    }
+
+    /**
+     * Runs a task on the selector thread, for the disk threads to report back
+     *
+     * @param task
+     */
+    void runOnSelector(Runnable task) {
+        completions.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Returns the cleared buffer used to read from the connections
+     *
+     * @return buffer
+     */
+    ByteBuffer getIOBuffer() {
+        ioBuffer.clear();
+        return ioBuffer;
+    }
+
+    void connectionClosed() {
+        numConnections--;
+        if (acceptKey.isValid() && acceptKey.interestOps() == 0) {
+            acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
+    }
+
+    /**
+     * Starts sending data, or queues the transfer while maxTransfers are running
+     *
+     * @param transfer
+     */
+    void requestTransfer(Transfer transfer) {
+        if (numTransfers < maxTransfers) {
+            numTransfers++;
+            transfer.start();
+        } else {
+            transfer.pause();
+            pendingTransfers.add(transfer);
+        }
+    }
+
+    void transferDone() {
+        numTransfers--;
+        Transfer next = pendingTransfers.poll();
+        if (next != null) {
+            numTransfers++;
+            next.start();
+        }
+    }
+
+    void transferCancelled(Transfer transfer) {
+        pendingTransfers.remove(transfer);
+    }
+
+    /**
+     * Transfer: a connection that sends file data, limited by maxTransfers.
+     */
+    interface Transfer {
+
+        /**
+         * Called once the transfer may send data
+         */
+        void start();
+
+        /**
+         * Called while the transfer waits for a free slot
+         */
+        void pause();
+    }
+}
+
+/**
+ * Connection: a client of the NamenodeService. Clients of the framed
+ * protocol are handed over to a {@link FramedDataProvider}. For the legacy
+ * text protocol, reads the request header, one line per field, and hands
+ * the connection over to a {@link DataProvider} or a {@link BlockReceiver}
+ * depending on the client.
+ */
+class Connection {
+
+    private final NamenodeService service;
+    private final SelectionKey key;
+    private final SocketChannel channel;
+    private final ByteArrayOutputStream line;
+    private final List<String> header;
+    private Handler handler;
+    private boolean closed;
+
+    public Connection(NamenodeService service, SelectionKey key, SocketChannel channel) {
+        this.service = service;
+        this.key = key;
+        this.channel = channel;
+        this.line = new ByteArrayOutputStream();
+        this.header = new ArrayList<>();
+    }
+
+    public SelectionKey getKey() {
+        return key;
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    public NamenodeService getService() {
+        return service;
+    }
+
+    public void onReadable() throws IOException {
+        if (handler != null) {
+            handler.onReadable();
+            return;
+        }
+        ByteBuffer buffer = service.getIOBuffer();
+        if (channel.read(buffer) < 0) {
+            close();
+            return;
+        }
+        buffer.flip();
+        if (header.isEmpty() && line.size() == 0 && buffer.hasRemaining()
+                && buffer.get(0) == FramedProtocol.MAGIC[0]) {
+            // legacy clients start with a text identifier, framed clients with the magic
+            handler = new FramedDataProvider(this);
+        }
+        while (buffer.hasRemaining() && handler == null && !closed) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                header.add(new String(line.toByteArray(), NamenodeService.UTF8).trim());
+                line.reset();
+                handler = createHandler();
+            } else if (line.size() < NamenodeService.MAX_HEADER_LINE) {
+                line.write(b);
+            } else {
+                System.out.println("Request header too long from " + channel.socket().getRemoteSocketAddress());
+                close();
+            }
+        }
+        if (handler != null && !closed && buffer.hasRemaining()) {
+            // bytes following the header already belong to the handler
+            handler.onData(buffer);
+        }
+    }
+
+    public void onWritable() throws IOException {
+        if (handler != null) {
+            handler.onWritable();
+        }
+    }
+
+    /**
+     * Returns the handler of the client once its whole header is read
+     */
+    private Handler createHandler() throws IOException {
+        String identifier = header.get(0);
+        if (identifier.contentEquals(NamenodeService.MAPCLIENT_IDENTIFIER)) {
+            if (header.size() < 4) {
+                return null;
+            }
+            DataProvider provider = new DataProvider(this, service.resolveRead(header.get(1)),
+                    Long.parseLong(header.get(2)), Long.parseLong(header.get(3)));
+            if (provider.open()) {
+                service.requestTransfer(provider);
             }
+            return provider;
+        } else if (identifier.contentEquals(NamenodeService.BLOCK_WRITE_IDENTIFIER)) {
+            if (header.size() < 3) {
+                return null;
+            }
+            return new BlockReceiver(this, header.get(1), Long.parseLong(header.get(2)));
+        } else if (identifier.contentEquals(NamenodeService.OUTPUT_WRITE_IDENTIFIER)) {
+            if (header.size() < 4) {
+                return null;
+            }
+            // the part file committed by a reducer, see NamenodeOutputCommitter
+            Path partFile = service.resolveOutput(header.get(1), Integer.parseInt(header.get(2)));
+            return new BlockReceiver(this, partFile, Long.parseLong(header.get(3)));
+        }
+        System.out.println("Unknown client " + identifier);
+        close();
+        return null;
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (handler != null) {
+            handler.close();
+        }
+        key.cancel();
+        try {
+            channel.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        service.connectionClosed();
+    }
+
+    /**
+     * Handler: serves a connection once its header has been read.
+     */
+    interface Handler {
+
+        /**
+         * Bytes that were read together with the header
+         */
+        void onData(ByteBuffer data) throws IOException;
+
+        void onReadable() throws IOException;
+
+        void onWritable() throws IOException;
+
+        void close();
     }
 }
 
 /**
  * Created by ankita on 3/31/15.
- * DataProvider, this dedicated thread serves the request of input split to the task tracker
+ * DataProvider, serves the request of input split to the task tracker. The
+ * range is sent with {@link FileChannel#transferTo} each time the socket can
+ * take more data, so the file pages go straight from the kernel to the socket.
  */
-class DataProvider extends Thread {
+class DataProvider implements Connection.Handler, NamenodeService.Transfer {
 
-    Socket socket;
-    DataTransferUtil util;
-    BufferedReader in;
+    // bytes sent per writable event, so one client cannot hold up the others
+    private static final long TRANSFER_CHUNK = 1024 * 1024;
 
-    public DataProvider(Socket given_socket, BufferedReader reader) {
-        socket = given_socket;
-        in = reader;
-        util = new DataTransferUtil();
+    private final Connection connection;
+    private final Path path;
+    private final long offset;
+    private final long size;
+    private FileChannel file;
+    private long position;
+    private long end;
+    private boolean started;
+
+    public DataProvider(Connection connection, Path path, long offset, long size) {
+        this.connection = connection;
+        this.path = path;
+        this.offset = offset;
+        this.size = size;
     }
 
-    @Override
-    public void run() {
+    /**
+     * Opens the requested file, closing the connection if it cannot be read
+     *
+     * @return true if the file is open
+     */
+    public boolean open() {
+        if (!Files.isReadable(path)) {
+            System.out.println("Invalid path :" + path.toAbsolutePath());
+            connection.close();
+            return false;
+        }
         try {
-            String filepath = in.readLine();
-            Path path = Paths.get(filepath);
+            file = FileChannel.open(path, StandardOpenOption.READ);
+            end = size < 0 ? file.size() : Math.min(file.size(), offset + size);
+            position = offset;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            connection.close();
+            return false;
+        }
+    }
+
+    @Override
+    public void start() {
+        started = true;
+        connection.getKey().interestOps(SelectionKey.OP_WRITE);
+    }
 
-            long fileOffset = Long.parseLong(in.readLine());
-            int blocksize = Integer.parseInt(in.readLine());
+    @Override
+    public void pause() {
+        connection.getKey().interestOps(0);
+    }
+
+    @Override
+    public void onData(ByteBuffer data) {
+        // map clients send nothing after the header
+    }
+
+    @Override
+    public void onReadable() {
+        // map clients send nothing after the header
+    }
 
-            byte[] data = util.readFileToBuffer(path, fileOffset, blocksize);
-            OutputStream out = socket.getOutputStream();
-            util.writeFromBufferToStream(data, out);
-            out.close();
+    @Override
+    public void onWritable() {
+        try {
+            position += file.transferTo(position, Math.min(TRANSFER_CHUNK, end - position), connection.getChannel());
         } catch (IOException e) {
-            e.printStackTrace();
+            // the map task read what it needed and closed the connection
+            connection.close();
+            return;
+        }
+        if (position >= end) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (started) {
+            started = false;
+            connection.getService().transferDone();
+        } else {
+            connection.getService().transferCancelled(this);
+        }
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
 }
 
 
 /**
- * Created by ankita on 3/31/15.
- * DataReceiver, this dedicated thread fetches data from reducer and write it to
- * the output directory specified by job client
- *
+ * FramedDataProvider, serves the reads of a {@link FramedProtocol} connection.
+ * The queued reads take turns, one DATA frame each, so that a large read does
+ * not hold up the connection's other streams. The connection stays open for
+ * further requests; it only holds a transfer slot of the service while it has
+ * reads to serve.
  */
-class DataReceiver extends Thread {
+class FramedDataProvider implements Connection.Handler, NamenodeService.Transfer {
 
-    Socket socket;
-    DataTransferUtil util;
+    // payload of a DATA frame, the reads of a connection take turns after each one
+    private static final long DATA_FRAME_BYTES = 256 * 1024;
+    private static final int MAX_ERROR_BYTES = 1024;
+    private static final int MAX_OPEN_FILES = 16;
 
-    public DataReceiver(Socket given_socket) {
-        socket = given_socket;
-        util = new DataTransferUtil();
+    private final Connection connection;
+    private final ByteBuffer requests;
+    // reads to serve, the one at the head sends the next frame
+    private final Queue<Read> reads;
+    private final Map<String, FileChannel> files;
+    private final ByteBuffer frameHeader;
+    private boolean handshake;
+    // the read whose DATA frame is being sent
+    private Read current;
+    private long payloadRemaining;
+    private boolean waiting;
+    private boolean started;
+
+    public FramedDataProvider(Connection connection) {
+        this.connection = connection;
+        this.requests = ByteBuffer.allocate(4 + FramedProtocol.MAX_REQUEST_BYTES);
+        this.reads = new ArrayDeque<>();
+        this.files = new LinkedHashMap<String, FileChannel>(MAX_OPEN_FILES, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FileChannel> eldest) {
+                if (size() > MAX_OPEN_FILES) {
+                    closeFile(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.frameHeader = ByteBuffer.allocate(FramedProtocol.RESPONSE_HEADER_BYTES + MAX_ERROR_BYTES);
+        this.frameHeader.flip();
     }
 
     @Override
-    public void run() {
+    public void onData(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            int n = Math.min(data.remaining(), requests.remaining());
+            ByteBuffer slice = data.duplicate();
+            slice.limit(slice.position() + n);
+            requests.put(slice);
+            data.position(data.position() + n);
+            parseRequests();
+        }
+    }
 
-        BufferedReader in = null;
+    @Override
+    public void onReadable() throws IOException {
+        ByteBuffer buffer = connection.getService().getIOBuffer();
+        if (connection.getChannel().read(buffer) < 0) {
+            connection.close();
+            return;
+        }
+        buffer.flip();
+        onData(buffer);
+    }
 
-        //step 1. read the output directory path
-        //step 2. create output directory
-        //step 3. create file name part-0000
-        // while(true){
-        //   read the key value pair and write it to the file.
-        // }
+    /**
+     * Queues the complete request frames received so far
+     */
+    private void parseRequests() throws IOException {
+        requests.flip();
         try {
+            if (!handshake) {
+                if (requests.remaining() < FramedProtocol.MAGIC.length) {
+                    return;
+                }
+                for (byte b : FramedProtocol.MAGIC) {
+                    if (requests.get() != b) {
+                        throw new IOException("Not a framed protocol client");
+                    }
+                }
+                handshake = true;
+            }
+            while (requests.remaining() >= 4) {
+                int length = requests.getInt(requests.position());
+                if (length <= 0 || length > FramedProtocol.MAX_REQUEST_BYTES) {
+                    throw new IOException("Bad request frame length " + length);
+                }
+                if (requests.remaining() < 4 + length) {
+                    return;
+                }
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                        requests.array(), requests.position() + 4, length));
+                requests.position(requests.position() + 4 + length);
+                byte type = in.readByte();
+                Read read = new Read(in.readInt());
+                if (type == FramedProtocol.READ) {
+                    read.offset = in.readLong();
+                    read.length = in.readLong();
+                    read.path = in.readUTF();
+                } else {
+                    read.error = "Unknown request type " + type;
+                }
+                enqueue(read);
+            }
+        } finally {
+            requests.compact();
+        }
+    }
+
+    private void enqueue(Read read) {
+        reads.add(read);
+        if (!started && !waiting) {
+            waiting = true;
+            connection.getService().requestTransfer(this);
+        }
+    }
+
+    @Override
+    public void start() {
+        waiting = false;
+        started = true;
+        connection.getKey().interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    @Override
+    public void pause() {
+        // keep reading requests while waiting for a slot
+        connection.getKey().interestOps(SelectionKey.OP_READ);
+    }
 
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            String outputDirPath = in.readLine();
-            System.out.println("outpath path: " + outputDirPath);
-            String outputFilePath = outputDirPath + "/output";
+    @Override
+    public void onWritable() throws IOException {
+        SocketChannel channel = connection.getChannel();
+        while (true) {
+            if (frameHeader.hasRemaining()) {
+                channel.write(frameHeader);
+                if (frameHeader.hasRemaining()) {
+                    return;
+                }
+            }
+            if (payloadRemaining > 0) {
+                long sent = current.file.transferTo(current.position, payloadRemaining, channel);
+                current.position += sent;
+                payloadRemaining -= sent;
+                if (payloadRemaining > 0) {
+                    return;
+                }
+                current = null;
+                continue;
+            }
+            Read read = reads.peek();
+            if (read == null) {
+                // all reads served, give the slot back until the next request
+                started = false;
+                connection.getKey().interestOps(SelectionKey.OP_READ);
+                connection.getService().transferDone();
+                return;
+            }
+            nextFrame(read);
+        }
+    }
 
-            Files.createDirectories(Paths.get(outputFilePath));
-            outputFilePath += "/job.output";
+    /**
+     * Prepares the next response frame of the read at the head of the queue.
+     * A read with more data to send goes to the back of the queue.
+     */
+    private void nextFrame(Read read) {
+        frameHeader.clear();
+        if (read.error == null && (read.file == null || !read.file.isOpen())) {
+            // not opened yet, or closed to open the file of another read
+            openFile(read);
+        }
+        if (read.error != null) {
+            byte[] message = read.error.getBytes(NamenodeService.UTF8);
+            int length = Math.min(message.length, MAX_ERROR_BYTES);
+            putHeader(read.id, FramedProtocol.ERROR, length);
+            frameHeader.put(message, 0, length);
+            reads.poll();
+        } else {
+            long length = Math.min(DATA_FRAME_BYTES, read.end - read.position);
+            if (length > 0) {
+                putHeader(read.id, FramedProtocol.DATA, (int) length);
+                current = read;
+                payloadRemaining = length;
+                reads.add(reads.poll());
+            } else {
+                putHeader(read.id, FramedProtocol.END, 0);
+                reads.poll();
+            }
+        }
+        frameHeader.flip();
+    }
 
-            PrintWriter writer = new PrintWriter(new FileOutputStream(outputFilePath), true);
-            String keyValuePair;
+    private void putHeader(int id, byte status, int length) {
+        frameHeader.putInt(id);
+        frameHeader.put(status);
+        frameHeader.putInt(length);
+    }
 
-            while ((keyValuePair = in.readLine()) != null) {
-                writer.println(keyValuePair);
+    private void openFile(Read read) {
+        Path path;
+        try {
+            path = connection.getService().resolveRead(read.path);
+        } catch (IOException e) {
+            read.error = e.getMessage();
+            return;
+        }
+        if (!Files.isReadable(path)) {
+            read.error = FramedProtocol.NOT_FOUND + path.toAbsolutePath();
+            return;
+        }
+        try {
+            FileChannel file = files.get(read.path);
+            if (file == null) {
+                file = FileChannel.open(path, StandardOpenOption.READ);
+                files.put(read.path, file);
             }
+            if (read.file == null) {
+                read.position = read.offset;
+                read.end = read.length < 0 ? file.size() : Math.min(file.size(), read.offset + read.length);
+            }
+            read.file = file;
+        } catch (IOException e) {
+            read.error = e.toString();
+        }
+    }
+
+    private static void closeFile(FileChannel file) {
+        try {
+            file.close();
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            try {
-                if (in != null) {
-                    in.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (started) {
+            started = false;
+            connection.getService().transferDone();
+        } else if (waiting) {
+            waiting = false;
+            connection.getService().transferCancelled(this);
+        }
+        for (FileChannel file : files.values()) {
+            closeFile(file);
+        }
+        files.clear();
+    }
+
+    /**
+     * Read: a read request and the progress made serving it.
+     */
+    private static class Read {
+        final int id;
+        String path;
+        long offset;
+        long length;
+        String error;
+        FileChannel file;
+        long position;
+        long end;
+
+        Read(int id) {
+            this.id = id;
+        }
+    }
+}
+
+/**
+ * BlockReceiver, stores a block sent by {@link BlockIngest} in the data
+ * directory, or a part file committed by a reducer. The file is written to a
+ * temporary file and renamed once complete, then the receipt is acknowledged.
+ * The data is written by a disk thread of the service one buffer at a time,
+ * the connection is not read from while a buffer is being written.
+ */
+class BlockReceiver implements Connection.Handler {
+
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Connection connection;
+    private final Path blockFile;
+    private final Path tmpFile;
+    private final ByteBuffer buffer;
+    // only used by the disk threads
+    private FileChannel output;
+    // bytes not handed to the disk threads yet
+    private long remaining;
+    private boolean writing;
+    private boolean closed;
+    private ByteBuffer ack;
+
+    public BlockReceiver(Connection connection, String blockName, long length) throws IOException {
+        this(connection, connection.getService().resolve(checkBlockName(blockName)), length);
+    }
+
+    public BlockReceiver(Connection connection, Path file, long length) {
+        this.connection = connection;
+        this.blockFile = file;
+        this.tmpFile = file.resolveSibling(file.getFileName() + TMP_SUFFIX);
+        this.remaining = length;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        if (remaining == 0) {
+            write();
+        }
+    }
+
+    private static String checkBlockName(String blockName) throws IOException {
+        if (!Block.isValidName(blockName)) {
+            throw new IOException("Invalid block name " + blockName);
+        }
+        return blockName;
+    }
+
+    @Override
+    public void onData(ByteBuffer data) throws IOException {
+        if (data.remaining() > remaining - buffer.position()) {
+            throw new IOException("More data than announced for " + blockFile);
+        }
+        buffer.put(data);
+        received();
+    }
+
+    @Override
+    public void onReadable() throws IOException {
+        if (writing) {
+            return;
+        }
+        if (connection.getChannel().read(buffer) < 0) {
+            // the sender gave up before the end of the block
+            connection.close();
+            return;
+        }
+        received();
+    }
+
+    /**
+     * Writes the buffer once it is full or holds the end of the file
+     */
+    private void received() throws IOException {
+        if (buffer.position() > remaining) {
+            throw new IOException("More data than announced for " + blockFile);
+        }
+        if (buffer.position() == remaining || !buffer.hasRemaining()) {
+            write();
+        }
+    }
+
+    /**
+     * Hands the buffer to a disk thread, which syncs and renames the file
+     * after its last bytes
+     */
+    private void write() {
+        writing = true;
+        connection.getKey().interestOps(0);
+        buffer.flip();
+        remaining -= buffer.remaining();
+        final boolean last = remaining == 0;
+        connection.getService().runOnDiskThread(new Runnable() {
+            @Override
+            public void run() {
+                IOException failure = null;
+                try {
+                    if (output == null) {
+                        Files.createDirectories(blockFile.getParent());
+                        output = FileChannel.open(tmpFile, StandardOpenOption.CREATE,
+                                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                    }
+                    while (buffer.hasRemaining()) {
+                        output.write(buffer);
+                    }
+                    if (last) {
+                        output.force(false);
+                        output.close();
+                        Files.move(tmpFile, blockFile, StandardCopyOption.REPLACE_EXISTING,
+                                StandardCopyOption.ATOMIC_MOVE);
+                    }
+                } catch (IOException e) {
+                    failure = e;
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
+                final IOException error = failure;
+                connection.getService().runOnSelector(new Runnable() {
+                    @Override
+                    public void run() {
+                        written(last, error);
+                    }
+                });
             }
+        });
+    }
+
+    /**
+     * Called on the selector thread once a buffer is written
+     */
+    private void written(boolean last, IOException error) {
+        writing = false;
+        if (closed) {
+            cleanUp();
+            return;
+        }
+        if (error != null) {
+            error.printStackTrace();
+            connection.close();
+            return;
+        }
+        if (!last) {
+            buffer.clear();
+            connection.getKey().interestOps(SelectionKey.OP_READ);
+            return;
+        }
+        ack = ByteBuffer.wrap((NamenodeService.BLOCK_WRITTEN + "\n").getBytes(NamenodeService.UTF8));
+        connection.getKey().interestOps(SelectionKey.OP_WRITE);
+        try {
+            onWritable();
+        } catch (IOException e) {
+            e.printStackTrace();
+            connection.close();
+        }
+    }
+
+    @Override
+    public void onWritable() throws IOException {
+        if (ack == null) {
+            return;
+        }
+        connection.getChannel().write(ack);
+        if (!ack.hasRemaining()) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (!writing) {
+            cleanUp();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Closes the file and drops it unless it was completed
+     */
+    private void cleanUp() {
+        connection.getService().runOnDiskThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (output != null) {
+                        output.close();
+                    }
+                    // renamed once complete
+                    Files.deleteIfExists(tmpFile);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+}
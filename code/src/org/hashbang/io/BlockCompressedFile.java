@@ -0,0 +1,187 @@
+package org.hashbang.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads ranges of the uncompressed bytes of a file written by
+ * {@link BlockCompressedOutputStream}. Only the blocks overlapping a range are
+ * read and decompressed; the most recently used ones are kept, so that
+ * streams reading neighbouring ranges share them.
+ */
+public class BlockCompressedFile implements Closeable {
+
+    private final FileChannel channel;
+    private final CompressionCodec codec;
+    private final long[] blockOffsets;
+    private final int blockSize;
+    private final long length;
+    private final Map<Integer, byte[]> cache;
+    private byte[] compressed;
+
+    /**
+     * @param file
+     * @param codec        codec the file was written with, ended when the file is closed
+     * @param cachedBlocks number of decompressed blocks to keep
+     * @throws IOException if the file was not written by a BlockCompressedOutputStream
+     */
+    public BlockCompressedFile(File file, CompressionCodec codec, final int cachedBlocks) throws IOException {
+        this.channel = new RandomAccessFile(file, "r").getChannel();
+        this.codec = codec;
+        try {
+            long size = channel.size();
+            ByteBuffer trailer = ByteBuffer.allocate(BlockCompressedOutputStream.TRAILER_BYTES);
+            if (size < trailer.capacity()) {
+                throw new IOException("Not a compressed file: " + file);
+            }
+            readFully(trailer, size - trailer.capacity());
+            this.length = trailer.getLong();
+            this.blockSize = trailer.getInt();
+            int numBlocks = trailer.getInt();
+            long tableOffset = trailer.getLong();
+            if (trailer.getInt() != BlockCompressedOutputStream.MAGIC) {
+                throw new IOException("Not a compressed file: " + file);
+            }
+            ByteBuffer table = ByteBuffer.allocate(numBlocks * 8);
+            readFully(table, tableOffset);
+            this.blockOffsets = new long[numBlocks];
+            for (int i = 0; i < numBlocks; i++) {
+                blockOffsets[i] = table.getLong();
+            }
+        } catch (IOException e) {
+            codec.end();
+            channel.close();
+            throw e;
+        }
+        this.cache = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                return size() > cachedBlocks;
+            }
+        };
+        this.compressed = new byte[0];
+    }
+
+    /**
+     * Returns the uncompressed length of the file
+     *
+     * @return length
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Opens a stream over a range of the uncompressed bytes
+     *
+     * @param offset
+     * @param length
+     * @return stream
+     */
+    public InputStream openStream(final long offset, final long length) {
+        return new InputStream() {
+            private long position = offset;
+            private final long end = Math.min(offset + length, BlockCompressedFile.this.length);
+            private byte[] block;
+            private int blockIndex = -1;
+
+            @Override
+            public int read() throws IOException {
+                if (position >= end) {
+                    return -1;
+                }
+                int b = currentBlock()[(int) (position % blockSize)] & 0xff;
+                position++;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (position >= end) {
+                    return -1;
+                }
+                byte[] block = currentBlock();
+                int blockOff = (int) (position % blockSize);
+                int n = (int) Math.min(Math.min(len, block.length - blockOff), end - position);
+                System.arraycopy(block, blockOff, b, off, n);
+                position += n;
+                return n;
+            }
+
+            private byte[] currentBlock() throws IOException {
+                int index = (int) (position / blockSize);
+                if (index != blockIndex) {
+                    block = getBlock(index);
+                    blockIndex = index;
+                }
+                return block;
+            }
+
+            @Override
+            public long skip(long n) {
+                long skipped = Math.max(0, Math.min(n, end - position));
+                position += skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(Integer.MAX_VALUE, end - position);
+            }
+        };
+    }
+
+    private byte[] getBlock(int index) throws IOException {
+        byte[] block = cache.get(index);
+        if (block != null) {
+            return block;
+        }
+        ByteBuffer header = ByteBuffer.allocate(8);
+        readFully(header, blockOffsets[index]);
+        int storedLength = header.getInt();
+        int rawLength = header.getInt();
+        block = new byte[rawLength];
+        if (storedLength == rawLength) {
+            readFully(ByteBuffer.wrap(block), blockOffsets[index] + 8);
+        } else {
+            if (compressed.length < storedLength) {
+                compressed = new byte[storedLength];
+            }
+            readFully(ByteBuffer.wrap(compressed, 0, storedLength), blockOffsets[index] + 8);
+            if (codec.decompress(compressed, 0, storedLength, block, 0, rawLength) != rawLength) {
+                throw new IOException("Corrupt block " + index);
+            }
+        }
+        cache.put(index, block);
+        return block;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Truncated compressed file");
+            }
+            position += n;
+        }
+        buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        cache.clear();
+        codec.end();
+        channel.close();
+    }
+}
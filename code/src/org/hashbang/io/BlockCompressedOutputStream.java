@@ -0,0 +1,125 @@
+package org.hashbang.io;
+
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes a file as a series of blocks of <code>blockSize</code> uncompressed
+ * bytes, each compressed on its own, so that {@link BlockCompressedFile} can
+ * read any range of the uncompressed bytes without decompressing the blocks
+ * before it.
+ * <p/>
+ * Every block is its stored length (int) and uncompressed length (int)
+ * followed by its bytes, kept uncompressed when compressing does not make it
+ * smaller. The file ends with the offset of every block (long), the
+ * uncompressed length (long), the block size (int), the number of blocks
+ * (int), the offset of the block table (long) and a magic number (int).
+ */
+public class BlockCompressedOutputStream extends FilterOutputStream {
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    static final int MAGIC = 0x48424331;
+    // uncompressed length, block size, number of blocks, table offset, magic
+    static final int TRAILER_BYTES = 8 + 4 + 4 + 8 + 4;
+
+    private final DataOutputStream out;
+    private final CompressionCodec codec;
+    private final byte[] block;
+    private final byte[] compressed;
+    private long[] blockOffsets;
+    private int numBlocks;
+    private int count;
+    private long written;
+    private long length;
+    private boolean closed;
+
+    public BlockCompressedOutputStream(OutputStream out, CompressionCodec codec) {
+        this(out, codec, DEFAULT_BLOCK_SIZE);
+    }
+
+    public BlockCompressedOutputStream(OutputStream out, CompressionCodec codec, int blockSize) {
+        super(out);
+        this.out = new DataOutputStream(out);
+        this.codec = codec;
+        this.block = new byte[blockSize];
+        this.compressed = new byte[codec.maxCompressedLength(blockSize)];
+        this.blockOffsets = new long[16];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == block.length) {
+            writeBlock();
+        }
+        block[count++] = (byte) b;
+        length++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == block.length) {
+                writeBlock();
+            }
+            int n = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            length += n;
+        }
+    }
+
+    /**
+     * Passes the written blocks on, the partial block is kept until it fills
+     * up or the stream is closed
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    private void writeBlock() throws IOException {
+        if (numBlocks == blockOffsets.length) {
+            blockOffsets = Arrays.copyOf(blockOffsets, numBlocks * 2);
+        }
+        blockOffsets[numBlocks++] = written;
+        int compressedLength = codec.compress(block, 0, count, compressed, 0);
+        boolean stored = compressedLength >= count;
+        int storedLength = stored ? count : compressedLength;
+        out.writeInt(storedLength);
+        out.writeInt(count);
+        out.write(stored ? block : compressed, 0, storedLength);
+        written += 8 + storedLength;
+        count = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (count > 0) {
+                writeBlock();
+            }
+            long tableOffset = written;
+            for (int i = 0; i < numBlocks; i++) {
+                out.writeLong(blockOffsets[i]);
+            }
+            out.writeLong(length);
+            out.writeInt(block.length);
+            out.writeInt(numBlocks);
+            out.writeLong(tableOffset);
+            out.writeInt(MAGIC);
+            out.flush();
+        } finally {
+            codec.end();
+            out.close();
+        }
+    }
+}
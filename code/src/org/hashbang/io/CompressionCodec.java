@@ -0,0 +1,54 @@
+package org.hashbang.io;
+
+import java.io.IOException;
+
+/**
+ * Compresses and decompresses independent blocks of bytes.
+ * <p/>
+ * A codec instance may keep state between calls and is used by one stream at
+ * a time, which ends it once closed. Implementations need a public no-argument constructor so that they
+ * can be chosen by class name, see {@link CompressionCodecs}.
+ */
+public interface CompressionCodec {
+
+    /**
+     * Returns the size of the buffer {@link #compress} needs for a block
+     *
+     * @param length length of the uncompressed block
+     * @return maximum compressed length
+     */
+    public int maxCompressedLength(int length);
+
+    /**
+     * Compresses a block.
+     *
+     * @param src
+     * @param srcOff
+     * @param srcLen
+     * @param dst    holds at least <code>maxCompressedLength(srcLen)</code> bytes from dstOff
+     * @param dstOff
+     * @return compressed length
+     */
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff);
+
+    /**
+     * Decompresses a block written by {@link #compress}.
+     *
+     * @param src
+     * @param srcOff
+     * @param srcLen compressed length
+     * @param dst
+     * @param dstOff
+     * @param dstLen uncompressed length
+     * @return number of bytes decompressed
+     * @throws IOException if the block is corrupt
+     */
+    public int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen)
+            throws IOException;
+
+    /**
+     * Frees the resources of the codec, such as native zlib memory. The
+     * codec cannot be used afterwards.
+     */
+    public void end();
+}
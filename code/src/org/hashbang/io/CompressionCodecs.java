@@ -0,0 +1,63 @@
+package org.hashbang.io;
+
+import org.hashbang.mr.Configuration;
+
+import java.util.zip.Deflater;
+
+/**
+ * Finds the {@link CompressionCodec} of the intermediate data of a job.
+ * <p/>
+ * <code>map.output.compress.codec</code> is <code>none</code> (the default),
+ * <code>lz4</code>, <code>deflate</code> or the name of a codec class.
+ * <code>map.output.compress.level</code> sets the level of the deflate codec,
+ * 1 by default.
+ */
+public class CompressionCodecs {
+
+    public static final String CODEC = "map.output.compress.codec";
+    public static final String LEVEL = "map.output.compress.level";
+    public static final String NONE = "none";
+    public static final String LZ4 = "lz4";
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * Returns true if the job's intermediate data is compressed
+     *
+     * @param conf job configuration
+     * @return true unless the codec is <code>none</code>
+     */
+    public static boolean isCompressed(Configuration conf) {
+        String name = conf == null ? null : conf.get(CODEC);
+        return name != null && !name.trim().isEmpty() && !NONE.equalsIgnoreCase(name.trim());
+    }
+
+    /**
+     * Returns a new codec instance for the job's intermediate data, to be
+     * ended with {@link CompressionCodec#end()}
+     *
+     * @param conf job configuration
+     * @return codec, or null if the data is not compressed
+     * @throws IllegalArgumentException if the codec is unknown
+     */
+    public static CompressionCodec getCodec(Configuration conf) {
+        if (!isCompressed(conf)) {
+            return null;
+        }
+        String name = conf.get(CODEC).trim();
+        if (LZ4.equalsIgnoreCase(name)) {
+            return new Lz4Codec();
+        }
+        if (DEFLATE.equalsIgnoreCase(name)) {
+            return new DeflateCodec(conf.getInt(LEVEL, Deflater.BEST_SPEED));
+        }
+        try {
+            return (CompressionCodec) Serialization.loadClass(name).newInstance();
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Compression codec not found: " + name, e);
+        } catch (InstantiationException e) {
+            throw new IllegalArgumentException("Cannot create compression codec " + name, e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot create compression codec " + name, e);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.hashbang.io;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses blocks with {@link Deflater} at a selectable level, from
+ * {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}. Slower
+ * than {@link Lz4Codec}, with a better ratio.
+ */
+public class DeflateCodec implements CompressionCodec {
+
+    private final Deflater deflater;
+    private final Inflater inflater;
+    private byte[] input = new byte[0];
+
+    public DeflateCodec() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    public DeflateCodec(int level) {
+        // raw deflate, blocks carry their lengths
+        this.deflater = new Deflater(level, true);
+        this.inflater = new Inflater(true);
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return length + (length >> 3) + 64;
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        deflater.reset();
+        deflater.setInput(src, srcOff, srcLen);
+        deflater.finish();
+        int dp = dstOff;
+        while (!deflater.finished()) {
+            dp += deflater.deflate(dst, dp, dst.length - dp);
+        }
+        return dp - dstOff;
+    }
+
+    @Override
+    public int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen)
+            throws IOException {
+        inflater.reset();
+        // raw inflate needs one byte past the input
+        if (input.length < srcLen + 1) {
+            input = new byte[srcLen + 1];
+        }
+        System.arraycopy(src, srcOff, input, 0, srcLen);
+        inflater.setInput(input, 0, srcLen + 1);
+        try {
+            int dp = dstOff;
+            while (dp < dstOff + dstLen && !inflater.finished()) {
+                int n = inflater.inflate(dst, dp, dstOff + dstLen - dp);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated deflate block");
+                }
+                dp += n;
+            }
+            return dp - dstOff;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt deflate block", e);
+        }
+    }
+
+    @Override
+    public void end() {
+        deflater.end();
+        inflater.end();
+    }
+}
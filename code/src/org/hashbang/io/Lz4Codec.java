@@ -0,0 +1,173 @@
+package org.hashbang.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A pure Java codec producing the LZ4 block format: a series of sequences,
+ * each one a token, literals and a back reference of at least 4 bytes within
+ * the last 64 KB. It trades ratio for speed, with a single hash probe per
+ * position and a growing step through incompressible data.
+ */
+public class Lz4Codec implements CompressionCodec {
+
+    private static final int MIN_MATCH = 4;
+    // the last literals and the last match start, as the format requires
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 14;
+    private static final int SKIP_TRIGGER = 6;
+    private static final int RUN_MASK = 15;
+
+    private final int[] hashTable = new int[1 << HASH_LOG];
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        int end = srcOff + srcLen;
+        int matchLimit = end - LAST_LITERALS;
+        int mfLimit = end - MF_LIMIT;
+        int anchor = srcOff;
+        int sp = srcOff;
+        int dp = dstOff;
+        Arrays.fill(hashTable, -1);
+        int misses = 0;
+        while (sp < mfLimit) {
+            int sequence = readInt(src, sp);
+            int h = hash(sequence);
+            int ref = hashTable[h];
+            hashTable[h] = sp;
+            if (ref < 0 || sp - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+                sp += (misses++ >> SKIP_TRIGGER) + 1;
+                continue;
+            }
+            misses = 0;
+            while (sp > anchor && ref > srcOff && src[sp - 1] == src[ref - 1]) {
+                sp--;
+                ref--;
+            }
+            int matchLength = MIN_MATCH;
+            while (sp + matchLength < matchLimit && src[sp + matchLength] == src[ref + matchLength]) {
+                matchLength++;
+            }
+            dp = writeSequence(src, anchor, sp - anchor, sp - ref, matchLength, dst, dp);
+            sp += matchLength;
+            anchor = sp;
+        }
+        // the rest is written as literals
+        int literals = end - anchor;
+        dp = writeToken(dst, dp, literals, 0);
+        System.arraycopy(src, anchor, dst, dp, literals);
+        return dp + literals - dstOff;
+    }
+
+    private static int writeSequence(byte[] src, int literalOff, int literals, int offset, int matchLength,
+                                     byte[] dst, int dp) {
+        dp = writeToken(dst, dp, literals, matchLength - MIN_MATCH);
+        System.arraycopy(src, literalOff, dst, dp, literals);
+        dp += literals;
+        dst[dp++] = (byte) offset;
+        dst[dp++] = (byte) (offset >>> 8);
+        if (matchLength - MIN_MATCH >= RUN_MASK) {
+            dp = writeLength(dst, dp, matchLength - MIN_MATCH - RUN_MASK);
+        }
+        return dp;
+    }
+
+    /**
+     * Writes the token and the extra bytes of the literal count
+     */
+    private static int writeToken(byte[] dst, int dp, int literals, int matchLength) {
+        dst[dp++] = (byte) (Math.min(literals, RUN_MASK) << 4 | Math.min(matchLength, RUN_MASK));
+        if (literals >= RUN_MASK) {
+            dp = writeLength(dst, dp, literals - RUN_MASK);
+        }
+        return dp;
+    }
+
+    private static int writeLength(byte[] dst, int dp, int length) {
+        while (length >= 255) {
+            dst[dp++] = (byte) 255;
+            length -= 255;
+        }
+        dst[dp++] = (byte) length;
+        return dp;
+    }
+
+    @Override
+    public int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen)
+            throws IOException {
+        int end = srcOff + srcLen;
+        int dstEnd = dstOff + dstLen;
+        int sp = srcOff;
+        int dp = dstOff;
+        try {
+            while (sp < end) {
+                int token = src[sp++] & 0xff;
+                int literals = token >>> 4;
+                if (literals == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[sp++] & 0xff;
+                        literals += b;
+                    } while (b == 255);
+                }
+                if (sp + literals > end || dp + literals > dstEnd) {
+                    throw new IOException("Corrupt LZ4 block: literals out of bounds");
+                }
+                System.arraycopy(src, sp, dst, dp, literals);
+                sp += literals;
+                dp += literals;
+                if (sp == end) {
+                    // the last sequence has no match
+                    break;
+                }
+                int offset = (src[sp] & 0xff) | (src[sp + 1] & 0xff) << 8;
+                sp += 2;
+                int matchLength = token & RUN_MASK;
+                if (matchLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[sp++] & 0xff;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                int ref = dp - offset;
+                if (offset == 0 || ref < dstOff || dp + matchLength > dstEnd) {
+                    throw new IOException("Corrupt LZ4 block: match out of bounds");
+                }
+                if (offset >= matchLength) {
+                    System.arraycopy(dst, ref, dst, dp, matchLength);
+                    dp += matchLength;
+                } else {
+                    // overlapping match, repeats the last offset bytes
+                    for (int i = 0; i < matchLength; i++) {
+                        dst[dp++] = dst[ref++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt LZ4 block", e);
+        }
+        return dp - dstOff;
+    }
+
+    @Override
+    public void end() {
+        // nothing held outside of the heap
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
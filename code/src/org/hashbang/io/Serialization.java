@@ -0,0 +1,183 @@
+package org.hashbang.io;
+
+import org.hashbang.mr.Configuration;
+
+import java.io.*;
+
+/**
+ * Finds the {@link Serializer} of a type.
+ * <p/>
+ * Serializers registered in the job's {@link Configuration} under
+ * <code>io.serializer.&lt;class name&gt;</code> take precedence. Otherwise
+ * String, Long, Integer and Double use compact built-in encodings,
+ * {@link Writable} types serialize themselves and any other
+ * {@link Serializable} type falls back to Java serialization.
+ */
+public class Serialization {
+
+    public static final String SERIALIZER_PREFIX = "io.serializer.";
+
+    /**
+     * Returns the configuration key registering a serializer for a class
+     *
+     * @param cls
+     * @return configuration key
+     */
+    public static String getSerializerKey(Class<?> cls) {
+        return SERIALIZER_PREFIX + cls.getName();
+    }
+
+    /**
+     * Returns the serializer for a type
+     *
+     * @param cls  the type to serialize
+     * @param conf job configuration holding the user serializers
+     * @return serializer
+     * @throws IllegalArgumentException if the type cannot be serialized
+     */
+    // the built-in serializers are picked by comparing cls, so each handles T;
+    // a configured serializer is trusted to handle the type it is registered for
+    @SuppressWarnings("unchecked")
+    public static <T> Serializer<T> getSerializer(Class<T> cls, Configuration conf) {
+        String serializerName = conf == null ? null : conf.get(getSerializerKey(cls));
+        if (serializerName != null) {
+            try {
+                return (Serializer<T>) loadClass(serializerName).newInstance();
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("Serializer not found: " + serializerName, e);
+            } catch (InstantiationException e) {
+                throw new IllegalArgumentException("Cannot create serializer " + serializerName, e);
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Cannot create serializer " + serializerName, e);
+            }
+        }
+        if (cls == String.class) {
+            return (Serializer<T>) new StringSerializer();
+        }
+        if (cls == Long.class) {
+            return (Serializer<T>) new LongSerializer();
+        }
+        if (cls == Integer.class) {
+            return (Serializer<T>) new IntegerSerializer();
+        }
+        if (cls == Double.class) {
+            return (Serializer<T>) new DoubleSerializer();
+        }
+        if (Writable.class.isAssignableFrom(cls)) {
+            return (Serializer<T>) new WritableSerializer(cls.asSubclass(Writable.class));
+        }
+        if (Serializable.class.isAssignableFrom(cls)) {
+            return new JavaSerializer<>();
+        }
+        throw new IllegalArgumentException("No serializer for " + cls.getName()
+                + ": implement Writable or register one with Job.setSerializer");
+    }
+
+    /**
+     * Loads a class by name, also from the job jar
+     *
+     * @param name
+     * @return class
+     * @throws ClassNotFoundException
+     */
+    public static Class<?> loadClass(String name) throws ClassNotFoundException {
+        return Class.forName(name, true, ClassLoader.getSystemClassLoader());
+    }
+
+    public static class StringSerializer implements Serializer<String> {
+        public void serialize(String value, DataOutput out) throws IOException {
+            WritableUtils.writeString(out, value);
+        }
+
+        public String deserialize(DataInput in) throws IOException {
+            return WritableUtils.readString(in);
+        }
+    }
+
+    public static class LongSerializer implements Serializer<Long> {
+        public void serialize(Long value, DataOutput out) throws IOException {
+            WritableUtils.writeVLong(out, value);
+        }
+
+        public Long deserialize(DataInput in) throws IOException {
+            return WritableUtils.readVLong(in);
+        }
+    }
+
+    public static class IntegerSerializer implements Serializer<Integer> {
+        public void serialize(Integer value, DataOutput out) throws IOException {
+            WritableUtils.writeVInt(out, value);
+        }
+
+        public Integer deserialize(DataInput in) throws IOException {
+            return WritableUtils.readVInt(in);
+        }
+    }
+
+    public static class DoubleSerializer implements Serializer<Double> {
+        public void serialize(Double value, DataOutput out) throws IOException {
+            out.writeDouble(value);
+        }
+
+        public Double deserialize(DataInput in) throws IOException {
+            return in.readDouble();
+        }
+    }
+
+    /**
+     * Serializes {@link Writable} types through their own write/readFields.
+     */
+    public static class WritableSerializer implements Serializer<Writable> {
+        private final Class<? extends Writable> cls;
+
+        public WritableSerializer(Class<? extends Writable> cls) {
+            this.cls = cls;
+        }
+
+        public void serialize(Writable value, DataOutput out) throws IOException {
+            value.write(out);
+        }
+
+        public Writable deserialize(DataInput in) throws IOException {
+            Writable value;
+            try {
+                value = cls.newInstance();
+            } catch (InstantiationException e) {
+                throw new IOException("Cannot create " + cls.getName(), e);
+            } catch (IllegalAccessException e) {
+                throw new IOException("Cannot create " + cls.getName(), e);
+            }
+            value.readFields(in);
+            return value;
+        }
+    }
+
+    /**
+     * Falls back to Java serialization, one length-prefixed object at a time.
+     */
+    public static class JavaSerializer<T> implements Serializer<T> {
+        public void serialize(T value, DataOutput out) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bytes);
+            oos.writeObject(value);
+            oos.close();
+            WritableUtils.writeVInt(out, bytes.size());
+            out.write(bytes.toByteArray());
+        }
+
+        // the object was written by serialize, which only takes a T
+        @SuppressWarnings("unchecked")
+        public T deserialize(DataInput in) throws IOException {
+            byte[] bytes = new byte[WritableUtils.readVInt(in)];
+            in.readFully(bytes);
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            try {
+                return (T) ois.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            } finally {
+                ois.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.hashbang.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts objects of a type to and from a binary encoding.
+ * <p/>
+ * Implementations need a public no-argument constructor so that they can be
+ * registered with {@link org.hashbang.mr.Job#setSerializer(Class, Class)}.
+ */
+public interface Serializer<T> {
+
+    /**
+     * Write <code>value</code> to <code>out</code>.
+     *
+     * @param value
+     * @param out
+     * @throws IOException
+     */
+    public void serialize(T value, DataOutput out) throws IOException;
+
+    /**
+     * Read the next value from <code>in</code>.
+     *
+     * @param in
+     * @return the value
+     * @throws IOException
+     */
+    public T deserialize(DataInput in) throws IOException;
+}
@@ -0,0 +1,30 @@
+package org.hashbang.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A type that serializes itself with a compact binary encoding.
+ * <p/>
+ * Implementations need a public no-argument constructor: the framework creates
+ * an empty instance and calls {@link #readFields(DataInput)} to fill it.
+ */
+public interface Writable {
+
+    /**
+     * Serialize the fields of this object to <code>out</code>.
+     *
+     * @param out <code>DataOuput</code> to serialize this object into.
+     * @throws IOException
+     */
+    public void write(DataOutput out) throws IOException;
+
+    /**
+     * Deserialize the fields of this object from <code>in</code>.
+     *
+     * @param in <code>DataInput</code> to deseriablize this object from.
+     * @throws IOException
+     */
+    public void readFields(DataInput in) throws IOException;
+}
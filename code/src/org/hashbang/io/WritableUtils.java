@@ -0,0 +1,91 @@
+package org.hashbang.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Helpers for the variable-length encodings used by the built-in serializers.
+ */
+public class WritableUtils {
+
+    /**
+     * Writes a long in 1 to 10 bytes. Small values, positive or negative,
+     * take the fewest bytes (zig-zag encoding).
+     *
+     * @param out
+     * @param value
+     * @throws IOException
+     */
+    public static void writeVLong(DataOutput out, long value) throws IOException {
+        long zigZag = (value << 1) ^ (value >> 63);
+        while ((zigZag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        out.writeByte((int) zigZag);
+    }
+
+    /**
+     * Reads a long written by {@link #writeVLong(DataOutput, long)}.
+     *
+     * @param in
+     * @return the value
+     * @throws IOException
+     */
+    public static long readVLong(DataInput in) throws IOException {
+        long zigZag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            zigZag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigZag >>> 1) ^ -(zigZag & 1);
+            }
+        }
+        throw new IOException("Malformed variable-length long");
+    }
+
+    public static void writeVInt(DataOutput out, int value) throws IOException {
+        writeVLong(out, value);
+    }
+
+    public static int readVInt(DataInput in) throws IOException {
+        long value = readVLong(in);
+        if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+            throw new IOException("Variable-length int out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Writes a string as its UTF-8 bytes prefixed by their length. Unlike
+     * {@link DataOutput#writeUTF(String)} there is no 64 KB limit.
+     *
+     * @param out
+     * @param value
+     * @throws IOException
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutput, String)}.
+     *
+     * @param in
+     * @return the string
+     * @throws IOException
+     */
+    public static String readString(DataInput in) throws IOException {
+        int length = readVInt(in);
+        if (length < 0) {
+            throw new IOException("Negative string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,440 @@
+package org.hashbang.jobtracker;
+
+import org.hashbang.fs.Block;
+import org.hashbang.mr.Configuration;
+import org.hashbang.mr.JobContext;
+import org.hashbang.mr.MapContext;
+import org.hashbang.mr.ReduceContext;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Hands out the map tasks of a job to the task trackers asking for work and
+ * tracks the progress of their attempts. A task tracker is given a task whose
+ * block has a replica on its host when there is one.
+ * <p/>
+ * Once every map task has been handed out, a task tracker asking for work is
+ * given a backup attempt of a straggler: a task that has been running for at
+ * least <code>map.speculative.min.runtime.ms</code> and whose progress is more
+ * than <code>map.speculative.gap</code> behind the average of the job's tasks.
+ * The first attempt of a task to finish is allowed to publish its output, the
+ * other one is discarded. The task is committed once the attempt confirms its
+ * output is published, and handed out again if the attempt fails instead.
+ * <p/>
+ * The reduce tasks start on the task trackers the job assigned them to. Once
+ * every map task is committed, reduce stragglers get backup attempts the same
+ * way, unless <code>reduce.speculative.execution</code> is false, and failed
+ * reduce tasks are handed out again. A task is handed out again when an
+ * attempt fails and no other attempt of the task is running.
+ */
+public class AttemptScheduler {
+
+    public static final String SPECULATIVE = "map.speculative.execution";
+    public static final String REDUCE_SPECULATIVE = "reduce.speculative.execution";
+    public static final String SPECULATIVE_GAP = "map.speculative.gap";
+    public static final String SPECULATIVE_MIN_RUNTIME = "map.speculative.min.runtime.ms";
+    // how often a task tracker waiting for work looks for stragglers again
+    private static final long RECHECK_INTERVAL = 1000;
+
+    /**
+     * A map or reduce task of the job and the state of its attempts
+     */
+    private static class TaskStatus {
+        final JobContext context;
+        final int id;
+        final boolean reduce;
+        final List<String> hosts = new ArrayList<>();
+        // attempts that neither failed nor were committed or discarded
+        final Set<Integer> running = new HashSet<>();
+        long startTime;
+        float progress;
+        // the attempt allowed to publish its output, until it confirms
+        int committingAttempt = -1;
+        int committedAttempt = -1;
+
+        TaskStatus(JobContext context, int id, boolean reduce) {
+            this.context = context;
+            this.id = id;
+            this.reduce = reduce;
+        }
+
+        boolean isCommitted() {
+            return committedAttempt >= 0;
+        }
+
+        String getName() {
+            return (reduce ? "reduce task " : "map task ") + id;
+        }
+    }
+
+    /**
+     * A map or reduce task attempt handed out to a task tracker
+     */
+    public static class Attempt {
+        private final JobContext context;
+        private final int attemptId;
+
+        Attempt(JobContext context, int attemptId) {
+            this.context = context;
+            this.attemptId = attemptId;
+        }
+
+        /**
+         * @return a {@link MapContext} or a {@link ReduceContext}
+         */
+        public JobContext getContext() {
+            return context;
+        }
+
+        public int getAttemptId() {
+            return attemptId;
+        }
+    }
+
+    private final long jobId;
+    private final Queue<TaskStatus> pending;
+    private final Map<Integer, TaskStatus> tasks;
+    private final Queue<TaskStatus> pendingReduces;
+    private final Map<Integer, TaskStatus> reduceTasks;
+    private final boolean speculative;
+    private final boolean reduceSpeculative;
+    private final float gap;
+    private final long minRuntime;
+    private int numCommitted;
+    private int numReducesCommitted;
+
+    /**
+     * @param jobId
+     * @param mapTasks
+     * @param reduceTasks  the reduce tasks by partition
+     * @param reducerHosts the task tracker running the first attempt of each reduce task
+     * @param conf
+     */
+    public AttemptScheduler(long jobId, List<MapContext> mapTasks, List<ReduceContext> reduceTasks,
+                            List<String> reducerHosts, Configuration conf) {
+        this.jobId = jobId;
+        this.pending = new LinkedList<>();
+        this.tasks = new LinkedHashMap<>();
+        for (MapContext context : mapTasks) {
+            TaskStatus status = new TaskStatus(context, context.getTaskId(), false);
+            pending.add(status);
+            tasks.put(context.getTaskId(), status);
+        }
+        this.pendingReduces = new LinkedList<>();
+        this.reduceTasks = new LinkedHashMap<>();
+        for (ReduceContext context : reduceTasks) {
+            TaskStatus status = new TaskStatus(context, context.getPartition(), true);
+            // started by the task tracker the partition is pushed to, see TTListener
+            status.hosts.add(reducerHosts.get(context.getPartition()));
+            status.running.add(0);
+            this.reduceTasks.put(context.getPartition(), status);
+        }
+        this.speculative = conf.getBoolean(SPECULATIVE, true);
+        this.reduceSpeculative = conf.getBoolean(REDUCE_SPECULATIVE, true);
+        this.gap = conf.getFloat(SPECULATIVE_GAP, 0.2f);
+        this.minRuntime = conf.getInt(SPECULATIVE_MIN_RUNTIME, 10000);
+    }
+
+    public long getJobId() {
+        return jobId;
+    }
+
+    /**
+     * Returns the next attempt for a task tracker to run. Once all map tasks
+     * are handed out, waits until either a straggler or a failed task is
+     * found or all the job's tasks are committed.
+     *
+     * @param host the task tracker asking for work
+     * @return the attempt, or null once all map and reduce tasks are committed
+     * @throws InterruptedException
+     */
+    public synchronized Attempt nextAttempt(String host) throws InterruptedException {
+        while (true) {
+            TaskStatus task = pollPending(host);
+            if (task != null) {
+                return startAttempt(task, host);
+            }
+            if (numCommitted == tasks.size()) {
+                if (numReducesCommitted == reduceTasks.size()) {
+                    return null;
+                }
+                task = pollPendingReduce(host);
+                if (task != null) {
+                    return startAttempt(task, host);
+                }
+            }
+            task = numCommitted < tasks.size()
+                    ? findStraggler(tasks.values(), host, speculative)
+                    : findStraggler(reduceTasks.values(), host, reduceSpeculative);
+            if (task != null) {
+                System.out.println("Starting backup attempt of " + task.getName()
+                        + " at " + task.progress + " progress");
+                return startAttempt(task, host);
+            }
+            wait(RECHECK_INTERVAL);
+        }
+    }
+
+    /**
+     * Removes the first pending task with a replica of its block on the
+     * host, or the first pending task if there is none
+     */
+    private TaskStatus pollPending(String host) {
+        Iterator<TaskStatus> it = pending.iterator();
+        while (it.hasNext()) {
+            TaskStatus task = it.next();
+            List<Block> blocks = ((MapContext) task.context).getBlocks();
+            if (blocks == null) {
+                break;
+            }
+            for (String replica : blocks.get(0).getReplicas()) {
+                if (Block.getHost(replica).equals(host)) {
+                    it.remove();
+                    return task;
+                }
+            }
+        }
+        return pending.poll();
+    }
+
+    /**
+     * Removes the first failed reduce task, preferring a host that did not run it
+     */
+    private TaskStatus pollPendingReduce(String host) {
+        for (Iterator<TaskStatus> it = pendingReduces.iterator(); it.hasNext(); ) {
+            TaskStatus task = it.next();
+            if (!task.hosts.contains(host)) {
+                it.remove();
+                return task;
+            }
+        }
+        return pendingReduces.poll();
+    }
+
+    private Attempt startAttempt(TaskStatus task, String host) {
+        if (task.running.isEmpty()) {
+            // the first attempt, or an attempt replacing failed ones
+            task.startTime = System.currentTimeMillis();
+        }
+        int attemptId = task.hosts.size();
+        task.hosts.add(host);
+        task.running.add(attemptId);
+        return new Attempt(task.context, attemptId);
+    }
+
+    /**
+     * Finds the running task furthest behind the average progress of its
+     * kind that has a single running attempt and does not run on the host
+     */
+    private TaskStatus findStraggler(Collection<TaskStatus> candidates, String host, boolean enabled) {
+        if (!enabled || candidates.isEmpty()) {
+            return null;
+        }
+        float total = 0;
+        for (TaskStatus task : candidates) {
+            total += task.isCommitted() ? 1.0f : task.progress;
+        }
+        float average = total / candidates.size();
+        long now = System.currentTimeMillis();
+        TaskStatus straggler = null;
+        for (TaskStatus task : candidates) {
+            if (task.isCommitted() || task.committingAttempt >= 0 || task.running.size() != 1 || task.hosts.contains(host)
+                    || task.startTime == 0 || now - task.startTime < minRuntime
+                    || task.progress >= average - gap) {
+                continue;
+            }
+            if (straggler == null || task.progress < straggler.progress) {
+                straggler = task;
+            }
+        }
+        return straggler;
+    }
+
+    /**
+     * Waits until every map task is committed
+     *
+     * @return the host holding the output of every map task, by task id
+     * @throws InterruptedException
+     */
+    public synchronized Map<Integer, String> awaitMapOutputs() throws InterruptedException {
+        while (numCommitted < tasks.size()) {
+            wait();
+        }
+        Map<Integer, String> hosts = new LinkedHashMap<>();
+        for (Map.Entry<Integer, TaskStatus> entry : tasks.entrySet()) {
+            TaskStatus task = entry.getValue();
+            hosts.put(entry.getKey(), task.hosts.get(task.committedAttempt));
+        }
+        return hosts;
+    }
+
+    /**
+     * Records the progress of a map task attempt
+     *
+     * @param taskId
+     * @param attemptId
+     * @param progress
+     * @return false if the attempt should be killed, another attempt of the task was committed
+     */
+    public synchronized boolean reportProgress(int taskId, int attemptId, float progress) {
+        return reportProgress(tasks.get(taskId), attemptId, progress);
+    }
+
+    /**
+     * Records the progress of a reduce task attempt
+     *
+     * @param partition
+     * @param attemptId
+     * @param progress
+     * @return false if the attempt should be killed, another attempt of the task was committed
+     */
+    public synchronized boolean reportReduceProgress(int partition, int attemptId, float progress) {
+        return reportProgress(reduceTasks.get(partition), attemptId, progress);
+    }
+
+    private boolean reportProgress(TaskStatus task, int attemptId, float progress) {
+        if (task == null) {
+            return false;
+        }
+        if (task.isCommitted()) {
+            return task.committedAttempt == attemptId;
+        }
+        if (!task.running.contains(attemptId)) {
+            return false;
+        }
+        task.progress = Math.max(task.progress, progress);
+        return true;
+    }
+
+    /**
+     * Hands a map task out again if an attempt failed, no other attempt has
+     * committed it and none is still running. This includes an attempt that
+     * failed to publish its output after it was allowed to
+     *
+     * @param taskId
+     * @param attemptId
+     */
+    public synchronized void attemptFailed(int taskId, int attemptId) {
+        attemptFailed(tasks.get(taskId), attemptId, pending);
+    }
+
+    /**
+     * Hands a reduce task out again if an attempt failed, no other attempt
+     * has committed it and none is still running
+     *
+     * @param partition
+     * @param attemptId
+     */
+    public synchronized void reduceAttemptFailed(int partition, int attemptId) {
+        attemptFailed(reduceTasks.get(partition), attemptId, pendingReduces);
+    }
+
+    private void attemptFailed(TaskStatus task, int attemptId, Queue<TaskStatus> queue) {
+        if (task == null || task.isCommitted() || !task.running.remove(attemptId)) {
+            return;
+        }
+        if (task.committingAttempt == attemptId) {
+            // its output may not be published, another attempt may commit
+            task.committingAttempt = -1;
+        }
+        System.out.println("Attempt " + attemptId + " of " + task.getName() + " failed");
+        if (task.running.isEmpty()) {
+            // the next attempt starts over
+            task.startTime = 0;
+            task.progress = 0;
+            queue.add(task);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Allows the first attempt of a map task to finish to publish its output
+     *
+     * @param taskId
+     * @param attemptId
+     * @return true if the attempt may publish its output, false if it should be discarded
+     */
+    public synchronized boolean commit(int taskId, int attemptId) {
+        return commit(tasks.get(taskId), attemptId);
+    }
+
+    /**
+     * Allows the first attempt of a reduce task to finish to publish its output
+     *
+     * @param partition
+     * @param attemptId
+     * @return true if the attempt may publish its output, false if it should be discarded
+     */
+    public synchronized boolean commitReduce(int partition, int attemptId) {
+        return commit(reduceTasks.get(partition), attemptId);
+    }
+
+    private boolean commit(TaskStatus task, int attemptId) {
+        if (task == null) {
+            return false;
+        }
+        if (task.isCommitted()) {
+            return task.committedAttempt == attemptId;
+        }
+        if (task.committingAttempt < 0 && task.running.contains(attemptId)) {
+            task.committingAttempt = attemptId;
+        }
+        if (task.committingAttempt == attemptId) {
+            return true;
+        }
+        // the attempt discards its output
+        task.running.remove(attemptId);
+        return false;
+    }
+
+    /**
+     * Commits a map task once the attempt allowed to publish its output did
+     *
+     * @param taskId
+     * @param attemptId
+     */
+    public synchronized void committed(int taskId, int attemptId) {
+        committed(tasks.get(taskId), attemptId);
+    }
+
+    /**
+     * Commits a reduce task once the attempt allowed to publish its output did
+     *
+     * @param partition
+     * @param attemptId
+     */
+    public synchronized void reduceCommitted(int partition, int attemptId) {
+        committed(reduceTasks.get(partition), attemptId);
+    }
+
+    private void committed(TaskStatus task, int attemptId) {
+        if (task == null || task.committingAttempt != attemptId) {
+            return;
+        }
+        task.committingAttempt = -1;
+        task.committedAttempt = attemptId;
+        task.progress = 1.0f;
+        if (task.reduce) {
+            numReducesCommitted++;
+        } else if (++numCommitted == tasks.size()) {
+            // the reduce tasks can only start reducing now
+            long now = System.currentTimeMillis();
+            for (TaskStatus reduceTask : reduceTasks.values()) {
+                if (reduceTask.startTime == 0) {
+                    reduceTask.startTime = now;
+                }
+            }
+        }
+        // task trackers waiting for work may be done
+        notifyAll();
+    }
+}
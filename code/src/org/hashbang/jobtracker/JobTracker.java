@@ -1,9 +1,12 @@
 package org.hashbang.jobtracker;
 
-import org.hashbang.mr.Configuration;
+import org.hashbang.fs.Block;
+import org.hashbang.fs.BlockMap;
+import org.hashbang.mr.InputSplit;
 import org.hashbang.mr.Job;
 import org.hashbang.mr.JobContext;
 import org.hashbang.mr.MapContext;
+import org.hashbang.mr.ReduceContext;
 import org.hashbang.tasktracker.TaskTracker;
 import org.hashbang.util.AutoDiscoverQueue;
 import org.hashbang.util.DynamicLoader;
@@ -15,8 +18,10 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author alwin
@@ -27,14 +32,39 @@ public class JobTracker {
     public static final int JOB_STATUS_PORT = 9092;
     public static final String TASK_TRACKER_IDENTIFIER = "TASKTRACKER";
     public static final String JOB_CLIENT_IDENTIFIER = "JOBCLIENT";
-    public static final String TASK_COMPLETE_IDENTIFIER = "TASK_COMPLETE";
+    public static final String MAP_OUTPUTS_IDENTIFIER = "MAP_OUTPUTS";
+    public static final String TASK_REQUEST_IDENTIFIER = "TASK_REQUEST";
+    public static final String TASK_PROGRESS_IDENTIFIER = "TASK_PROGRESS";
+    public static final String TASK_COMMIT_IDENTIFIER = "TASK_COMMIT";
+    public static final String TASK_COMMITTED_IDENTIFIER = "TASK_COMMITTED";
+    public static final String TASK_FAILED_IDENTIFIER = "TASK_FAILED";
+    public static final String DATANODE_IDENTIFIER = "DATANODE";
+    public static final String BLOCK_ALLOCATE_IDENTIFIER = "BLOCK_ALLOCATE";
+    public static final String BLOCK_COMMIT_IDENTIFIER = "BLOCK_COMMIT";
+    public static final String MAP_PROGRESS = "M";
+    public static final String REDUCE_PROGRESS = "R";
+    public static final String KILL = "KILL";
+    public static final String COMMIT = "COMMIT";
+    public static final String ABORT = "ABORT";
     private List<TaskTrackerHandler> taskTrackerHandlers;
     private List<String> taskTrackerNodes;
-    private String reducerIP;
+    private List<String> reducerIPs;
+    private AttemptScheduler attemptScheduler;
+    private BlockMap blockMap;
 
     public JobTracker() {
-        taskTrackerHandlers = new ArrayList<>();
+        taskTrackerHandlers = Collections.synchronizedList(new ArrayList<TaskTrackerHandler>());
         taskTrackerNodes = new ArrayList<>();
+        blockMap = new BlockMap();
+    }
+
+    /**
+     * Returns the locations of the blocks of the files stored on the data nodes
+     *
+     * @return blockMap
+     */
+    public BlockMap getBlockMap() {
+        return blockMap;
     }
 
     /**
@@ -56,62 +86,109 @@ public class JobTracker {
     }
 
     /**
-     * Returns the reducer's IP address
+     * Returns the IP addresses of the reducers, indexed by partition
      *
-     * @return reducerIP
+     * @return reducerIPs
      */
-    public String getReducer() {
-        return reducerIP;
+    public List<String> getReducers() {
+        return reducerIPs;
     }
 
     /**
-     * Sets the reducer's IP address
+     * Sets the IP addresses of the reducers, indexed by partition
      *
-     * @param reducerIP
+     * @param reducerIPs
      */
-    public void setReducer(String reducerIP) {
-        this.reducerIP = reducerIP;
+    public void setReducers(List<String> reducerIPs) {
+        this.reducerIPs = reducerIPs;
+    }
+
+    /**
+     * Sets the scheduler of the running job's task attempts
+     *
+     * @param attemptScheduler
+     */
+    public synchronized void setAttemptScheduler(AttemptScheduler attemptScheduler) {
+        this.attemptScheduler = attemptScheduler;
+    }
+
+    /**
+     * Returns the scheduler of a job's task attempts
+     *
+     * @param jobId
+     * @return the scheduler, or null if the job is not the running job
+     */
+    public synchronized AttemptScheduler getAttemptScheduler(long jobId) {
+        if (attemptScheduler == null || attemptScheduler.getJobId() != jobId) {
+            return null;
+        }
+        return attemptScheduler;
     }
 
     /**
-     * Returns true if reducer is already assigned
+     * Spreads the reduce tasks of a job round robin over the task trackers
+     * that run its map tasks.
      *
-     * @return true if reducer is already assigned, otherwise false
+     * @param numReduceTasks
+     * @param mapperIPs
+     * @return reducer IP for each partition
      */
-    public boolean isReducerAvailable() {
-        return reducerIP != null;
+    public static List<String> assignReducers(int numReduceTasks, List<String> mapperIPs) {
+        List<String> reducers = new ArrayList<>(numReduceTasks);
+        for (int partition = 0; partition < numReduceTasks; partition++) {
+            reducers.add(mapperIPs.get(partition % mapperIPs.size()));
+        }
+        return reducers;
     }
 
     /**
-     * Returns a list of {@link MapContext} given a job and a jobId
+     * Returns a list of {@link MapContext}, one per split of the job's input
+     * as cut by its {@link org.hashbang.mr.InputFormat}
      *
      * @param job
      * @param jobId
+     * @param blocks the blocks of the input stored on the data nodes, or null
+     *               when the input is a file on this host
      * @return
+     * @throws IOException
      */
-    public static List<MapContext> getContextsWithSplitInfo(Job job, int jobId) {
+    public static List<MapContext> getContextsWithSplitInfo(Job job, int jobId, List<Block> blocks) throws IOException {
         List<MapContext> contexts = new ArrayList<>();
-        File inputFile = new File(job.getInputPath());
-        long fileLength = inputFile.length();
-        Configuration conf = job.getConf();
-        int blockSize = (int) Long.parseLong(conf.get("io.file.blocksize"))
-                * 1024 * 1024;
-        int numSplits = (int) Math.ceil(fileLength / (double) blockSize);
-        long offset;
-        int i;
-        // iterating only numSplits-1 times to account for the
-        // last split size not being equal to block size
-        for (i = 0; i < (numSplits - 1); i++) {
-            offset = blockSize * i;
-            contexts.add(new MapContext(
-                    jobId, job, offset, blockSize));
+        List<InputSplit> splits = MapContext.newInputFormat(job).getSplits(job, blocks);
+        for (int i = 0; i < splits.size(); i++) {
+            InputSplit split = splits.get(i);
+            MapContext context = newMapContext(jobId, job, split.getOffset(), (int) split.getLength());
+            // number the map tasks, the id names the task's map output file
+            context.setTaskId(i);
+            context.setBlocks(split.getBlocks());
+            contexts.add(context);
         }
-        // handling last split size
-        offset = blockSize * i;
-        contexts.add(new MapContext(jobId, job, offset, (int) (fileLength - offset)));
         return contexts;
     }
 
+    /**
+     * Creates the context of a map task as an instance of the job's
+     * {@link Job#getMapContextClass()}
+     *
+     * @param jobId
+     * @param job
+     * @param offset
+     * @param dataSize
+     * @return the map task's context
+     */
+    private static MapContext newMapContext(int jobId, Job job, long offset, int dataSize) {
+        Class<? extends MapContext> cls = job.getMapContextClass();
+        if (cls != null && cls != MapContext.class) {
+            try {
+                return cls.getConstructor(int.class, Job.class, long.class, int.class)
+                        .newInstance(jobId, job, offset, dataSize);
+            } catch (ReflectiveOperationException e) {
+                e.printStackTrace();
+            }
+        }
+        return new MapContext(jobId, job, offset, dataSize);
+    }
+
     public static void main(String[] args) throws IOException, InterruptedException {
         JobTracker jobTracker = new JobTracker();
         JTListener listener = new JTListener(jobTracker);
@@ -124,15 +201,12 @@ public class JobTracker {
  */
 class JTListener extends Thread {
     JobTracker jobTracker;
-    List<TaskTrackerHandler> taskTrackerHandlers;
 
     public JTListener(JobTracker jobTracker) {
         this.jobTracker = jobTracker;
-        this.taskTrackerHandlers = jobTracker.getTaskTrackerHandlers();
     }
 
     public void run() {
-        TaskTrackerHandler taskTrackerHandler;
         ServerSocket listener;
         try {
             listener = new ServerSocket(JobTracker.JT_LISTEN_PORT);
@@ -142,26 +216,8 @@ class JTListener extends Thread {
             try {
                 while (true) {
                     Socket socket = listener.accept();
-                    BufferedReader in = new BufferedReader(
-                            new InputStreamReader(socket.getInputStream()));
-                    // check handshake info and decide which handler to call
-                    String identifier = in.readLine();
-                    if (identifier.contentEquals(JobTracker.JOB_CLIENT_IDENTIFIER)) {
-                        synchronized (jobTracker) {
-                            // reset reducer for each job
-                            jobTracker.setReducer(null);
-                        }
-                        // start a job handler
-                        new JobClientHandler(socket, jobTracker).start();
-                    } else if (identifier.contentEquals(JobTracker.TASK_TRACKER_IDENTIFIER)) {
-                        // send JobTracker's IP address to Amazon SQS as soon as a task tracker is connected
-                        AutoDiscoverQueue.sendInfo(InetAddress.getLocalHost().getHostAddress());
-                        taskTrackerHandler = new TaskTrackerHandler(socket, jobTracker);
-                        taskTrackerHandlers.add(taskTrackerHandler);
-                        taskTrackerHandler.start();
-                    } else if (identifier.contentEquals(JobTracker.TASK_COMPLETE_IDENTIFIER)) {
-                        announceReducer(socket);
-                    }
+                    // a slow or failing client must not hold up the others
+                    new JTRequestHandler(socket, jobTracker).start();
                 }
             } finally {
                 listener.close();
@@ -170,26 +226,189 @@ class JTListener extends Thread {
             e.printStackTrace();
         }
     }
+}
+
+/**
+ * Reads the identifier of a connection to the JobTracker and serves it. The
+ * short requests are answered on this thread, the others are handed to their
+ * own handler. A failing request only closes its own connection.
+ */
+class JTRequestHandler extends Thread {
+
+    private Socket socket;
+    private JobTracker jobTracker;
+
+    public JTRequestHandler(Socket socket, JobTracker jobTracker) {
+        this.socket = socket;
+        this.jobTracker = jobTracker;
+    }
+
+    public void run() {
+        try {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream()));
+            // check handshake info and decide which handler to call
+            String identifier = in.readLine();
+            if (identifier == null) {
+                socket.close();
+            } else if (identifier.contentEquals(JobTracker.JOB_CLIENT_IDENTIFIER)) {
+                synchronized (jobTracker) {
+                    // reset reducers for each job
+                    jobTracker.setReducers(null);
+                }
+                // start a job handler
+                new JobClientHandler(socket, jobTracker).start();
+            } else if (identifier.contentEquals(JobTracker.TASK_TRACKER_IDENTIFIER)) {
+                // send JobTracker's IP address to Amazon SQS as soon as a task tracker is connected
+                AutoDiscoverQueue.sendInfo(InetAddress.getLocalHost().getHostAddress());
+                TaskTrackerHandler taskTrackerHandler = new TaskTrackerHandler(socket, jobTracker);
+                jobTracker.getTaskTrackerHandlers().add(taskTrackerHandler);
+                taskTrackerHandler.start();
+            } else if (identifier.contentEquals(JobTracker.TASK_REQUEST_IDENTIFIER)) {
+                // waits for a straggler once all map tasks are handed out
+                new TaskRequestHandler(socket, jobTracker, Long.parseLong(in.readLine())).start();
+            } else if (identifier.contentEquals(JobTracker.TASK_PROGRESS_IDENTIFIER)) {
+                updateProgress(in);
+            } else if (identifier.contentEquals(JobTracker.TASK_COMMIT_IDENTIFIER)) {
+                commitTask(in.readLine());
+            } else if (identifier.contentEquals(JobTracker.TASK_COMMITTED_IDENTIFIER)) {
+                String[] attempt = in.readLine().split(" ");
+                AttemptScheduler scheduler = jobTracker.getAttemptScheduler(Long.parseLong(attempt[1]));
+                if (scheduler != null && attempt[0].equals(JobTracker.MAP_PROGRESS)) {
+                    scheduler.committed(Integer.parseInt(attempt[2]), Integer.parseInt(attempt[3]));
+                } else if (scheduler != null) {
+                    scheduler.reduceCommitted(Integer.parseInt(attempt[2]), Integer.parseInt(attempt[3]));
+                }
+                socket.close();
+            } else if (identifier.contentEquals(JobTracker.TASK_FAILED_IDENTIFIER)) {
+                String[] attempt = in.readLine().split(" ");
+                AttemptScheduler scheduler = jobTracker.getAttemptScheduler(Long.parseLong(attempt[1]));
+                if (scheduler != null && attempt[0].equals(JobTracker.MAP_PROGRESS)) {
+                    scheduler.attemptFailed(Integer.parseInt(attempt[2]), Integer.parseInt(attempt[3]));
+                } else if (scheduler != null) {
+                    scheduler.reduceAttemptFailed(Integer.parseInt(attempt[2]), Integer.parseInt(attempt[3]));
+                }
+                socket.close();
+            } else if (identifier.contentEquals(JobTracker.DATANODE_IDENTIFIER)) {
+                jobTracker.getBlockMap().registerDataNode(
+                        socket.getInetAddress().getHostAddress() + ":" + in.readLine());
+                socket.close();
+            } else if (identifier.contentEquals(JobTracker.BLOCK_ALLOCATE_IDENTIFIER)) {
+                allocateBlocks(in);
+            } else if (identifier.contentEquals(JobTracker.BLOCK_COMMIT_IDENTIFIER)) {
+                String name = in.readLine();
+                int numBlocks = Integer.parseInt(in.readLine());
+                List<Block> blocks = new ArrayList<>(numBlocks);
+                for (int i = 0; i < numBlocks; i++) {
+                    blocks.add(Block.fromLine(in.readLine()));
+                }
+                jobTracker.getBlockMap().addFile(name, blocks);
+                socket.close();
+            } else if (identifier.contentEquals(JobTracker.MAP_OUTPUTS_IDENTIFIER)) {
+                // waits for the job's map tasks to be committed
+                new MapOutputsHandler(socket, jobTracker, Long.parseLong(in.readLine())).start();
+            } else {
+                System.out.println("Unknown client " + identifier);
+                socket.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeSocket();
+        } catch (RuntimeException e) {
+            // a malformed request
+            e.printStackTrace();
+            closeSocket();
+        }
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
     /**
-     * Sets the reducerIP field if its not already set and sends the reducerIP
-     * to the given socket
+     * Reads the progress of the tasks running on a task tracker and answers
+     * each task attempt with KILL if another attempt of the task was
+     * committed, OK otherwise. Lines are "M jobId taskId attemptId progress"
+     * for map tasks and "R jobId partition attemptId progress keysReduced"
+     * for reduce tasks.
      *
-     * @param socket
+     * @param in
+     * @throws IOException
      */
-    private void announceReducer(Socket socket) {
-        synchronized (jobTracker) {
-            if (!jobTracker.isReducerAvailable()) {
-                jobTracker.setReducer(socket.getInetAddress().getHostAddress());
+    private void updateProgress(BufferedReader in) throws IOException {
+        int numTasks = Integer.parseInt(in.readLine());
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        for (int i = 0; i < numTasks; i++) {
+            String[] report = in.readLine().split(" ");
+            String answer = "OK";
+            AttemptScheduler scheduler = jobTracker.getAttemptScheduler(Long.parseLong(report[1]));
+            int taskId = Integer.parseInt(report[2]);
+            int attemptId = Integer.parseInt(report[3]);
+            float progress = Float.parseFloat(report[4]);
+            if (report[0].equals(JobTracker.MAP_PROGRESS)) {
+                if (scheduler == null || !scheduler.reportProgress(taskId, attemptId, progress)) {
+                    answer = JobTracker.KILL;
+                }
+            } else {
+                if (scheduler == null || !scheduler.reportReduceProgress(taskId, attemptId, progress)) {
+                    answer = JobTracker.KILL;
+                }
             }
+            out.println(answer);
         }
+        socket.close();
+    }
+
+    /**
+     * Splits a file to be ingested into blocks and sends their data nodes.
+     * The request is the file length, block size and replication, one per
+     * line. The answer is the number of blocks followed by one line per
+     * block, or -1 followed by the error.
+     *
+     * @param in
+     * @throws IOException
+     */
+    private void allocateBlocks(BufferedReader in) throws IOException {
+        long length = Long.parseLong(in.readLine());
+        long blockSize = Long.parseLong(in.readLine());
+        int replication = Integer.parseInt(in.readLine());
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
         try {
-            PrintWriter out =
-                    new PrintWriter(socket.getOutputStream(), true);
-            out.println(jobTracker.getReducer());
+            List<Block> blocks = jobTracker.getBlockMap().allocate(length, blockSize, replication);
+            out.println(blocks.size());
+            for (Block block : blocks) {
+                out.println(block.toLine());
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            out.println(-1);
+            out.println(e.getMessage());
         }
+        socket.close();
+    }
+
+    /**
+     * Answers COMMIT to the first attempt of a task to finish and ABORT to
+     * the others. The attempt confirms with TASK_COMMITTED once its output
+     * is published, or reports TASK_FAILED. The line is "M jobId taskId attemptId" for a map task and
+     * "R jobId partition attemptId" for a reduce task.
+     *
+     * @param line
+     * @throws IOException
+     */
+    private void commitTask(String line) throws IOException {
+        String[] attempt = line.split(" ");
+        AttemptScheduler scheduler = jobTracker.getAttemptScheduler(Long.parseLong(attempt[1]));
+        int taskId = Integer.parseInt(attempt[2]);
+        int attemptId = Integer.parseInt(attempt[3]);
+        boolean commit = scheduler != null && (attempt[0].equals(JobTracker.MAP_PROGRESS)
+                ? scheduler.commit(taskId, attemptId) : scheduler.commitReduce(taskId, attemptId));
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        out.println(commit ? JobTracker.COMMIT : JobTracker.ABORT);
+        socket.close();
     }
 }
 
@@ -217,40 +436,51 @@ class JobClientHandler extends Thread {
             // read Job object from user
             ObjectInputStream objectInputStream = new ObjectInputStream(socket.getInputStream());
             Job clientJob = (Job) objectInputStream.readObject();
+            jobStatusUpdater.setNumReduceTasks(clientJob.getNumReduceTasks());
             List<TaskTrackerHandler> taskTrackerHandlers = jobTracker.getTaskTrackerHandlers();
             int numHandlers = taskTrackerHandlers.size();
-            int taskCount[] = new int[numHandlers];
+            int jobId = jobCounter++;
             String logMsg = "Task Trackers available: " + numHandlers
-                    + "\nRunning job : ID " + jobCounter
+                    + "\nRunning job : ID " + jobId
                     + "\nDividing job among task trackers";
             StatusLog statusLog = new StatusLog(InetAddress.getLoopbackAddress().getHostAddress());
             // send an update to the user via JobStatusUpdater
             statusLog.log(logMsg);
             // decide on the different offsets for the task trackers
             // and send the context with this info
-            List<MapContext> contexts = JobTracker.getContextsWithSplitInfo(clientJob, jobCounter++);
+            // the job's input format cuts the input, by block when it is ingested to the data nodes
+            List<Block> blocks = jobTracker.getBlockMap().getBlocks(clientJob.getInputPath());
+            List<MapContext> contexts = JobTracker.getContextsWithSplitInfo(clientJob, jobId, blocks);
 
             // set number of required/active TTs
             int numActiveTTs = Math.min(numHandlers, contexts.size());
-            for (int i = 0; i < contexts.size(); ) {
-                for (int j = 0; j < numHandlers; j++, i++) {
-                    if (i == contexts.size()) {
-                        break;
-                    }
-                    // count number of tasks for each TT
-                    taskCount[j]++;
-                }
+            // reduce tasks run on the task trackers that ran map tasks
+            List<String> mapperIPs = new ArrayList<>();
+            for (int j = 0; j < numActiveTTs; j++) {
+                mapperIPs.add(taskTrackerHandlers.get(j).getTaskTrackerIP());
+            }
+            synchronized (jobTracker) {
+                jobTracker.setReducers(JobTracker.assignReducers(clientJob.getNumReduceTasks(), mapperIPs));
+            }
+            // set number of active TTs in each context
+            for (MapContext context : contexts) {
+                context.setNumActiveTTs(numActiveTTs);
+            }
+            JobContext jobContext = new JobContext(contexts.get(0));
+            // the task trackers push map outputs to the reducers as map tasks commit
+            jobContext.setReducers(jobTracker.getReducers());
+            // handed out when a reduce task needs a backup attempt or another try
+            List<ReduceContext> reduceTasks = new ArrayList<>();
+            for (int partition = 0; partition < clientJob.getNumReduceTasks(); partition++) {
+                reduceTasks.add(new ReduceContext(jobContext, partition));
             }
+            // the task trackers pull the map tasks as their task slots free up
+            jobTracker.setAttemptScheduler(new AttemptScheduler(jobId, contexts, reduceTasks,
+                    jobTracker.getReducers(), clientJob.getConf()));
 
             statusLog.log("Starting map task");
-            for (int i = 0; i < contexts.size(); ) {
-                for (int j = 0; j < numHandlers; j++) {
-                    if (i == contexts.size())
-                        break;
-                    // set number of active TTs in each context
-                    contexts.get(i).setNumActiveTTs(numActiveTTs);
-                    taskTrackerHandlers.get(j).submitTask(contexts.get(i++), taskCount[j]);
-                }
+            for (int j = 0; j < numActiveTTs; j++) {
+                taskTrackerHandlers.get(j).startJob(jobContext);
             }
             // clear the task tracker handlers
             taskTrackerHandlers.clear();
@@ -262,11 +492,94 @@ class JobClientHandler extends Thread {
     }
 }
 
+/**
+ * Sends the next map or reduce task attempt of the job to a task tracker
+ * asking for work, or null once all the job's tasks are committed
+ */
+class TaskRequestHandler extends Thread {
+
+    private Socket socket;
+    private JobTracker jobTracker;
+    private long jobId;
+
+    public TaskRequestHandler(Socket socket, JobTracker jobTracker, long jobId) {
+        this.socket = socket;
+        this.jobTracker = jobTracker;
+        this.jobId = jobId;
+    }
+
+    public void run() {
+        String host = socket.getInetAddress().getHostAddress();
+        try {
+            AttemptScheduler scheduler = jobTracker.getAttemptScheduler(jobId);
+            AttemptScheduler.Attempt attempt = scheduler == null ? null : scheduler.nextAttempt(host);
+            ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+            if (attempt == null) {
+                out.writeObject(null);
+            } else {
+                out.writeObject(attempt.getContext());
+                out.writeInt(attempt.getAttemptId());
+                JobContext context = attempt.getContext();
+                System.out.println("Handed out attempt " + attempt.getAttemptId() + " of "
+                        + (context instanceof ReduceContext
+                        ? "reduce task " + ((ReduceContext) context).getPartition()
+                        : "map task " + context.getTaskId()) + " to " + host);
+            }
+            out.flush();
+            socket.close();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
+
+/**
+ * Sends a reducer the host holding the output of every map task of the job,
+ * once all of them are committed: the number of map tasks followed by one
+ * "taskId host" line per task, or -1 for an unknown job.
+ */
+class MapOutputsHandler extends Thread {
+
+    private Socket socket;
+    private JobTracker jobTracker;
+    private long jobId;
+
+    public MapOutputsHandler(Socket socket, JobTracker jobTracker, long jobId) {
+        this.socket = socket;
+        this.jobTracker = jobTracker;
+        this.jobId = jobId;
+    }
+
+    public void run() {
+        try {
+            AttemptScheduler scheduler = jobTracker.getAttemptScheduler(jobId);
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            if (scheduler == null) {
+                out.println(-1);
+            } else {
+                Map<Integer, String> hosts = scheduler.awaitMapOutputs();
+                out.println(hosts.size());
+                for (Map.Entry<Integer, String> entry : hosts.entrySet()) {
+                    out.println(entry.getKey() + " " + entry.getValue());
+                }
+            }
+            socket.close();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
+
 /**
  * @author alwin
  */
 class JobStatusUpdater extends Thread {
     private PrintWriter writer;
+    private int numReduceTasks = 1;
 
     public JobStatusUpdater(Socket socket) {
         try {
@@ -276,6 +589,15 @@ class JobStatusUpdater extends Thread {
         }
     }
 
+    /**
+     * Sets the number of reduce tasks to wait for before the job is completed
+     *
+     * @param numReduceTasks
+     */
+    public synchronized void setNumReduceTasks(int numReduceTasks) {
+        this.numReduceTasks = numReduceTasks;
+    }
+
     public void run() {
         try {
             ServerSocket listener = new ServerSocket(JobTracker.JOB_STATUS_PORT);
@@ -283,6 +605,7 @@ class JobStatusUpdater extends Thread {
             String line;
             String timeStamp;
             int mapCount = 0;
+            int reduceCount = 0;
             boolean running = true;
             long startTime = 0;
             long elapsedTime;
@@ -299,7 +622,18 @@ class JobStatusUpdater extends Thread {
                     if (line.contains(StatusLog.MAP_COMPLETED)) {
                         mapCount++;
                         line += " - " + mapCount;
-                    } else if (line.contains((StatusLog.JOB_COMPLETED))) {
+                    } else if (line.contains(StatusLog.REDUCE_COMPLETED)) {
+                        reduceCount++;
+                        line += " - " + reduceCount;
+                        synchronized (this) {
+                            if (reduceCount >= numReduceTasks) {
+                                // all reducers are done, the job is complete
+                                writer.println(timeStamp + " -- " + line);
+                                line = StatusLog.JOB_COMPLETED;
+                            }
+                        }
+                    }
+                    if (line.contains((StatusLog.JOB_COMPLETED))) {
                         // save elapsed time after job completion
                         running = false;
                         elapsedTime = System.currentTimeMillis() - startTime;
@@ -333,20 +667,28 @@ class TaskTrackerHandler extends Thread {
     }
 
     /**
-     * Connects to the task tracker and sends the job context and the total
-     * number of tasks assigned to it
+     * Returns the IP address of the task tracker
+     *
+     * @return taskTrackerIP
+     */
+    public String getTaskTrackerIP() {
+        return taskTrackerIP;
+    }
+
+    /**
+     * Connects to the task tracker and sends the job's context. The task
+     * tracker then requests map tasks until none are left.
      *
      * @param context
-     * @param numTasks
      */
-    public void submitTask(JobContext context, int numTasks) {
+    public void startJob(JobContext context) {
         try {
             // create a new socket connection to the task tracker
             ttSocket = new Socket(taskTrackerIP, TaskTracker.TT_LISTEN_PORT);
             ObjectOutputStream out = new ObjectOutputStream(ttSocket.getOutputStream());
-            out.writeInt(numTasks);
             // write JobContext object to socket
             out.writeObject(context);
+            out.flush();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,48 @@
+package org.hashbang.mr;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link ReduceContext} handed to the combiner on the map side. Instead of
+ * being written to a part file, the key-value pairs written by the
+ * combiner are collected in memory so that {@link MapContext} can persist them.
+ */
+public class CombineContext<KEYOUT, VALUEOUT> extends ReduceContext<KEYOUT, VALUEOUT> {
+
+    private Map<KEYOUT, List<VALUEOUT>> output;
+
+    public CombineContext(JobContext context) {
+        super(context);
+        this.output = new LinkedHashMap<>();
+    }
+
+    /**
+     * Collect the key-value pair written by the combiner
+     *
+     * @param key
+     * @param value
+     */
+    @Override
+    public void write(KEYOUT key, VALUEOUT value) {
+        List<VALUEOUT> values = output.get(key);
+        if (values == null) {
+            values = new ArrayList<VALUEOUT>();
+            output.put(key, values);
+        }
+        values.add(value);
+    }
+
+    /**
+     * Returns the values collected since the last call and resets the context
+     *
+     * @return combined values grouped by key
+     */
+    public Map<KEYOUT, List<VALUEOUT>> drain() {
+        Map<KEYOUT, List<VALUEOUT>> combined = output;
+        output = new LinkedHashMap<>();
+        return combined;
+    }
+}
@@ -17,6 +17,9 @@ public class Configuration implements Serializable {
     public Configuration() {
         conf = new HashMap<String, String>();
         conf.put("io.file.blocksize", "64");
+        conf.put("io.file.buffer.size", "65536");
+        conf.put("map.output.buffer.mb", "100");
+        conf.put("map.output.spill.percent", "0.80");
     }
 
     /**
@@ -29,7 +32,7 @@ public class Configuration implements Serializable {
      */
 
     public String get(String name) {
-        return conf.get(name);
+        return conf.get(name.trim());
     }
 
     /**
@@ -39,7 +42,7 @@ public class Configuration implements Serializable {
      */
 
     public void set(String name, String value) {
-
+        conf.put(name.trim(), value);
     }
 
     /**
@@ -48,7 +51,57 @@ public class Configuration implements Serializable {
      */
 
     public void unset(String name) {
+        conf.remove(name.trim());
+    }
+
+    /**
+     * Get the value of the <code>name</code> property as an <code>int</code>.
+     * @param name property name.
+     * @param defaultValue value returned if the property is missing or malformed.
+     * @return property value as an <code>int</code>, or <code>defaultValue</code>.
+     */
+    public int getInt(String name, int defaultValue) {
+        String value = get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
 
+    /**
+     * Get the value of the <code>name</code> property as a <code>float</code>.
+     * @param name property name.
+     * @param defaultValue value returned if the property is missing or malformed.
+     * @return property value as a <code>float</code>, or <code>defaultValue</code>.
+     */
+    public float getFloat(String name, float defaultValue) {
+        String value = get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Float.parseFloat(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get the value of the <code>name</code> property as a <code>boolean</code>.
+     * @param name property name.
+     * @param defaultValue value returned if the property is missing.
+     * @return property value as a <code>boolean</code>, or <code>defaultValue</code>.
+     */
+    public boolean getBoolean(String name, boolean defaultValue) {
+        String value = get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
     }
 
     /**
@@ -55,6 +55,38 @@ public interface Context {
      */
     public void setReducerClass(Class<? extends Reducer> cls) throws IllegalStateException;
 
+    /**
+     * Set the combiner class for the job.
+     *
+     * @param cls the combiner to use
+     * @throws IllegalStateException if the job is submitted
+     */
+    public void setCombinerClass(Class<? extends Reducer> cls) throws IllegalStateException;
+
+    /**
+     * Set the {@link Partitioner} for the job.
+     *
+     * @param cls the <code>Partitioner</code> to use
+     * @throws IllegalStateException if the job is submitted
+     */
+    public void setPartitionerClass(Class<? extends Partitioner> cls) throws IllegalStateException;
+
+    /**
+     * Set the {@link OutputCommitter} for the job.
+     *
+     * @param cls the <code>OutputCommitter</code> to use
+     * @throws IllegalStateException if the job is submitted
+     */
+    public void setOutputCommitterClass(Class<? extends OutputCommitter> cls) throws IllegalStateException;
+
+    /**
+     * Set the {@link InputFormat} for the job.
+     *
+     * @param cls the <code>InputFormat</code> to use
+     * @throws IllegalStateException if the job is submitted
+     */
+    public void setInputFormatClass(Class<? extends InputFormat> cls) throws IllegalStateException;
+
     /**
      * Set the user-specified job name.
      *
@@ -89,6 +121,20 @@ public interface Context {
      */
     public Class<? extends Reducer> getReducerClass();
 
+    /**
+     * Get the combiner class for the job.
+     *
+     * @return the combiner class for the job.
+     */
+    public Class<? extends Reducer> getCombinerClass();
+
+    /**
+     * Get the {@link Partitioner} class for the job.
+     *
+     * @return the {@link Partitioner} class for the job.
+     */
+    public Class<? extends Partitioner> getPartitionerClass();
+
 }
 
 
@@ -0,0 +1,105 @@
+package org.hashbang.mr;
+
+import org.hashbang.fs.Block;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base of the input formats reading a single input file. A file on the
+ * JobTracker's host is cut every <code>io.file.blocksize</code> MB; a file
+ * stored on the data nodes is read one block per split, every split carrying
+ * its block and the next one, into which its last record may run. Splits are
+ * cut at arbitrary byte offsets: the record readers find the first record of
+ * their split themselves.
+ */
+public abstract class FileInputFormat<KEYIN, VALUEIN> implements InputFormat<KEYIN, VALUEIN> {
+
+    public static final String BLOCK_SIZE = "io.file.blocksize";
+
+    /**
+     * Returns true if a reader can find the records of a split starting at
+     * any offset. The input of a format that cannot is read by a single map
+     * task, unless {@link #getSplits(Job, File, long)} finds the record
+     * boundaries.
+     *
+     * @return true by default
+     */
+    protected boolean isSplitable() {
+        return true;
+    }
+
+    @Override
+    public List<InputSplit> getSplits(Job job, List<Block> blocks) throws IOException {
+        if (blocks != null) {
+            return getSplits(blocks);
+        }
+        long blockSize = Long.parseLong(job.getConf().get(BLOCK_SIZE)) * 1024 * 1024;
+        return getSplits(job, new File(job.getInputPath()), blockSize);
+    }
+
+    /**
+     * Cuts a file on the JobTracker's host into splits of about a block
+     *
+     * @param job
+     * @param inputFile
+     * @param blockSize
+     * @return at least one split
+     * @throws IOException
+     */
+    protected List<InputSplit> getSplits(Job job, File inputFile, long blockSize) throws IOException {
+        List<InputSplit> splits = new ArrayList<>();
+        long fileLength = inputFile.length();
+        if (!isSplitable()) {
+            splits.add(new InputSplit(0, checkLength(fileLength), null));
+            return splits;
+        }
+        int numSplits = (int) Math.ceil(fileLength / (double) blockSize);
+        long offset;
+        int i;
+        // iterating only numSplits-1 times to account for the
+        // last split size not being equal to block size
+        for (i = 0; i < (numSplits - 1); i++) {
+            offset = blockSize * i;
+            splits.add(new InputSplit(offset, checkLength(blockSize), null));
+        }
+        // handling last split size
+        offset = blockSize * i;
+        splits.add(new InputSplit(offset, checkLength(fileLength - offset), null));
+        return splits;
+    }
+
+    private List<InputSplit> getSplits(List<Block> blocks) throws IOException {
+        List<InputSplit> splits = new ArrayList<>();
+        if (!isSplitable()) {
+            long length = 0;
+            for (Block block : blocks) {
+                length += block.getLength();
+            }
+            splits.add(new InputSplit(0, checkLength(length), new ArrayList<>(blocks)));
+            return splits;
+        }
+        for (int i = 0; i < blocks.size(); i++) {
+            Block block = blocks.get(i);
+            splits.add(new InputSplit(block.getOffset(), checkLength(block.getLength()),
+                    new ArrayList<>(blocks.subList(i, Math.min(i + 2, blocks.size())))));
+        }
+        return splits;
+    }
+
+    /**
+     * Returns the length of a split, map tasks read up to 2 GB
+     *
+     * @param length
+     * @return length
+     * @throws IOException if the split is too large
+     */
+    protected static long checkLength(long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Split of " + length + " bytes exceeds the 2 GB a map task reads");
+        }
+        return length;
+    }
+}
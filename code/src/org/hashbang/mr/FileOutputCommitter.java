@@ -0,0 +1,72 @@
+package org.hashbang.mr;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes the part files straight to the job's output directory on the host
+ * running the reduce task, under <code>&lt;output dir&gt;/output</code>. A
+ * part file is written to the <code>_temporary</code> directory and moved
+ * next to the others when its task succeeds. Every reducer writes to its own
+ * disk, so the output throughput grows with the number of reducers.
+ */
+public class FileOutputCommitter implements OutputCommitter {
+
+    public static final String OUTPUT_SUBDIR = "output";
+    public static final String TEMP_DIR = "_temporary";
+    private static final String PART_FILE_FORMAT = "part-%05d";
+
+    /**
+     * Returns the name of the part file of a partition
+     *
+     * @param partition
+     * @return part-NNNNN
+     */
+    public static String getPartFileName(int partition) {
+        return String.format(PART_FILE_FORMAT, partition);
+    }
+
+    /**
+     * Returns the directory holding the part files of a job
+     *
+     * @param context
+     * @return output directory
+     */
+    public static File getOutputDir(JobContext context) {
+        return new File(context.getOutputDir(), OUTPUT_SUBDIR);
+    }
+
+    /**
+     * Returns the part file of a reduce task attempt, attempts of a task
+     * may run at the same time
+     */
+    private static File getTempFile(ReduceContext context) {
+        return new File(new File(getOutputDir(context), TEMP_DIR),
+                getPartFileName(context.getPartition()) + "_" + context.getAttemptId());
+    }
+
+    @Override
+    public OutputStream openTaskOutput(ReduceContext context) throws IOException {
+        File tempFile = getTempFile(context);
+        Files.createDirectories(tempFile.getParentFile().toPath());
+        return new FileOutputStream(tempFile);
+    }
+
+    @Override
+    public void commitTask(ReduceContext context) throws IOException {
+        File tempFile = getTempFile(context);
+        Files.move(tempFile.toPath(), new File(getOutputDir(context), getPartFileName(context.getPartition())).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // removed by the last reduce task to commit on this host
+        tempFile.getParentFile().delete();
+    }
+
+    @Override
+    public void abortTask(ReduceContext context) {
+        getTempFile(context).delete();
+    }
+}
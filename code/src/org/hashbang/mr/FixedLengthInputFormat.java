@@ -0,0 +1,24 @@
+package org.hashbang.mr;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Binary records of the same length, <code>input.fixedlength.record.length</code>
+ * bytes, keyed by their offset in the file, see {@link FixedLengthRecordReader}.
+ */
+public class FixedLengthInputFormat extends FileInputFormat<Long, byte[]> {
+
+    public static final String RECORD_LENGTH = "input.fixedlength.record.length";
+
+    @Override
+    public RecordReader<Long, byte[]> createRecordReader(InputStream in, long start, long length,
+                                                        Configuration conf) throws IOException {
+        int recordLength = conf == null ? 0 : conf.getInt(RECORD_LENGTH, 0);
+        if (recordLength <= 0) {
+            throw new IOException(RECORD_LENGTH + " is not set");
+        }
+        int bufferSize = conf.getInt(LineRecordReader.BUFFER_SIZE, 0);
+        return new FixedLengthRecordReader(in, start, length, recordLength, bufferSize);
+    }
+}
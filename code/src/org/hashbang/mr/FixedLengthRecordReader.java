@@ -0,0 +1,122 @@
+package org.hashbang.mr;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the records of a split of a file made of records of the same
+ * length. Keys are the byte offsets of the records in the file, values their
+ * bytes. A record belongs to the split its first byte falls in, so every
+ * split starts at the first record boundary at or after its offset and reads
+ * past its end to finish its last record.
+ */
+public class FixedLengthRecordReader implements RecordReader<Long, byte[]> {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final DataInputStream in;
+    private final int recordLength;
+    private final long start;
+    private final long end;
+
+    // read by the task tracker's progress reports
+    private volatile long pos;
+    private Long key;
+    private byte[] value;
+
+    /**
+     * @param in           stream of the file, positioned at <code>start</code>
+     * @param start        offset of the split in the file
+     * @param length       length of the split
+     * @param recordLength length of every record
+     * @param bufferSize   size of the read buffer
+     * @throws IOException
+     */
+    public FixedLengthRecordReader(InputStream in, long start, long length, int recordLength,
+                                   int bufferSize) throws IOException {
+        if (recordLength <= 0) {
+            throw new IllegalArgumentException("Invalid record length " + recordLength);
+        }
+        this.in = new DataInputStream(new BufferedInputStream(in, bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE));
+        this.recordLength = recordLength;
+        this.start = start;
+        this.end = start + length;
+        this.pos = start;
+        // the record we start in belongs to the previous split
+        long firstRecord = (start + recordLength - 1) / recordLength * recordLength;
+        skipFully(firstRecord - start);
+    }
+
+    private void skipFully(long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    return;
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+            pos += skipped;
+        }
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException {
+        if (pos >= end) {
+            key = null;
+            value = null;
+            return false;
+        }
+        byte[] record = new byte[recordLength];
+        int n = 0;
+        while (n < recordLength) {
+            int read = in.read(record, n, recordLength - n);
+            if (read < 0) {
+                break;
+            }
+            n += read;
+        }
+        if (n == 0) {
+            key = null;
+            value = null;
+            return false;
+        } else if (n < recordLength) {
+            throw new EOFException("Partial record of " + n + " bytes at offset " + pos);
+        }
+        key = pos;
+        value = record;
+        pos += recordLength;
+        return true;
+    }
+
+    @Override
+    public Long getCurrentKey() {
+        return key;
+    }
+
+    @Override
+    public byte[] getCurrentValue() {
+        return value;
+    }
+
+    @Override
+    public float getProgress() {
+        if (end == start) {
+            return 1.0f;
+        }
+        return Math.min(1.0f, (pos - start) / (float) (end - start));
+    }
+
+    @Override
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
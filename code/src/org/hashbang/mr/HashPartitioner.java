@@ -0,0 +1,14 @@
+package org.hashbang.mr;
+
+/**
+ * Partition keys by their {@link Object#hashCode()}.
+ */
+public class HashPartitioner<KEY, VALUE> implements Partitioner<KEY, VALUE> {
+
+    /**
+     * Use {@link Object#hashCode()} to partition.
+     */
+    public int getPartition(KEY key, VALUE value, int numPartitions) {
+        return (key.hashCode() & Integer.MAX_VALUE) % numPartitions;
+    }
+}
@@ -18,6 +18,11 @@ public interface IMapper<KEYOUT, VALUEOUT> {
      */
     public void map(Long key, String value, MapContext context);
 
+    /**
+     * Called once for each record decoded by the job's {@link InputFormat}.
+     */
+    public void map(Object key, Object value, MapContext context);
+
     /**
      * Called once at the end of the task.
      */
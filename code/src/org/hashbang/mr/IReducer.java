@@ -22,6 +22,12 @@ public interface IReducer<KEYIN, VALUEIN> {
      */
     public void reduce(KEYIN key, List<VALUEIN> values, ReduceContext context);
 
+    /**
+     * This method is called once for each key with a single-pass view of its
+     * values, so that the values of a key never have to fit in memory.
+     */
+    public void reduce(KEYIN key, Iterable<VALUEIN> values, ReduceContext context);
+
     /**
      * Called once at the end of the task.
      */
@@ -0,0 +1,41 @@
+package org.hashbang.mr;
+
+import org.hashbang.fs.Block;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Describes the input of a job: how the input file is cut into splits, one
+ * per map task, and how the records of a split are decoded.
+ * Implementations need a public no-argument constructor, see
+ * {@link Job#setInputFormatClass}.
+ */
+public interface InputFormat<KEYIN, VALUEIN> {
+
+    /**
+     * Cuts the job's input into splits. Called on the JobTracker.
+     *
+     * @param job
+     * @param blocks the blocks of the input stored on the data nodes, or null
+     *               when the input is a file on the JobTracker's host
+     * @return at least one split
+     * @throws IOException
+     */
+    public List<InputSplit> getSplits(Job job, List<Block> blocks) throws IOException;
+
+    /**
+     * Creates the reader of a split. Called on the task tracker.
+     *
+     * @param in     stream of the file, positioned at <code>start</code> and
+     *               running past the end of the split, up to the end of the file
+     * @param start  offset of the split in the file
+     * @param length length of the split
+     * @param conf
+     * @return record reader
+     * @throws IOException
+     */
+    public RecordReader<KEYIN, VALUEIN> createRecordReader(InputStream in, long start, long length,
+                                                          Configuration conf) throws IOException;
+}
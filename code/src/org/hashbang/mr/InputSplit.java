@@ -0,0 +1,45 @@
+package org.hashbang.mr;
+
+import org.hashbang.fs.Block;
+
+import java.util.List;
+
+/**
+ * The part of the input file read by one map task.
+ */
+public class InputSplit {
+
+    private final long offset;
+    private final long length;
+    private final List<Block> blocks;
+
+    /**
+     * @param offset offset of the split in the file
+     * @param length length of the split
+     * @param blocks the blocks to read the split from, or null when the input
+     *               is a file of the Namenode server
+     */
+    public InputSplit(long offset, long length, List<Block> blocks) {
+        this.offset = offset;
+        this.length = length;
+        this.blocks = blocks;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the blocks to read the split from, starting with the block
+     * holding its first byte and running past its end
+     *
+     * @return the blocks, or null when the input is a file of the Namenode server
+     */
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+}
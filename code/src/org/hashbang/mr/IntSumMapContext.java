@@ -0,0 +1,35 @@
+package org.hashbang.mr;
+
+/**
+ * A {@link SumMapContext} for <code>(key, Integer)</code> map output. Sums
+ * are kept as longs while buffered and written as ints; a sum out of the
+ * int range fails the map output rather than wrapping around.
+ * Select it with <code>job.setMapContextClass(IntSumMapContext.class)</code>.
+ */
+public class IntSumMapContext<KEYOUT> extends SumMapContext<KEYOUT, Integer> {
+
+    public IntSumMapContext(int jobID, Job job, long offset, int dataSize) {
+        super(jobID, job, offset, dataSize);
+    }
+
+    /**
+     * Adds the value to the sum of the key
+     *
+     * @param key
+     * @param value
+     */
+    public void write(KEYOUT key, int value) {
+        add(key, value);
+    }
+
+    /**
+     * @throws ArithmeticException if the sum does not fit an int
+     */
+    @Override
+    protected Integer toValue(long sum) {
+        if (sum != (int) sum) {
+            throw new ArithmeticException("Sum " + sum + " overflows an Integer map output value");
+        }
+        return (int) sum;
+    }
+}
@@ -1,5 +1,10 @@
 package org.hashbang.mr;
 
+import org.hashbang.fs.NamenodeService;
+import org.hashbang.io.CompressionCodec;
+import org.hashbang.io.CompressionCodecs;
+import org.hashbang.io.Serialization;
+import org.hashbang.io.Serializer;
 import org.hashbang.jobtracker.JobTracker;
 import org.hashbang.util.StatusLog;
 
@@ -46,6 +51,13 @@ public class Job implements Context, Serializable {
     protected int numReduceTasks;
     protected Class<? extends Mapper> mapperClass;
     protected Class<? extends Reducer> reducerClass;
+    protected Class<? extends Reducer> combinerClass;
+    protected Class<? extends Partitioner> partitionerClass;
+    protected Class<? extends OutputCommitter> outputCommitterClass;
+    protected Class<? extends InputFormat> inputFormatClass;
+    protected Class<?> mapOutputKeyClass;
+    protected Class<?> mapOutputValueClass;
+    protected Class<? extends MapContext> mapContextClass;
     protected String inputPath;
     protected String outputDir;
     protected Configuration conf;
@@ -56,6 +68,10 @@ public class Job implements Context, Serializable {
 
     public Job(Configuration conf) {
         this.numReduceTasks = 1;
+        this.partitionerClass = HashPartitioner.class;
+        this.outputCommitterClass = NamenodeOutputCommitter.class;
+        this.inputFormatClass = TextInputFormat.class;
+        this.mapContextClass = MapContext.class;
         this.conf = conf;
     }
 
@@ -103,7 +119,10 @@ public class Job implements Context, Serializable {
      * @param tasks the number of reduce tasks
      */
     public void setNumReduceTasks(int tasks) {
-
+        if (tasks < 1) {
+            throw new IllegalArgumentException("A job needs at least one reduce task");
+        }
+        this.numReduceTasks = tasks;
     }
 
     /**
@@ -142,6 +161,176 @@ public class Job implements Context, Serializable {
         this.reducerClass = cls;
     }
 
+    /**
+     * Get the combiner class for the job.
+     *
+     * @return the combiner class for the job.
+     */
+    public Class<? extends Reducer> getCombinerClass() {
+        return combinerClass;
+    }
+
+    /**
+     * Set the combiner class for the job. The combiner is run over the
+     * buffered values of each key on the map side before they are written
+     * to disk, so it must accept its own output as input.
+     *
+     * @param cls the combiner to use
+     */
+    public void setCombinerClass(Class<? extends Reducer> cls) {
+        this.combinerClass = cls;
+    }
+
+    /**
+     * Get the {@link Partitioner} class for the job.
+     *
+     * @return the {@link Partitioner} class for the job.
+     */
+    public Class<? extends Partitioner> getPartitionerClass() {
+        return partitionerClass;
+    }
+
+    /**
+     * Set the {@link Partitioner} for the job.
+     *
+     * @param cls the <code>Partitioner</code> to use
+     */
+    public void setPartitionerClass(Class<? extends Partitioner> cls) {
+        this.partitionerClass = cls;
+    }
+
+    /**
+     * Get the {@link OutputCommitter} class for the job.
+     *
+     * @return the {@link OutputCommitter} class for the job.
+     */
+    public Class<? extends OutputCommitter> getOutputCommitterClass() {
+        return outputCommitterClass;
+    }
+
+    /**
+     * Set the {@link OutputCommitter} publishing the part files of the job.
+     * By default they are collected on the JobTracker's host by
+     * {@link NamenodeOutputCommitter}; {@link FileOutputCommitter} keeps
+     * them on the hosts of the reduce tasks.
+     *
+     * @param cls the <code>OutputCommitter</code> to use
+     */
+    public void setOutputCommitterClass(Class<? extends OutputCommitter> cls) {
+        this.outputCommitterClass = cls;
+    }
+
+    /**
+     * Get the {@link InputFormat} class for the job.
+     *
+     * @return the {@link InputFormat} class for the job.
+     */
+    public Class<? extends InputFormat> getInputFormatClass() {
+        return inputFormatClass;
+    }
+
+    /**
+     * Set the {@link InputFormat} splitting the input of the job and decoding
+     * its records. Lines of text by default, see {@link TextInputFormat};
+     * {@link FixedLengthInputFormat} and {@link LengthPrefixedInputFormat}
+     * read binary records, handed to {@link Mapper#map(Long, byte[], MapContext)}.
+     *
+     * @param cls the <code>InputFormat</code> to use
+     */
+    public void setInputFormatClass(Class<? extends InputFormat> cls) {
+        this.inputFormatClass = cls;
+    }
+
+    /**
+     * Get the key class for the map output data. If it is not set, the class
+     * of the first key written by each map task is used.
+     *
+     * @return the map output key class.
+     */
+    public Class<?> getMapOutputKeyClass() {
+        return mapOutputKeyClass;
+    }
+
+    /**
+     * Set the key class for the map output data.
+     *
+     * @param cls the map output key class.
+     */
+    public void setMapOutputKeyClass(Class<?> cls) {
+        this.mapOutputKeyClass = cls;
+    }
+
+    /**
+     * Get the value class for the map output data. If it is not set, the class
+     * of the first value written by each map task is used.
+     *
+     * @return the map output value class.
+     */
+    public Class<?> getMapOutputValueClass() {
+        return mapOutputValueClass;
+    }
+
+    /**
+     * Set the value class for the map output data. Set it to a common super
+     * class when a mapper emits values of more than one class.
+     *
+     * @param cls the map output value class.
+     */
+    public void setMapOutputValueClass(Class<?> cls) {
+        this.mapOutputValueClass = cls;
+    }
+
+    /**
+     * Get the {@link MapContext} class the map tasks write their output to.
+     *
+     * @return the {@link MapContext} class for the job.
+     */
+    public Class<? extends MapContext> getMapContextClass() {
+        return mapContextClass;
+    }
+
+    /**
+     * Set the {@link MapContext} class the map tasks write their output to.
+     * Counting jobs can use {@link LongSumMapContext} or {@link IntSumMapContext},
+     * which sum the values of a key in place instead of buffering them.
+     *
+     * @param cls the <code>MapContext</code> to use
+     */
+    public void setMapContextClass(Class<? extends MapContext> cls) {
+        this.mapContextClass = cls;
+    }
+
+    /**
+     * Register the {@link Serializer} used for a type of intermediate data,
+     * overriding the built-in serialization of that type.
+     *
+     * @param cls        the type to serialize
+     * @param serializer the <code>Serializer</code> to use
+     */
+    public <T> void setSerializer(Class<T> cls, Class<? extends Serializer<T>> serializer) {
+        conf.set(Serialization.getSerializerKey(cls), serializer.getName());
+    }
+
+    /**
+     * Compress the intermediate data of the job, the map spills and the
+     * shuffle, with a {@link CompressionCodec}.
+     *
+     * @param codec <code>lz4</code>, <code>deflate</code> or the name of a codec class
+     */
+    public void setMapOutputCompression(String codec) {
+        conf.set(CompressionCodecs.CODEC, codec);
+    }
+
+    /**
+     * Set the format of the part files written by the reduce tasks.
+     *
+     * @param format <code>text</code>, tab separated lines, or <code>sorted</code>,
+     *               binary files sorted by key read with a {@link SortedFileReader}
+     */
+    public void setOutputFormat(String format) {
+        conf.set(ReduceContext.OUTPUT_FORMAT, format);
+    }
+
     /**
      * Get the InputPath for the Job
      *
@@ -215,10 +404,22 @@ public class Job implements Context, Serializable {
     }
 
     /**
-     * Check if the Job output dir exists.
+     * Check if the Job output dir exists, and that the reduce tasks can
+     * publish their part files to it. The path sent to the JobTracker is
+     * absolute.
      */
     private void checkIfOutputDirExists() {
-        if (Files.exists(Paths.get(outputDir))) {
+        Path dir = Paths.get(outputDir).toAbsolutePath().normalize();
+        Path outputRoot = NamenodeService.getOutputRoot();
+        Class<? extends OutputCommitter> committer = getOutputCommitterClass();
+        boolean namenodeOutput = committer == null || NamenodeOutputCommitter.class.isAssignableFrom(committer);
+        if (namenodeOutput && !NamenodeService.isOutputDir(outputRoot, dir)) {
+            System.out.println("Error: The output directory '" + outputDir + "' must be under "
+                    + outputRoot + ", see the system property " + NamenodeService.OUTPUT_ROOT + ".");
+            System.exit(1);
+        }
+        outputDir = dir.toString();
+        if (Files.exists(dir)) {
             System.out.println("Error: Please remove the output directory '"
                     + outputDir + "' and try again.");
             System.exit(1);
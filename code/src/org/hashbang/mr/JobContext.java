@@ -1,6 +1,8 @@
 package org.hashbang.mr;
 
-import java.nio.ByteBuffer;
+import org.hashbang.fs.Block;
+
+import java.util.List;
 
 /**
  * A view of the job that is provided to the tasks while they
@@ -9,6 +11,9 @@ import java.nio.ByteBuffer;
 public class JobContext extends Job implements Context {
 
     protected long jobId;
+    protected int taskId;
+    // attempt of the task, a straggling task is run again on another task tracker
+    protected int attemptId;
     public static final String JOB_BASE_DIR = System.getenv("HASHBANG_TMP_DIR");
     public static final String MAP_OUTPUT_FILE_PREFIX = "__HB__";
     public static final String JOB_JAR_FILE = System.getenv("HASHBANG_HOME") + "/hashbang_job.jar";
@@ -19,7 +24,10 @@ public class JobContext extends Job implements Context {
     protected int numActiveTTs;
 
     protected long splitOffset;
-    protected ByteBuffer dataBuffer;
+    // the split's block and the next one, when the input is stored on the data nodes
+    protected List<Block> blocks;
+    // reducer IP of every partition, map outputs are pushed to them as map tasks commit
+    protected List<String> reducers;
 
     public JobContext(int jobId, Job job, long offset, int dataSize) {
         this.jobId = jobId;
@@ -31,8 +39,15 @@ public class JobContext extends Job implements Context {
         this.numReduceTasks = job.getNumReduceTasks();
         this.mapperClass = job.getMapperClass();
         this.reducerClass = job.getReducerClass();
+        this.combinerClass = job.getCombinerClass();
+        this.partitionerClass = job.getPartitionerClass();
+        this.outputCommitterClass = job.getOutputCommitterClass();
+        this.inputFormatClass = job.getInputFormatClass();
+        this.mapOutputKeyClass = job.getMapOutputKeyClass();
+        this.mapOutputValueClass = job.getMapOutputValueClass();
         this.inputPath = job.getInputPath();
         this.outputDir = job.getOutputDir();
+        this.conf = job.getConf();
         this.isJobCompleted = false;
     }
 
@@ -45,19 +60,57 @@ public class JobContext extends Job implements Context {
         this.numReduceTasks = context.getNumReduceTasks();
         this.mapperClass = context.getMapperClass();
         this.reducerClass = context.getReducerClass();
+        this.combinerClass = context.getCombinerClass();
+        this.partitionerClass = context.getPartitionerClass();
+        this.outputCommitterClass = context.getOutputCommitterClass();
+        this.inputFormatClass = context.getInputFormatClass();
+        this.mapOutputKeyClass = context.getMapOutputKeyClass();
+        this.mapOutputValueClass = context.getMapOutputValueClass();
         this.inputPath = context.getInputPath();
         this.outputDir = context.getOutputDir();
+        this.conf = context.getConf();
         this.jobId = context.getJobID();
+        this.taskId = context.getTaskId();
+        this.attemptId = context.getAttemptId();
         this.isJobCompleted = context.isJobCompleted();
         this.namenodeServerIP = context.getNamenodeServerIP();
         this.workingDir = context.getWorkingDirectory();
         this.numActiveTTs = context.getNumActiveTTs();
+        this.blocks = context.getBlocks();
+        this.reducers = context.getReducers();
     }
 
     public long getSplitOffset() {
         return splitOffset;
     }
 
+    /**
+     * Returns the blocks to read the split from: its own block followed by
+     * the next one
+     *
+     * @return the blocks, or null when the input is a file of the Namenode server
+     */
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    public void setBlocks(List<Block> blocks) {
+        this.blocks = blocks;
+    }
+
+    /**
+     * Returns the IP of the reducer of every partition, indexed by partition
+     *
+     * @return reducers, or null if they are not assigned yet
+     */
+    public List<String> getReducers() {
+        return reducers;
+    }
+
+    public void setReducers(List<String> reducers) {
+        this.reducers = reducers;
+    }
+
     public int getDataSize() {
         return dataSize;
     }
@@ -78,14 +131,6 @@ public class JobContext extends Job implements Context {
         return namenodeServerIP;
     }
 
-    public ByteBuffer getDataBuffer() {
-        return dataBuffer;
-    }
-
-    public void setDataBuffer(ByteBuffer dataBuffer) {
-        this.dataBuffer = dataBuffer;
-    }
-
     /**
      * Get the unique ID for the job.
      *
@@ -96,6 +141,32 @@ public class JobContext extends Job implements Context {
         return jobId;
     }
 
+    /**
+     * Get the ID of the task within the job.
+     *
+     * @return the task id
+     */
+    public int getTaskId() {
+        return taskId;
+    }
+
+    public void setTaskId(int taskId) {
+        this.taskId = taskId;
+    }
+
+    /**
+     * Get the attempt of the task, 0 for its first run.
+     *
+     * @return the attempt id
+     */
+    public int getAttemptId() {
+        return attemptId;
+    }
+
+    public void setAttemptId(int attemptId) {
+        this.attemptId = attemptId;
+    }
+
     /**
      * Get the current working directory for the default file system.
      *
@@ -0,0 +1,66 @@
+package org.hashbang.mr;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Length-prefixed binary records keyed by their offset in the file, see
+ * {@link LengthPrefixedRecordReader}. Record boundaries cannot be found from
+ * an arbitrary offset, so a file on the JobTracker's host is cut by walking
+ * the record lengths through a buffered stream, skipping the record bytes,
+ * and a file stored on the data nodes is read by a single map task.
+ */
+public class LengthPrefixedInputFormat extends FileInputFormat<Long, byte[]> {
+
+    @Override
+    protected boolean isSplitable() {
+        return false;
+    }
+
+    /**
+     * Cuts a file at the first record boundary after every block
+     */
+    @Override
+    protected List<InputSplit> getSplits(Job job, File inputFile, long blockSize) throws IOException {
+        List<InputSplit> splits = new ArrayList<>();
+        long fileLength = inputFile.length();
+        // small records are read from the buffer, large ones are skipped in the file
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inputFile)));
+        try {
+            long splitStart = 0;
+            long pos = 0;
+            while (pos + 4 <= fileLength) {
+                if (pos - splitStart >= blockSize) {
+                    splits.add(new InputSplit(splitStart, checkLength(pos - splitStart), null));
+                    splitStart = pos;
+                }
+                int length = in.readInt();
+                if (length < 0) {
+                    throw new IOException("Invalid record length " + length + " at offset " + pos + " of " + inputFile);
+                }
+                pos += 4 + length;
+                if (in.skipBytes(length) < length) {
+                    // the last record is truncated, its reader fails on it
+                    break;
+                }
+            }
+            splits.add(new InputSplit(splitStart, checkLength(fileLength - splitStart), null));
+        } finally {
+            in.close();
+        }
+        return splits;
+    }
+
+    @Override
+    public RecordReader<Long, byte[]> createRecordReader(InputStream in, long start, long length,
+                                                        Configuration conf) {
+        int bufferSize = conf == null ? 0 : conf.getInt(LineRecordReader.BUFFER_SIZE, 0);
+        return new LengthPrefixedRecordReader(in, start, length, bufferSize);
+    }
+}
@@ -0,0 +1,112 @@
+package org.hashbang.mr;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the records of a split of a file of length-prefixed binary records:
+ * every record is a 4-byte big-endian length, as written by
+ * {@link java.io.DataOutput#writeInt}, followed by that many bytes. Keys are
+ * the byte offsets of the records in the file, values their bytes without
+ * the length. The split must start at a record boundary, see
+ * {@link LengthPrefixedInputFormat}; its last record may run past its end.
+ */
+public class LengthPrefixedRecordReader implements RecordReader<Long, byte[]> {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final DataInputStream in;
+    private final long start;
+    private final long end;
+
+    // read by the task tracker's progress reports
+    private volatile long pos;
+    private Long key;
+    private byte[] value;
+
+    /**
+     * @param in         stream of the file, positioned at <code>start</code>
+     * @param start      offset of the split in the file, a record boundary
+     * @param length     length of the split
+     * @param bufferSize size of the read buffer
+     */
+    public LengthPrefixedRecordReader(InputStream in, long start, long length, int bufferSize) {
+        this.in = new DataInputStream(new BufferedInputStream(in, bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE));
+        this.start = start;
+        this.end = start + length;
+        this.pos = start;
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException {
+        int length;
+        if (pos >= end || (length = readLength()) < 0) {
+            key = null;
+            value = null;
+            return false;
+        }
+        byte[] record = new byte[length];
+        try {
+            in.readFully(record);
+        } catch (EOFException e) {
+            throw new EOFException("Truncated record of " + length + " bytes at offset " + pos);
+        }
+        key = pos;
+        value = record;
+        pos += 4 + length;
+        return true;
+    }
+
+    /**
+     * Reads the length of the next record
+     *
+     * @return the length, -1 at the end of the stream
+     */
+    private int readLength() throws IOException {
+        int b0 = in.read();
+        if (b0 < 0) {
+            return -1;
+        }
+        int b1 = in.read();
+        int b2 = in.read();
+        int b3 = in.read();
+        if ((b1 | b2 | b3) < 0) {
+            throw new EOFException("Truncated record length at offset " + pos);
+        }
+        int length = (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+        if (length < 0) {
+            throw new IOException("Invalid record length " + length + " at offset " + pos);
+        }
+        return length;
+    }
+
+    @Override
+    public Long getCurrentKey() {
+        return key;
+    }
+
+    @Override
+    public byte[] getCurrentValue() {
+        return value;
+    }
+
+    @Override
+    public float getProgress() {
+        if (end == start) {
+            return 1.0f;
+        }
+        return Math.min(1.0f, (pos - start) / (float) (end - start));
+    }
+
+    @Override
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.hashbang.mr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads the lines of a split straight off a stream through a fixed-size
+ * buffer. Keys are the byte offsets of the lines in the file, values are the
+ * lines without their terminator (<code>\n</code> or <code>\r\n</code>).
+ * <p/>
+ * Splits are cut at arbitrary byte offsets, so a line belongs to the split
+ * its first byte falls in, its end included: every split but the first
+ * skips the line it starts in, since the previous split reads it, and reads
+ * past its end to finish its last line. The stream must therefore start at
+ * the split's offset and continue past its end, up to the end of the file.
+ */
+public class LineRecordReader implements RecordReader<Long, String> {
+
+    public static final String BUFFER_SIZE = "io.file.buffer.size";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private final long start;
+    private final long end;
+    private final byte[] buffer;
+    private int bufferLength;
+    private int bufferPosition;
+    private byte[] line;
+    private int lineLength;
+
+    // read by the task tracker's progress reports
+    private volatile long pos;
+    private Long key;
+    private String value;
+
+    /**
+     * @param in         stream of the file, positioned at <code>start</code>
+     * @param start      offset of the split in the file
+     * @param length     length of the split
+     * @param bufferSize size of the read buffer
+     * @throws IOException
+     */
+    public LineRecordReader(InputStream in, long start, long length, int bufferSize) throws IOException {
+        this.in = in;
+        this.start = start;
+        this.end = start + length;
+        this.buffer = new byte[bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE];
+        this.line = new byte[128];
+        this.pos = start;
+        if (start != 0) {
+            // the line we start in belongs to the previous split
+            pos += readLine();
+        }
+    }
+
+    public LineRecordReader(InputStream in, long start, long length) throws IOException {
+        this(in, start, length, DEFAULT_BUFFER_SIZE);
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException {
+        // a line starting exactly at the end still belongs to this split
+        if (pos > end) {
+            key = null;
+            value = null;
+            return false;
+        }
+        long lineStart = pos;
+        int consumed = readLine();
+        if (consumed == 0) {
+            key = null;
+            value = null;
+            return false;
+        }
+        pos += consumed;
+        int length = lineLength;
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        key = lineStart;
+        value = new String(line, 0, length, UTF8);
+        return true;
+    }
+
+    @Override
+    public Long getCurrentKey() {
+        return key;
+    }
+
+    @Override
+    public String getCurrentValue() {
+        return value;
+    }
+
+    /**
+     * Returns the offset in the file of the next line
+     *
+     * @return position
+     */
+    public long getPosition() {
+        return pos;
+    }
+
+    @Override
+    public float getProgress() {
+        if (end == start) {
+            return 1.0f;
+        }
+        return Math.min(1.0f, (pos - start) / (float) (end - start));
+    }
+
+    @Override
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads up to and including the next newline into <code>line</code>,
+     * without the newline.
+     *
+     * @return the number of bytes consumed, 0 at the end of the stream
+     */
+    private int readLine() throws IOException {
+        lineLength = 0;
+        int consumed = 0;
+        while (true) {
+            if (bufferPosition == bufferLength) {
+                bufferLength = in.read(buffer);
+                bufferPosition = 0;
+                if (bufferLength <= 0) {
+                    bufferLength = 0;
+                    return consumed;
+                }
+            }
+            int start = bufferPosition;
+            while (bufferPosition < bufferLength && buffer[bufferPosition] != '\n') {
+                bufferPosition++;
+            }
+            append(start, bufferPosition - start);
+            consumed += bufferPosition - start;
+            if (bufferPosition < bufferLength) {
+                // skip the newline
+                bufferPosition++;
+                return consumed + 1;
+            }
+        }
+    }
+
+    private void append(int offset, int length) {
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        }
+        System.arraycopy(buffer, offset, line, lineLength, length);
+        lineLength += length;
+    }
+}
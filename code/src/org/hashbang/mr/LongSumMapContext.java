@@ -0,0 +1,27 @@
+package org.hashbang.mr;
+
+/**
+ * A {@link SumMapContext} for <code>(key, Long)</code> map output.
+ * Select it with <code>job.setMapContextClass(LongSumMapContext.class)</code>.
+ */
+public class LongSumMapContext<KEYOUT> extends SumMapContext<KEYOUT, Long> {
+
+    public LongSumMapContext(int jobID, Job job, long offset, int dataSize) {
+        super(jobID, job, offset, dataSize);
+    }
+
+    /**
+     * Adds the value to the sum of the key
+     *
+     * @param key
+     * @param value
+     */
+    public void write(KEYOUT key, long value) {
+        add(key, value);
+    }
+
+    @Override
+    protected Long toValue(long sum) {
+        return sum;
+    }
+}
@@ -1,11 +1,8 @@
 package org.hashbang.mr;
 
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,73 +13,288 @@ import java.util.Map;
  */
 public class MapContext<KEYOUT, VALUEOUT> extends JobContext {
 
-    private Map<KEYOUT, List<VALUEOUT>> mapContext;
-    private static final int sizeThreshold = 100000;
+    // created on the task tracker when the first pair is written
+    private transient MapOutputCollector<KEYOUT, VALUEOUT> outputBuffer;
+    private transient Reducer combiner;
+    private transient CombineContext<KEYOUT, VALUEOUT> combineContext;
+    private transient MapOutputFile outputFile;
+    private transient Partitioner<KEYOUT, VALUEOUT> partitioner;
+    private transient RecordReader<?, ?> recordReader;
+    private transient volatile boolean killed;
+    // first failure to write the map output, the attempt's output is then incomplete
+    private transient volatile RuntimeException outputError;
 
     public MapContext(int jobID, Job job, long offset, int dataSize) {
         super(jobID, job, offset, dataSize);
-        this.mapContext = new HashMap<>();
     }
 
     /**
-     * Save the key-value pair in context
+     * Returns the reader of the task's input split
+     *
+     * @return record reader
+     */
+    public RecordReader<?, ?> getRecordReader() {
+        return recordReader;
+    }
+
+    public void setRecordReader(RecordReader<?, ?> recordReader) {
+        this.recordReader = recordReader;
+    }
+
+    /**
+     * Creates the input format of a job
+     *
+     * @param job
+     * @return input format, text if the job's cannot be created
+     */
+    public static InputFormat<?, ?> newInputFormat(Job job) {
+        Class<? extends InputFormat> cls = job.getInputFormatClass();
+        if (cls != null) {
+            try {
+                return cls.newInstance();
+            } catch (InstantiationException e) {
+                e.printStackTrace();
+            } catch (IllegalAccessException e) {
+                e.printStackTrace();
+            }
+        }
+        return new TextInputFormat();
+    }
+
+    /**
+     * Returns how much of the task's split has been consumed
+     *
+     * @return a number between 0.0 and 1.0
+     */
+    public float getProgress() {
+        return recordReader == null ? 0.0f : recordReader.getProgress();
+    }
+
+    /**
+     * Stops the task after the current record, another attempt of the task
+     * has already finished
+     */
+    public void kill() {
+        killed = true;
+    }
+
+    public boolean isKilled() {
+        return killed;
+    }
+
+    /**
+     * Returns the first failure to write the map output. An attempt that
+     * failed to write its output is not committed, the task is run again.
+     *
+     * @return the failure, or null
+     */
+    public RuntimeException getOutputError() {
+        return outputError;
+    }
+
+    /**
+     * Records a failure to write the map output
+     *
+     * @param e
+     * @return the failure, to be thrown
+     */
+    RuntimeException outputFailed(RuntimeException e) {
+        if (outputError == null) {
+            outputError = e;
+        }
+        return e;
+    }
+
+    /**
+     * Save the key-value pair in context. The pair is buffered in memory, on
+     * or off the heap, and spilled to disk in the background once the output
+     * buffer fills up.
      *
      * @param key
      * @param value
      */
     public void write(KEYOUT key, VALUEOUT value) {
-        List<VALUEOUT> valuesForKey = mapContext.get(key);
+        if (outputBuffer == null) {
+            if (getConf().getBoolean(OffHeapMapOutputBuffer.OFF_HEAP, false)) {
+                outputBuffer = new OffHeapMapOutputBuffer<>(this);
+            } else {
+                outputBuffer = new MapOutputBuffer<>(this);
+            }
+        }
+        outputBuffer.write(getPartition(key, value), key, value);
+    }
 
-        // if no list is available for the key, create a new list
-        if (valuesForKey == null) {
-            valuesForKey = new ArrayList<VALUEOUT>();
+    /**
+     * Returns the partition, i.e. the reduce task, a key-value pair belongs to
+     *
+     * @param key
+     * @param value
+     * @return partition number
+     */
+    // the job's partitioner is a raw class, set for the job's map output types
+    @SuppressWarnings("unchecked")
+    public int getPartition(KEYOUT key, VALUEOUT value) {
+        if (getNumReduceTasks() <= 1) {
+            return 0;
         }
-        valuesForKey.add(value);
-        // persist the values to disk if list size goes above the threshold
-        if (valuesForKey.size() >= sizeThreshold) {
-            persistKeyValues(key, valuesForKey);
-            valuesForKey = null; // Clearing the valuelist after persisting the values
+        if (partitioner == null) {
+            try {
+                partitioner = getPartitionerClass().newInstance();
+            } catch (InstantiationException e) {
+                e.printStackTrace();
+            } catch (IllegalAccessException e) {
+                e.printStackTrace();
+            }
+            if (partitioner == null) {
+                partitioner = new HashPartitioner<>();
+            }
         }
-        mapContext.put(key, valuesForKey);
+        return partitioner.getPartition(key, value, getNumReduceTasks());
     }
 
     /**
-     * Persist the values for a key to disk
+     * Persist the values for a key to disk, running them through the
+     * combiner first if the job has one
      *
      * @param key
      * @param values
      */
     public void persistKeyValues(KEYOUT key, List<VALUEOUT> values) {
+        if (values == null || values.isEmpty()) {
+            return;
+        }
+        persistKeyValues(getPartition(key, values.get(0)), key, values);
+    }
 
-        // append the values to existing key files
-        try {
+    /**
+     * Persist the values for a key to the given partition, running them
+     * through the combiner first if the job has one
+     *
+     * @param partition
+     * @param key
+     * @param values
+     */
+    public void persistKeyValues(int partition, KEYOUT key, List<VALUEOUT> values) {
+        if (values == null || values.isEmpty()) {
+            return;
+        }
+        if (getCombinerClass() == null) {
+            writeKeyValues(partition, key, values);
+            return;
+        }
+        for (Map.Entry<KEYOUT, List<VALUEOUT>> entry : combine(key, values).entrySet()) {
+            // segments of a spill are in key order, they cannot take other keys
+            if (new MapOutputBuffer.KeyComparator().compare(entry.getKey(), key) != 0) {
+                throw outputFailed(new IllegalStateException("The combiner wrote key " + entry.getKey()
+                        + " while combining key " + key + ", a combiner must keep the keys of its input"));
+            }
+            writeKeyValues(partition, entry.getKey(), entry.getValue());
+        }
+    }
 
-            String fileName = this.getWorkingDirectory() + "/"
-                    + JobContext.MAP_OUTPUT_FILE_PREFIX + key.toString()
-                    + JobContext.MAP_OUTPUT_FILE_PREFIX
-                    + InetAddress.getLocalHost().getHostAddress()
-                    // ObjectOutputStream doesn't support appending to a file,
-                    // hence using a random number here
-                    + "_" + Math.random();
-            ObjectOutputStream oos = new ObjectOutputStream(
-                    new FileOutputStream(fileName, true));
-            for (VALUEOUT value : values) {
-                oos.writeObject(value);
+    /**
+     * Runs the combiner over the values of a key
+     *
+     * @param key
+     * @param values
+     * @return the combiner output grouped by key
+     */
+    // the job's combiner is a raw class, set for the job's map output types
+    @SuppressWarnings("unchecked")
+    private Map<KEYOUT, List<VALUEOUT>> combine(KEYOUT key, List<VALUEOUT> values) {
+        try {
+            if (combiner == null) {
+                combiner = getCombinerClass().newInstance();
+                combineContext = new CombineContext<>(this);
+                combiner.setup(combineContext);
             }
-            oos.close();
-        } catch (FileNotFoundException e) {
+            combiner.reduce(key, values, combineContext);
+        } catch (InstantiationException e) {
             e.printStackTrace();
-        } catch (IOException e) {
+        } catch (IllegalAccessException e) {
             e.printStackTrace();
         }
+        if (combineContext == null) {
+            // the combiner could not be created, write the values as they are
+            Map<KEYOUT, List<VALUEOUT>> uncombined = new HashMap<>();
+            uncombined.put(key, values);
+            return uncombined;
+        }
+        return combineContext.drain();
+    }
+
+    /**
+     * Marks the beginning of a spill in the map output file
+     */
+    void startSpill() {
+        getOutputFile().startSpill();
+    }
+
+    /**
+     * Append the values for a key as a segment of the task's map output file
+     *
+     * @param partition
+     * @param key
+     * @param values
+     * @throws IllegalStateException if the segment cannot be written
+     */
+    private void writeKeyValues(int partition, KEYOUT key, List<VALUEOUT> values) {
+        try {
+            getOutputFile().writeSegment(partition, key, values);
+        } catch (IOException e) {
+            throw outputFailed(new IllegalStateException("Cannot write the map output", e));
+        }
+    }
+
+    /**
+     * Writes key-values that are not in the output buffer as one spill,
+     * sorted by key
+     *
+     * @param output values grouped by key
+     */
+    private void writeSpill(Map<KEYOUT, List<VALUEOUT>> output) {
+        if (output.isEmpty()) {
+            return;
+        }
+        List<KEYOUT> keys = new ArrayList<>(output.keySet());
+        Collections.sort(keys, new MapOutputBuffer.KeyComparator());
+        startSpill();
+        for (KEYOUT key : keys) {
+            List<VALUEOUT> values = output.get(key);
+            if (!values.isEmpty()) {
+                writeKeyValues(getPartition(key, values.get(0)), key, values);
+            }
+        }
+    }
+
+    private synchronized MapOutputFile getOutputFile() {
+        if (outputFile == null) {
+            outputFile = new MapOutputFile(this);
+        }
+        return outputFile;
     }
 
     /**
      * Persist all data to disk (to be used in {@link Mapper#cleanup(MapContext)})
+     *
+     * @throws IllegalStateException if the map output cannot be written
      */
     public void persistAll() {
-        for(Map.Entry<KEYOUT, List<VALUEOUT>> entry : mapContext.entrySet()) {
-            persistKeyValues(entry.getKey(), entry.getValue());
+        if (outputBuffer != null) {
+            outputBuffer.flush();
+            outputBuffer = null;
+        }
+        if (combiner != null) {
+            combiner.cleanup(combineContext);
+            // what the combiner writes when it is done goes to a spill of its own
+            writeSpill(combineContext.drain());
+        }
+        if (outputFile != null) {
+            try {
+                outputFile.close();
+            } catch (IOException e) {
+                throw outputFailed(new IllegalStateException("Cannot write the map output", e));
+            }
         }
     }
 }
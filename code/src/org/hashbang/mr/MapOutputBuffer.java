@@ -0,0 +1,239 @@
+package org.hashbang.mr;
+
+import org.hashbang.util.SizeEstimator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A memory-accounted buffer for the output of a map task.
+ * <p/>
+ * The buffer holds at most <code>map.output.buffer.mb</code> of estimated heap
+ * bytes. Once the buffered output crosses <code>map.output.spill.percent</code>
+ * of that budget, the filled part is handed to a background spill thread which
+ * sorts every partition by key and persists it through
+ * {@link MapContext#persistKeyValues(int, Object, java.util.List)},
+ * while the map task keeps writing into the remaining space. The writer only
+ * blocks when the whole budget is used up before the running spill finishes.
+ */
+class MapOutputBuffer<KEYOUT, VALUEOUT> implements MapOutputCollector<KEYOUT, VALUEOUT> {
+
+    public static final String BUFFER_SIZE_MB = "map.output.buffer.mb";
+    public static final String SPILL_PERCENT = "map.output.spill.percent";
+
+    // HashMap entry and ArrayList backing a new key
+    private static final int KEY_OVERHEAD = 48 + 40;
+
+    private final MapContext<KEYOUT, VALUEOUT> context;
+    private final long budget;
+    private final long softLimit;
+    private final int numPartitions;
+
+    // buffered values grouped by key, one map per partition
+    private List<Map<KEYOUT, List<VALUEOUT>>> active;
+    private long activeBytes;
+    private List<Map<KEYOUT, List<VALUEOUT>>> spilling;
+    private long spillingBytes;
+    private boolean closed;
+    // first failure of the spill thread, the buffered output is then incomplete
+    private RuntimeException spillError;
+    private final SpillThread spillThread;
+
+    public MapOutputBuffer(MapContext<KEYOUT, VALUEOUT> context) {
+        Configuration conf = context.getConf();
+        this.context = context;
+        this.budget = conf.getInt(BUFFER_SIZE_MB, 100) * 1024L * 1024L;
+        float spillPercent = conf.getFloat(SPILL_PERCENT, 0.8f);
+        if (spillPercent <= 0 || spillPercent > 1) {
+            spillPercent = 0.8f;
+        }
+        this.softLimit = (long) (budget * spillPercent);
+        this.numPartitions = context.getNumReduceTasks();
+        this.active = newPartitions();
+        this.spillThread = new SpillThread();
+        this.spillThread.setDaemon(true);
+        this.spillThread.start();
+    }
+
+    /**
+     * Buffer a key-value pair, starting a spill when the soft limit is crossed
+     *
+     * @param partition
+     * @param key
+     * @param value
+     * @throws IllegalStateException if a spill failed
+     */
+    @Override
+    public synchronized void write(int partition, KEYOUT key, VALUEOUT value) {
+        checkSpill();
+        Map<KEYOUT, List<VALUEOUT>> partitionValues = active.get(partition);
+        List<VALUEOUT> values = partitionValues.get(key);
+        long bytes = SizeEstimator.REFERENCE + SizeEstimator.estimate(value);
+        if (values == null) {
+            values = new ArrayList<VALUEOUT>();
+            partitionValues.put(key, values);
+            bytes += KEY_OVERHEAD + SizeEstimator.estimate(key);
+        }
+        values.add(value);
+        activeBytes += bytes;
+
+        if (activeBytes >= softLimit) {
+            // out of space: wait for the running spill to release its part of the budget
+            while (spilling != null && activeBytes + spillingBytes >= budget) {
+                waitForSpill();
+            }
+            checkSpill();
+            if (spilling == null) {
+                startSpill();
+            }
+        }
+    }
+
+    /**
+     * Spill everything that is still buffered and stop the spill thread.
+     * Returns once all the output is on disk.
+     *
+     * @throws IllegalStateException if a spill failed
+     */
+    @Override
+    public void flush() {
+        synchronized (this) {
+            while (spilling != null) {
+                waitForSpill();
+            }
+            if (activeBytes > 0 && spillError == null) {
+                startSpill();
+            }
+            while (spilling != null) {
+                waitForSpill();
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            spillThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        synchronized (this) {
+            checkSpill();
+        }
+    }
+
+    /**
+     * Fail the map output once a spill failed. Caller must hold the lock.
+     */
+    private void checkSpill() {
+        if (spillError != null) {
+            throw new IllegalStateException("Map output spill failed", spillError);
+        }
+    }
+
+    /**
+     * Hand the active buffer over to the spill thread. Caller must hold the lock.
+     */
+    private void startSpill() {
+        spilling = active;
+        spillingBytes = activeBytes;
+        active = newPartitions();
+        activeBytes = 0;
+        notifyAll();
+    }
+
+    private List<Map<KEYOUT, List<VALUEOUT>>> newPartitions() {
+        List<Map<KEYOUT, List<VALUEOUT>>> partitions = new ArrayList<>(numPartitions);
+        for (int i = 0; i < numPartitions; i++) {
+            partitions.add(new HashMap<KEYOUT, List<VALUEOUT>>());
+        }
+        return partitions;
+    }
+
+    private void waitForSpill() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Orders keys by their natural ordering, falling back to their string form.
+     * Spills and the reduce side merge must agree on it.
+     */
+    static class KeyComparator implements Comparator<Object> {
+        // k2 is of the class of k1, which compares to its own class
+        @SuppressWarnings("unchecked")
+        @Override
+        public int compare(Object k1, Object k2) {
+            if (k1 instanceof Comparable && k1.getClass() == k2.getClass()) {
+                return ((Comparable) k1).compareTo(k2);
+            }
+            return k1.toString().compareTo(k2.toString());
+        }
+    }
+
+    /**
+     * SpillThread: sorts and persists the spilled part of the buffer while the
+     * map task keeps producing output.
+     */
+    private class SpillThread extends Thread {
+
+        public SpillThread() {
+            super("map-output-spill");
+        }
+
+        /**
+         * Record the failure of a spill, the next write or flush throws it
+         */
+        private void spillFailed(RuntimeException e) {
+            e.printStackTrace();
+            context.outputFailed(e);
+            synchronized (MapOutputBuffer.this) {
+                if (spillError == null) {
+                    spillError = e;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            List<Map<KEYOUT, List<VALUEOUT>>> toSpill;
+            while (true) {
+                synchronized (MapOutputBuffer.this) {
+                    while (spilling == null && !closed) {
+                        waitForSpill();
+                    }
+                    if (spilling == null) {
+                        return;
+                    }
+                    toSpill = spilling;
+                }
+
+                try {
+                    context.startSpill();
+                    for (int partition = 0; partition < numPartitions; partition++) {
+                        Map<KEYOUT, List<VALUEOUT>> partitionValues = toSpill.get(partition);
+                        List<KEYOUT> keys = new ArrayList<>(partitionValues.keySet());
+                        Collections.sort(keys, new KeyComparator());
+                        for (KEYOUT key : keys) {
+                            context.persistKeyValues(partition, key, partitionValues.get(key));
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    // a failing combiner must not leave the map task waiting forever
+                    spillFailed(e);
+                } finally {
+                    synchronized (MapOutputBuffer.this) {
+                        spilling = null;
+                        spillingBytes = 0;
+                        MapOutputBuffer.this.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+}
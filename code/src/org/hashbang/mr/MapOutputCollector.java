@@ -0,0 +1,25 @@
+package org.hashbang.mr;
+
+/**
+ * Buffers the output of a map task and spills it to the task's map output
+ * file, sorted by partition and key.
+ */
+interface MapOutputCollector<KEYOUT, VALUEOUT> {
+
+    /**
+     * Buffer a key-value pair of a partition
+     *
+     * @param partition
+     * @param key
+     * @param value
+     * @throws IllegalStateException if a spill failed
+     */
+    void write(int partition, KEYOUT key, VALUEOUT value);
+
+    /**
+     * Spill everything that is still buffered. Returns once all the output is on disk.
+     *
+     * @throws IllegalStateException if a spill failed
+     */
+    void flush();
+}
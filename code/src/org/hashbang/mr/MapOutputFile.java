@@ -0,0 +1,203 @@
+package org.hashbang.mr;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The output of a single map task. For every partition the task writes one
+ * data file holding a segment of serialized values per key and spill, and a
+ * compact index file locating every segment, see {@link SegmentWriter}.
+ * <p/>
+ * The files are written to a directory of the task attempt and only moved
+ * to the working directory, where reduce tasks pick them up, once the
+ * attempt is committed.
+ */
+public class MapOutputFile {
+
+    public static final String DATA_FILE_SUFFIX = ".out";
+    public static final String INDEX_FILE_SUFFIX = ".index";
+    private static final String PARTITION_SEPARATOR = "_";
+    private static final String ATTEMPT_DIR_PREFIX = "attempt_";
+
+    private final File attemptDir;
+    private final int taskId;
+    private final Configuration conf;
+    private final Map<Integer, SegmentWriter> writers;
+    private Class<?> keyClass;
+    private Class<?> valueClass;
+    private int spill;
+
+    /**
+     * @param context the map task's context. When the job does not declare
+     *                its map output classes, they are taken from the first
+     *                key and value written.
+     */
+    public MapOutputFile(JobContext context) {
+        this.attemptDir = getAttemptDir(context);
+        this.taskId = context.getTaskId();
+        this.conf = context.getConf();
+        this.keyClass = context.getMapOutputKeyClass();
+        this.valueClass = context.getMapOutputValueClass();
+        this.writers = new HashMap<>();
+        this.spill = 0;
+    }
+
+    /**
+     * Returns the directory the map output of a task attempt is written to
+     *
+     * @param context
+     * @return attempt directory
+     */
+    public static File getAttemptDir(JobContext context) {
+        return new File(context.getWorkingDirectory(), ATTEMPT_DIR_PREFIX + context.getTaskId()
+                + PARTITION_SEPARATOR + context.getAttemptId());
+    }
+
+    /**
+     * Moves the map output of a task attempt to the working directory
+     *
+     * @param context
+     * @throws IOException
+     */
+    public static void commit(JobContext context) throws IOException {
+        File dir = getAttemptDir(context);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.move(file.toPath(), new File(context.getWorkingDirectory(), file.getName()).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * Deletes the map output of a task attempt
+     *
+     * @param context
+     */
+    public static void abort(JobContext context) {
+        File dir = getAttemptDir(context);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * Returns the name of the data file of a map task's partition
+     *
+     * @param taskId
+     * @param partition
+     * @return file name
+     */
+    public static String getDataFileName(int taskId, int partition) {
+        return JobContext.MAP_OUTPUT_FILE_PREFIX + taskId + PARTITION_SEPARATOR + partition + DATA_FILE_SUFFIX;
+    }
+
+    /**
+     * Returns the name of the index file of a map task's partition
+     *
+     * @param taskId
+     * @param partition
+     * @return file name
+     */
+    public static String getIndexFileName(int taskId, int partition) {
+        return JobContext.MAP_OUTPUT_FILE_PREFIX + taskId + PARTITION_SEPARATOR + partition + INDEX_FILE_SUFFIX;
+    }
+
+    /**
+     * Returns a shell glob matching the data and index files of a partition
+     *
+     * @param partition
+     * @return glob
+     */
+    public static String getPartitionGlob(int partition) {
+        return JobContext.MAP_OUTPUT_FILE_PREFIX + "*" + PARTITION_SEPARATOR + partition + ".*";
+    }
+
+    /**
+     * Returns true if the file is the index of a map output file
+     *
+     * @param file
+     * @return true for map output index files
+     */
+    public static boolean isIndexFile(File file) {
+        String name = file.getName();
+        return name.startsWith(JobContext.MAP_OUTPUT_FILE_PREFIX) && name.endsWith(INDEX_FILE_SUFFIX);
+    }
+
+    /**
+     * Returns the partition of a map output index file
+     *
+     * @param indexFile
+     * @return partition
+     */
+    public static int getPartition(File indexFile) {
+        String name = indexFile.getName();
+        return Integer.parseInt(name.substring(name.lastIndexOf(PARTITION_SEPARATOR) + 1,
+                name.length() - INDEX_FILE_SUFFIX.length()));
+    }
+
+    /**
+     * Returns the data file described by an index file
+     *
+     * @param indexFile
+     * @return data file
+     */
+    public static File getDataFile(File indexFile) {
+        String name = indexFile.getName();
+        return new File(indexFile.getParentFile(),
+                name.substring(0, name.length() - INDEX_FILE_SUFFIX.length()) + DATA_FILE_SUFFIX);
+    }
+
+    /**
+     * Marks the beginning of a new spill. Segments of a spill are written in key order.
+     */
+    public synchronized void startSpill() {
+        spill++;
+    }
+
+    /**
+     * Appends the values of a key as one segment of the partition's data file
+     *
+     * @param partition
+     * @param key
+     * @param values
+     */
+    public synchronized void writeSegment(int partition, Object key, List<?> values) throws IOException {
+        SegmentWriter writer = writers.get(partition);
+        if (writer == null) {
+            if (keyClass == null) {
+                keyClass = key.getClass();
+            }
+            if (valueClass == null) {
+                valueClass = values.get(0).getClass();
+            }
+            if (!attemptDir.exists() && !attemptDir.mkdirs()) {
+                throw new IOException("Cannot create map output directory " + attemptDir);
+            }
+            writer = new SegmentWriter(new File(attemptDir, getDataFileName(taskId, partition)),
+                    new File(attemptDir, getIndexFileName(taskId, partition)), keyClass, valueClass, conf);
+            writers.put(partition, writer);
+        }
+        writer.writeSegment(spill, key, values);
+    }
+
+    /**
+     * Flushes and closes the data and index files
+     */
+    public synchronized void close() throws IOException {
+        for (SegmentWriter writer : writers.values()) {
+            writer.close();
+        }
+        writers.clear();
+    }
+}
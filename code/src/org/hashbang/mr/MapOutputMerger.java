@@ -0,0 +1,314 @@
+package org.hashbang.mr;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Merges the sorted map output runs of a partition on the reduce side.
+ * <p/>
+ * At most <code>reduce.merge.factor</code> runs are merged at once. While
+ * there are more runs than that, intermediate passes merge the oldest runs
+ * into new runs on disk; the last pass streams the keys in sorted order,
+ * together with a single-pass view of their values, to the reduce task.
+ * Memory use depends on the merge factor, not on the number of keys.
+ * <p/>
+ * During a pushed shuffle the map outputs are added one by one as they
+ * arrive, and the intermediate passes run while the map tasks are still
+ * running; {@link #finish()} then prepares the last pass.
+ */
+public class MapOutputMerger<VALUE> {
+
+    public static final String MERGE_FACTOR = "reduce.merge.factor";
+    private static final String MERGE_DIR_PREFIX = "merge_";
+
+    private final File mergeDir;
+    private final Configuration conf;
+    private final int mergeFactor;
+    private final SegmentReader segmentReader;
+    private final Comparator<MapOutputRun.Cursor> cursorComparator;
+    private final List<MapOutputRun.Cursor> openCursors;
+
+    private final LinkedList<MapOutputRun> runs;
+    private int numPasses;
+    private PriorityQueue<MapOutputRun.Cursor> queue;
+    private List<MapOutputRun.Cursor> currentCursors;
+    private Object currentKey;
+    private MapOutputValues<VALUE> currentValues;
+    // segments of the last pass, and those merged so far
+    private volatile long numSegments;
+    private volatile long segmentsMerged;
+
+    /**
+     * Prepares the merge of all the map outputs of a partition found in the
+     * task's working directory, running intermediate passes as needed.
+     *
+     * @param context
+     * @param partition
+     * @throws IOException
+     */
+    public MapOutputMerger(JobContext context, int partition) throws IOException {
+        this(context, partition, true);
+    }
+
+    /**
+     * Prepares the merge of the map outputs of a partition
+     *
+     * @param context
+     * @param partition
+     * @param scanWorkingDir true to merge the map outputs found in the task's
+     *                       working directory, false to add them with
+     *                       {@link #addMapOutput} and then call {@link #finish()}
+     * @throws IOException
+     */
+    public MapOutputMerger(JobContext context, int partition, boolean scanWorkingDir) throws IOException {
+        this.conf = context.getConf();
+        this.mergeDir = new File(context.getWorkingDirectory(), MERGE_DIR_PREFIX + partition);
+        this.mergeFactor = Math.max(2, context.getConf().getInt(MERGE_FACTOR, 10));
+        this.segmentReader = new SegmentReader(conf);
+        this.openCursors = new ArrayList<>();
+        this.currentCursors = new ArrayList<>();
+        this.runs = new LinkedList<>();
+        final MapOutputBuffer.KeyComparator keyComparator = new MapOutputBuffer.KeyComparator();
+        this.cursorComparator = new Comparator<MapOutputRun.Cursor>() {
+            @Override
+            public int compare(MapOutputRun.Cursor c1, MapOutputRun.Cursor c2) {
+                return keyComparator.compare(c1.getKey(), c2.getKey());
+            }
+        };
+
+        if (scanWorkingDir) {
+            File[] files = new File(context.getWorkingDirectory()).listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (MapOutputFile.isIndexFile(file) && MapOutputFile.getPartition(file) == partition) {
+                        runs.addAll(MapOutputRun.readRuns(file, conf));
+                    }
+                }
+            }
+            finish();
+        }
+    }
+
+    /**
+     * Adds the runs of a map output of the partition. Once twice the merge
+     * factor of runs are waiting, the oldest ones are merged right away so
+     * that little is left to merge when the last map output arrives.
+     *
+     * @param indexFile
+     * @throws IOException
+     */
+    public void addMapOutput(File indexFile) throws IOException {
+        runs.addAll(MapOutputRun.readRuns(indexFile, conf));
+        while (runs.size() >= 2 * mergeFactor) {
+            mergeOldestRuns(mergeFactor);
+        }
+    }
+
+    /**
+     * Runs the remaining intermediate passes and opens the runs of the last
+     * pass. Called once all the map outputs are added.
+     *
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        List<MapOutputRun> lastPass = mergePasses();
+        long segments = 0;
+        for (MapOutputRun run : lastPass) {
+            segments += run.getNumSegments();
+        }
+        numSegments = segments;
+        queue = openRuns(lastPass);
+    }
+
+    /**
+     * Merges runs until at most mergeFactor are left. Each pass merges just
+     * enough of the oldest runs for the final merge to have mergeFactor runs.
+     */
+    private List<MapOutputRun> mergePasses() throws IOException {
+        while (runs.size() > mergeFactor) {
+            mergeOldestRuns(Math.min(mergeFactor, runs.size() - mergeFactor + 1));
+        }
+        return runs;
+    }
+
+    /**
+     * Replaces the oldest runs by a run merging them
+     */
+    private void mergeOldestRuns(int numRuns) throws IOException {
+        List<MapOutputRun> group = new ArrayList<>(numRuns);
+        for (int i = 0; i < numRuns; i++) {
+            group.add(runs.removeFirst());
+        }
+        runs.addLast(mergeRuns(group, numPasses++));
+        for (MapOutputRun run : group) {
+            deleteIntermediateRun(run);
+        }
+    }
+
+    /**
+     * Merges a group of runs into one run in the merge directory
+     */
+    private MapOutputRun mergeRuns(List<MapOutputRun> group, int pass) throws IOException {
+        if (!mergeDir.exists() && !mergeDir.mkdirs()) {
+            throw new IOException("Cannot create merge directory " + mergeDir);
+        }
+        String name = JobContext.MAP_OUTPUT_FILE_PREFIX + MERGE_DIR_PREFIX + pass;
+        File dataFile = new File(mergeDir, name + MapOutputFile.DATA_FILE_SUFFIX);
+        File indexFile = new File(mergeDir, name + MapOutputFile.INDEX_FILE_SUFFIX);
+        MapOutputRun first = group.get(0);
+        SegmentWriter writer = new SegmentWriter(dataFile, indexFile,
+                first.getKeyClass(), first.getValueClass(), conf);
+        PriorityQueue<MapOutputRun.Cursor> groupQueue = openRuns(group);
+        int numSegments = 0;
+        try {
+            List<MapOutputRun.Cursor> cursors = new ArrayList<>();
+            while (!groupQueue.isEmpty()) {
+                Object key = pollKey(groupQueue, cursors);
+                writer.writeSegment(0, key, new MapOutputValues<>(segmentsOf(cursors), segmentReader));
+                numSegments++;
+                advance(cursors, groupQueue);
+            }
+        } finally {
+            writer.close();
+            for (MapOutputRun.Cursor cursor : openCursors) {
+                cursor.close();
+            }
+            openCursors.clear();
+        }
+        return MapOutputRun.readRuns(indexFile, conf).get(0);
+    }
+
+    /**
+     * Moves to the next key in sorted order
+     *
+     * @return false when all keys have been merged
+     * @throws IOException
+     */
+    public boolean nextKey() throws IOException {
+        advance(currentCursors, queue);
+        if (queue.isEmpty()) {
+            currentKey = null;
+            currentValues = null;
+            return false;
+        }
+        currentKey = pollKey(queue, currentCursors);
+        currentValues = new MapOutputValues<>(segmentsOf(currentCursors), segmentReader);
+        segmentsMerged += currentCursors.size();
+        return true;
+    }
+
+    /**
+     * Returns the fraction of the segments of the last pass merged so far
+     *
+     * @return progress between 0 and 1
+     */
+    public float getProgress() {
+        long segments = numSegments;
+        if (segments == 0) {
+            return queue == null ? 0.0f : 1.0f;
+        }
+        return Math.min(1.0f, segmentsMerged / (float) segments);
+    }
+
+    public Object getCurrentKey() {
+        return currentKey;
+    }
+
+    /**
+     * Returns a single-pass view of the values of the current key
+     *
+     * @return values
+     */
+    public Iterable<VALUE> getCurrentValues() {
+        return currentValues;
+    }
+
+    /**
+     * Checks that the values of the current key could be read
+     *
+     * @throws IOException the error that stopped them from being read
+     */
+    void checkCurrentValues() throws IOException {
+        if (currentValues != null && currentValues.getReadError() != null) {
+            throw currentValues.getReadError();
+        }
+    }
+
+    /**
+     * Closes all files and removes the intermediate runs
+     */
+    public void close() {
+        for (MapOutputRun.Cursor cursor : openCursors) {
+            cursor.close();
+        }
+        openCursors.clear();
+        segmentReader.close();
+        File[] files = mergeDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+            mergeDir.delete();
+        }
+    }
+
+    private PriorityQueue<MapOutputRun.Cursor> openRuns(List<MapOutputRun> runs) throws IOException {
+        PriorityQueue<MapOutputRun.Cursor> runQueue =
+                new PriorityQueue<>(Math.max(1, runs.size()), cursorComparator);
+        for (MapOutputRun run : runs) {
+            MapOutputRun.Cursor cursor = run.open();
+            openCursors.add(cursor);
+            if (cursor.next()) {
+                runQueue.add(cursor);
+            }
+        }
+        return runQueue;
+    }
+
+    /**
+     * Removes the cursors positioned on the smallest key from the queue
+     */
+    private Object pollKey(PriorityQueue<MapOutputRun.Cursor> runQueue, List<MapOutputRun.Cursor> cursors) {
+        cursors.clear();
+        MapOutputRun.Cursor first = runQueue.poll();
+        cursors.add(first);
+        while (!runQueue.isEmpty() && cursorComparator.compare(runQueue.peek(), first) == 0) {
+            cursors.add(runQueue.poll());
+        }
+        return first.getKey();
+    }
+
+    /**
+     * Moves the given cursors past their current key and puts them back in the queue
+     */
+    private void advance(List<MapOutputRun.Cursor> cursors, PriorityQueue<MapOutputRun.Cursor> runQueue)
+            throws IOException {
+        for (MapOutputRun.Cursor cursor : cursors) {
+            if (cursor.next()) {
+                runQueue.add(cursor);
+            }
+        }
+        cursors.clear();
+    }
+
+    private List<MapOutputSegment> segmentsOf(List<MapOutputRun.Cursor> cursors) {
+        List<MapOutputSegment> segments = new ArrayList<>(cursors.size());
+        for (MapOutputRun.Cursor cursor : cursors) {
+            segments.add(cursor.getSegment());
+        }
+        return segments;
+    }
+
+    /**
+     * Deletes a run written by an earlier merge pass once it has been merged
+     */
+    private void deleteIntermediateRun(MapOutputRun run) {
+        if (!mergeDir.equals(run.getDataFile().getParentFile())) {
+            return;
+        }
+        segmentReader.close(run.getDataFile());
+        run.getDataFile().delete();
+        run.getIndexFile().delete();
+    }
+}
@@ -0,0 +1,190 @@
+package org.hashbang.mr;
+
+import org.hashbang.io.Serialization;
+import org.hashbang.io.Serializer;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A run of segments sorted by key: one spill of a map output index, or the
+ * output of an intermediate merge pass. Only the position of the run in its
+ * index file is kept in memory; the entries are streamed by a {@link Cursor}.
+ */
+class MapOutputRun {
+
+    // spill, key length, offset, length, number of values
+    private static final int FIXED_ENTRY_BYTES = 4 + 4 + 8 + 8 + 4;
+
+    private final File indexFile;
+    private final File dataFile;
+    private final long indexOffset;
+    private final int numSegments;
+    private final Class<?> keyClass;
+    private final Class<?> valueClass;
+    private final Serializer keySerializer;
+    private final Serializer valueSerializer;
+    private final Configuration conf;
+
+    public MapOutputRun(File indexFile, File dataFile, long indexOffset, int numSegments,
+                        Class<?> keyClass, Class<?> valueClass, Configuration conf) {
+        this.indexFile = indexFile;
+        this.dataFile = dataFile;
+        this.indexOffset = indexOffset;
+        this.numSegments = numSegments;
+        this.keyClass = keyClass;
+        this.valueClass = valueClass;
+        this.keySerializer = Serialization.getSerializer(keyClass, conf);
+        this.valueSerializer = Serialization.getSerializer(valueClass, conf);
+        this.conf = conf;
+    }
+
+    /**
+     * Scans an index file for the runs it contains, one per spill
+     *
+     * @param indexFile
+     * @param conf      job configuration holding the user serializers
+     * @return runs in the order they were written
+     * @throws IOException
+     */
+    public static List<MapOutputRun> readRuns(File indexFile, Configuration conf) throws IOException {
+        List<MapOutputRun> runs = new ArrayList<>();
+        File dataFile = MapOutputFile.getDataFile(indexFile);
+        DataInputStream in = new DataInputStream(SegmentReader.openFile(indexFile, conf));
+        try {
+            String keyClassName = in.readUTF();
+            String valueClassName = in.readUTF();
+            Class<?> keyClass = Serialization.loadClass(keyClassName);
+            Class<?> valueClass = Serialization.loadClass(valueClassName);
+            // readUTF reads a 2 byte length followed by the modified UTF-8 bytes
+            long offset = 4 + utfLength(keyClassName) + utfLength(valueClassName);
+            long runOffset = 0;
+            int runSpill = -1;
+            int runSegments = 0;
+            while (true) {
+                int spill;
+                try {
+                    spill = in.readInt();
+                } catch (EOFException e) {
+                    // reached end of index
+                    break;
+                }
+                if (spill != runSpill) {
+                    if (runSegments > 0) {
+                        runs.add(new MapOutputRun(indexFile, dataFile, runOffset, runSegments,
+                                keyClass, valueClass, conf));
+                    }
+                    runSpill = spill;
+                    runOffset = offset;
+                    runSegments = 0;
+                }
+                int keyLength = in.readInt();
+                skipFully(in, keyLength + FIXED_ENTRY_BYTES - 8);
+                offset += FIXED_ENTRY_BYTES + keyLength;
+                runSegments++;
+            }
+            if (runSegments > 0) {
+                runs.add(new MapOutputRun(indexFile, dataFile, runOffset, runSegments,
+                        keyClass, valueClass, conf));
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown map output type in " + indexFile, e);
+        } finally {
+            in.close();
+        }
+        return runs;
+    }
+
+    private static int utfLength(String s) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeUTF(s);
+        return bytes.size() - 2;
+    }
+
+    private static void skipFully(DataInputStream in, int n) throws IOException {
+        while (n > 0) {
+            int skipped = in.skipBytes(n);
+            if (skipped <= 0) {
+                throw new EOFException("Truncated map output index");
+            }
+            n -= skipped;
+        }
+    }
+
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    public File getDataFile() {
+        return dataFile;
+    }
+
+    public int getNumSegments() {
+        return numSegments;
+    }
+
+    public Class<?> getKeyClass() {
+        return keyClass;
+    }
+
+    public Class<?> getValueClass() {
+        return valueClass;
+    }
+
+    /**
+     * Opens a cursor over the segments of the run
+     *
+     * @return cursor positioned before the first segment
+     * @throws IOException
+     */
+    public Cursor open() throws IOException {
+        return new Cursor();
+    }
+
+    /**
+     * Cursor: streams the index entries of a run.
+     */
+    class Cursor {
+        private final DataInputStream in;
+        private int remaining;
+        private MapOutputSegment segment;
+
+        private Cursor() throws IOException {
+            in = new DataInputStream(SegmentReader.openFile(indexFile, indexOffset, conf));
+            remaining = numSegments;
+        }
+
+        /**
+         * Moves to the next segment of the run
+         *
+         * @return false once the run is exhausted
+         * @throws IOException
+         */
+        public boolean next() throws IOException {
+            if (remaining == 0) {
+                segment = null;
+                return false;
+            }
+            segment = MapOutputSegment.read(in, dataFile, keySerializer, valueSerializer);
+            remaining--;
+            return segment != null;
+        }
+
+        public MapOutputSegment getSegment() {
+            return segment;
+        }
+
+        public Object getKey() {
+            return segment.getKey();
+        }
+
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
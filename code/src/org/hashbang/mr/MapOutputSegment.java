@@ -0,0 +1,150 @@
+package org.hashbang.mr;
+
+import org.hashbang.io.Serializer;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * The location of the values of one key in a map output data file, as read
+ * back from its index.
+ */
+public class MapOutputSegment {
+
+    private static final int MAX_BUFFER_SIZE = 64 * 1024;
+
+    private final File dataFile;
+    private final int spill;
+    private final Object key;
+    private final long offset;
+    private final long length;
+    private final int numValues;
+    private final Serializer valueSerializer;
+
+    public MapOutputSegment(File dataFile, int spill, Object key, long offset, long length, int numValues,
+                            Serializer valueSerializer) {
+        this.dataFile = dataFile;
+        this.spill = spill;
+        this.key = key;
+        this.offset = offset;
+        this.length = length;
+        this.numValues = numValues;
+        this.valueSerializer = valueSerializer;
+    }
+
+    /**
+     * Reads the next index entry
+     *
+     * @param in              index stream, positioned after the header
+     * @param dataFile        the data file the index describes
+     * @param keySerializer   serializer of the keys
+     * @param valueSerializer serializer of the values
+     * @return the segment, or null at the end of the index
+     * @throws IOException
+     */
+    public static MapOutputSegment read(DataInputStream in, File dataFile, Serializer keySerializer,
+                                        Serializer valueSerializer) throws IOException {
+        int spill;
+        try {
+            spill = in.readInt();
+        } catch (EOFException e) {
+            // reached end of index
+            return null;
+        }
+        int keyLength = in.readInt();
+        byte[] keyBytes = new byte[keyLength];
+        in.readFully(keyBytes);
+        Object key = keySerializer.deserialize(new DataInputStream(new ByteArrayInputStream(keyBytes)));
+        return new MapOutputSegment(dataFile, spill, key,
+                in.readLong(), in.readLong(), in.readInt(), valueSerializer);
+    }
+
+    /**
+     * Opens a stream over the segment's bytes
+     *
+     * @param channel an open channel on {@link #getDataFile()}
+     * @return stream positioned at the first value of the segment
+     * @throws IOException
+     */
+    public DataInputStream open(FileChannel channel) throws IOException {
+        channel.position(offset);
+        InputStream in = new BoundedInputStream(Channels.newInputStream(channel), length);
+        int bufferSize = (int) Math.max(1, Math.min(length, MAX_BUFFER_SIZE));
+        return new DataInputStream(new BufferedInputStream(in, bufferSize));
+    }
+
+    public File getDataFile() {
+        return dataFile;
+    }
+
+    public int getSpill() {
+        return spill;
+    }
+
+    public Object getKey() {
+        return key;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getNumValues() {
+        return numValues;
+    }
+
+    public Serializer getValueSerializer() {
+        return valueSerializer;
+    }
+
+    /**
+     * Limits reads to the bytes of a single segment.
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        public BoundedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+            // the underlying channel is shared by all segments of the file
+        }
+    }
+}
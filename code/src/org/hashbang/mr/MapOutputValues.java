@@ -0,0 +1,100 @@
+package org.hashbang.mr;
+
+import org.hashbang.io.Serializer;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The values of a key, read lazily from the map output segments that hold
+ * them. Only the segment being read is open, so the memory used does not
+ * depend on the number of values of the key.
+ * <p/>
+ * The values can be iterated only once.
+ */
+public class MapOutputValues<VALUE> implements Iterable<VALUE>, Iterator<VALUE> {
+
+    private final Iterator<MapOutputSegment> segments;
+    private final SegmentReader reader;
+    private boolean iterated;
+
+    private DataInputStream current;
+    private Serializer serializer;
+    private int remaining;
+    // kept in case the reducer swallows the exception
+    private IOException readError;
+
+    /**
+     * @param segments the segments holding the values of the key
+     * @param reader   reader of the data files, shared by all keys of the reduce task
+     */
+    MapOutputValues(List<MapOutputSegment> segments, SegmentReader reader) {
+        this.segments = segments.iterator();
+        this.reader = reader;
+    }
+
+    @Override
+    public Iterator<VALUE> iterator() {
+        if (iterated) {
+            throw new IllegalStateException("The values of a key can only be iterated once");
+        }
+        iterated = true;
+        return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (remaining == 0) {
+            if (!segments.hasNext()) {
+                return false;
+            }
+            openSegment(segments.next());
+        }
+        return true;
+    }
+
+    // the segments hold values of the job's map output value class
+    @SuppressWarnings("unchecked")
+    @Override
+    public VALUE next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            VALUE value = (VALUE) serializer.deserialize(current);
+            remaining--;
+            return value;
+        } catch (IOException e) {
+            readError = e;
+            throw new IllegalStateException("Failed to read map output", e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private void openSegment(MapOutputSegment segment) {
+        try {
+            current = reader.open(segment);
+            serializer = segment.getValueSerializer();
+            remaining = segment.getNumValues();
+        } catch (IOException e) {
+            readError = e;
+            throw new IllegalStateException("Failed to open map output " + segment.getDataFile(), e);
+        }
+    }
+
+    /**
+     * Returns the error that stopped the values from being read
+     *
+     * @return the error, or null if all values read so far were read
+     */
+    IOException getReadError() {
+        return readError;
+    }
+}
@@ -29,6 +29,37 @@ public class Mapper<KEYOUT, VALUEOUT> implements IMapper<KEYOUT, VALUEOUT> {
 //        context.write(key, value.length());
     }
 
+    /**
+     * Called once for each binary record of the input split, read by
+     * {@link FixedLengthInputFormat} or {@link LengthPrefixedInputFormat}.
+     *
+     * @param key     offset of the record in the file
+     * @param value   bytes of the record
+     * @param context
+     */
+    public void map(Long key, byte[] value, MapContext context) {
+
+    }
+
+    /**
+     * Called once for each record decoded by the job's {@link InputFormat}.
+     * The default implementation hands lines of text to
+     * {@link #map(Long, String, MapContext)} and binary records to
+     * {@link #map(Long, byte[], MapContext)}; override it for the records of
+     * other input formats.
+     *
+     * @param key
+     * @param value
+     * @param context
+     */
+    public void map(Object key, Object value, MapContext context) {
+        if (value instanceof byte[]) {
+            map((Long) key, (byte[]) value, context);
+        } else {
+            map((Long) key, (String) value, context);
+        }
+    }
+
     /**
      * Called once at the end of the task.
      *
@@ -39,8 +70,8 @@ public class Mapper<KEYOUT, VALUEOUT> implements IMapper<KEYOUT, VALUEOUT> {
     }
 
     /**
-     * Runs {@link IMapper#setup} once and {@link IMapper#map} over each key-value pair
-     * and finally runs {@link IMapper#cleanup}
+     * Runs {@link IMapper#setup} once and {@link IMapper#map} over each record of the
+     * split and finally runs {@link IMapper#cleanup}
      *
      * @param context
      */
@@ -49,28 +80,21 @@ public class Mapper<KEYOUT, VALUEOUT> implements IMapper<KEYOUT, VALUEOUT> {
         // calling setup
         setup(context);
 
-        long offset = 0;
-        InputStream is = null;
-        BufferedReader bfReader;
+        RecordReader<?, ?> reader = context.getRecordReader();
         try {
-            is = new ByteArrayInputStream(context.getDataBuffer().array());
-            bfReader = new BufferedReader(new InputStreamReader(is));
-            String line;
-            while ((line = bfReader.readLine()) != null) {
+            // a failed spill leaves the output incomplete, the attempt is failed
+            while (!context.isKilled() && context.getOutputError() == null && reader.nextKeyValue()) {
                 try {
-                    map(offset, line, context);
+                    map(reader.getCurrentKey(), reader.getCurrentValue(), context);
                 } catch (Exception e) {
                     System.out.println(e.toString());
                 }
-                offset = offset + line.length() + 1;  // +1 for newline char
             }
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
             try {
-                if (is != null) {
-                    is.close();
-                }
+                reader.close();
 
                 // calling cleanup
                 cleanup(context);
@@ -0,0 +1,56 @@
+package org.hashbang.mr;
+
+import org.hashbang.fs.DataTransferUtil;
+import org.hashbang.fs.NamenodeService;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+
+/**
+ * The default committer: collects the job's part files in its output
+ * directory on the JobTracker's host. Every reduce task writes its part file
+ * to its own working directory and, once it succeeds, sends the whole file to
+ * the Namenode server, which stores it under a temporary name and moves it
+ * to <code>&lt;output dir&gt;/output</code> when it is complete.
+ */
+public class NamenodeOutputCommitter implements OutputCommitter {
+
+    private static File getTempFile(ReduceContext context) {
+        return new File(context.getWorkingDirectory(),
+                FileOutputCommitter.getPartFileName(context.getPartition()) + "_" + context.getAttemptId());
+    }
+
+    @Override
+    public OutputStream openTaskOutput(ReduceContext context) throws IOException {
+        return new FileOutputStream(getTempFile(context));
+    }
+
+    @Override
+    public void commitTask(ReduceContext context) throws IOException {
+        File tempFile = getTempFile(context);
+        SocketChannel channel = SocketChannel.open(
+                new InetSocketAddress(context.getNamenodeServerIP(), NamenodeService.NAMENODE_PORT));
+        try {
+            Writer header = new OutputStreamWriter(channel.socket().getOutputStream(), "UTF-8");
+            long length = tempFile.length();
+            header.write(NamenodeService.OUTPUT_WRITE_IDENTIFIER + "\n" + context.getOutputDir() + "\n"
+                    + context.getPartition() + "\n" + length + "\n");
+            header.flush();
+            new DataTransferUtil().transferFileToChannel(Paths.get(tempFile.getPath()), 0, length, channel);
+            BufferedReader in = new BufferedReader(new InputStreamReader(channel.socket().getInputStream()));
+            if (!NamenodeService.BLOCK_WRITTEN.equals(in.readLine())) {
+                throw new IOException("Namenode server did not store " + tempFile.getName());
+            }
+        } finally {
+            channel.close();
+        }
+        tempFile.delete();
+    }
+
+    @Override
+    public void abortTask(ReduceContext context) {
+        getTempFile(context).delete();
+    }
+}
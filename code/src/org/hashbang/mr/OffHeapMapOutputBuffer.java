@@ -0,0 +1,592 @@
+package org.hashbang.mr;
+
+import org.hashbang.io.Serialization;
+import org.hashbang.io.Serializer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A map output buffer that keeps the buffered pairs off the Java heap.
+ * <p/>
+ * Enabled with <code>map.output.buffer.offheap=true</code>. Keys and values
+ * are serialized as soon as they are written and appended to direct
+ * {@link ByteBuffer} pages of <code>map.output.buffer.page.kb</code>. The
+ * heap only holds a compact index of five ints per record (partition,
+ * page, offset, key length, record length), which is what gets sorted
+ * when the buffer is spilled. String, Long, Integer and Double keys are
+ * compared in their serialized form, other keys are deserialized two at a
+ * time while sorting. Since direct memory is not part of the heap,
+ * <code>map.output.buffer.mb</code> can be sized independently of
+ * <code>-Xmx</code>, within <code>-XX:MaxDirectMemorySize</code>.
+ * <p/>
+ * Spilling works like {@link MapOutputBuffer}: once the records cross
+ * <code>map.output.spill.percent</code> of the budget, their pages are handed
+ * to a background spill thread while the map task keeps writing into the
+ * free pages. Spilled pages are reused by later records.
+ */
+class OffHeapMapOutputBuffer<KEYOUT, VALUEOUT> implements MapOutputCollector<KEYOUT, VALUEOUT> {
+
+    public static final String OFF_HEAP = "map.output.buffer.offheap";
+    public static final String PAGE_SIZE_KB = "map.output.buffer.page.kb";
+
+    // partition, page, offset, key length, record length
+    private static final int INDEX_INTS = 5;
+    private static final int INDEX_BYTES = INDEX_INTS * 4;
+    private static final int INITIAL_RECORDS = 1024;
+    // ranges of the index sorted by insertion rather than merged
+    private static final int INSERTION_SORT_RECORDS = 16;
+
+    private final MapContext<KEYOUT, VALUEOUT> context;
+    private final Configuration conf;
+    private final long softLimit;
+    private final int pageSize;
+    private final int maxPages;
+    private final int numPartitions;
+
+    private Class<?> keyClass;
+    private Class<?> valueClass;
+    private Serializer<Object> keySerializer;
+    private Serializer<Object> valueSerializer;
+    private final RecordBuffer record;
+    private final DataOutputStream recordOut;
+
+    // pages that can take new records, and the number of pages allocated so far
+    private final Deque<ByteBuffer> freePages;
+    private int allocatedPages;
+
+    private Batch active;
+    private Batch spilling;
+    private boolean closed;
+    // first failure of the spill thread, the buffered output is then incomplete
+    private RuntimeException spillError;
+    private final SpillThread spillThread;
+
+    public OffHeapMapOutputBuffer(MapContext<KEYOUT, VALUEOUT> context) {
+        this.context = context;
+        this.conf = context.getConf();
+        long budget = conf.getInt(MapOutputBuffer.BUFFER_SIZE_MB, 100) * 1024L * 1024L;
+        float spillPercent = conf.getFloat(MapOutputBuffer.SPILL_PERCENT, 0.8f);
+        if (spillPercent <= 0 || spillPercent > 1) {
+            spillPercent = 0.8f;
+        }
+        this.softLimit = (long) (budget * spillPercent);
+        this.pageSize = Math.max(1, conf.getInt(PAGE_SIZE_KB, 1024)) * 1024;
+        // two pages at least, one being spilled and one being written
+        this.maxPages = (int) Math.max(2, budget / pageSize);
+        this.numPartitions = context.getNumReduceTasks();
+        this.keyClass = context.getMapOutputKeyClass();
+        this.valueClass = context.getMapOutputValueClass();
+        this.record = new RecordBuffer();
+        this.recordOut = new DataOutputStream(record);
+        this.freePages = new ArrayDeque<>();
+        this.active = new Batch(null);
+        this.spillThread = new SpillThread();
+        this.spillThread.setDaemon(true);
+        this.spillThread.start();
+    }
+
+    // checkClass keeps records of other classes from reaching the serializers
+    @SuppressWarnings("unchecked")
+    private void createSerializers() {
+        keySerializer = (Serializer<Object>) Serialization.getSerializer(keyClass, conf);
+        valueSerializer = (Serializer<Object>) Serialization.getSerializer(valueClass, conf);
+    }
+
+    /**
+     * Serialize a key-value pair into the pages, starting a spill when the
+     * soft limit is crossed
+     *
+     * @param partition
+     * @param key
+     * @param value
+     * @throws IllegalStateException if a spill failed
+     */
+    @Override
+    public synchronized void write(int partition, KEYOUT key, VALUEOUT value) {
+        checkSpill();
+        if (keySerializer == null) {
+            if (keyClass == null) {
+                keyClass = key.getClass();
+            }
+            if (valueClass == null) {
+                valueClass = value.getClass();
+            }
+            createSerializers();
+        }
+        SegmentWriter.checkClass(key, keyClass, "key");
+        SegmentWriter.checkClass(value, valueClass, "value");
+        record.reset();
+        try {
+            keySerializer.serialize(key, recordOut);
+            int keyLength = record.size();
+            valueSerializer.serialize(value, recordOut);
+            append(partition, keyLength);
+        } catch (IOException e) {
+            // serializing to memory does not fail unless the serializer does
+            throw new IllegalStateException("Failed to serialize map output", e);
+        }
+
+        if (active.bytes >= softLimit && spilling == null) {
+            startSpill();
+        }
+    }
+
+    /**
+     * Copy the serialized record into the active batch
+     */
+    private void append(int partition, int keyLength) {
+        int length = record.size();
+        ByteBuffer page = active.currentPage();
+        if (page == null || page.remaining() < length) {
+            page = nextPage(length);
+        }
+        active.add(partition, page.position(), keyLength, length);
+        page.put(record.getBuffer(), 0, length);
+    }
+
+    /**
+     * Find a page with room for a record, spilling or waiting for a running
+     * spill when all the pages are in use. Caller must hold the lock.
+     */
+    private ByteBuffer nextPage(int length) {
+        if (length > pageSize) {
+            // an oversized record gets a page of its own, which is not reused
+            return active.addPage(ByteBuffer.allocateDirect(length));
+        }
+        while (freePages.isEmpty() && allocatedPages >= maxPages) {
+            if (spilling == null && active.numRecords > 0) {
+                startSpill();
+            } else {
+                waitForSpill();
+            }
+            checkSpill();
+        }
+        ByteBuffer page = freePages.poll();
+        if (page == null) {
+            page = ByteBuffer.allocateDirect(pageSize);
+            allocatedPages++;
+        }
+        page.clear();
+        return active.addPage(page);
+    }
+
+    /**
+     * Spill everything that is still buffered and stop the spill thread.
+     * Returns once all the output is on disk.
+     *
+     * @throws IllegalStateException if a spill failed
+     */
+    @Override
+    public void flush() {
+        synchronized (this) {
+            while (spilling != null) {
+                waitForSpill();
+            }
+            if (active.numRecords > 0 && spillError == null) {
+                startSpill();
+            }
+            while (spilling != null) {
+                waitForSpill();
+            }
+            closed = true;
+            // let the direct memory be reclaimed
+            freePages.clear();
+            notifyAll();
+        }
+        try {
+            spillThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        synchronized (this) {
+            checkSpill();
+        }
+    }
+
+    /**
+     * Fail the map output once a spill failed. Caller must hold the lock.
+     */
+    private void checkSpill() {
+        if (spillError != null) {
+            throw new IllegalStateException("Map output spill failed", spillError);
+        }
+    }
+
+    /**
+     * Hand the active batch over to the spill thread. Caller must hold the lock.
+     */
+    private void startSpill() {
+        spilling = active;
+        active = new Batch(spilling);
+        notifyAll();
+    }
+
+    private void waitForSpill() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Batch: the pages and index of the records written between two spills.
+     */
+    private class Batch {
+        private final List<ByteBuffer> pages;
+        private int[] index;
+        private int numRecords;
+        private long bytes;
+
+        /**
+         * @param previous the batch being spilled, whose index is larger
+         *                 than needed once sorted, or null
+         */
+        public Batch(Batch previous) {
+            this.pages = new ArrayList<>();
+            this.index = new int[INDEX_INTS * (previous == null ? INITIAL_RECORDS : previous.numRecords)];
+        }
+
+        public ByteBuffer currentPage() {
+            return pages.isEmpty() ? null : pages.get(pages.size() - 1);
+        }
+
+        public ByteBuffer addPage(ByteBuffer page) {
+            pages.add(page);
+            return page;
+        }
+
+        public void add(int partition, int offset, int keyLength, int length) {
+            if ((numRecords + 1) * INDEX_INTS > index.length) {
+                index = Arrays.copyOf(index, Math.max(INDEX_INTS * INITIAL_RECORDS, index.length * 2));
+            }
+            int i = numRecords * INDEX_INTS;
+            index[i] = partition;
+            index[i + 1] = pages.size() - 1;
+            index[i + 2] = offset;
+            index[i + 3] = keyLength;
+            index[i + 4] = length;
+            numRecords++;
+            bytes += length + INDEX_BYTES;
+        }
+
+        public int getPartition(int record) {
+            return index[record * INDEX_INTS];
+        }
+
+        public ByteBuffer getPage(int record) {
+            return pages.get(index[record * INDEX_INTS + 1]);
+        }
+
+        public int getOffset(int record) {
+            return index[record * INDEX_INTS + 2];
+        }
+
+        public int getKeyLength(int record) {
+            return index[record * INDEX_INTS + 3];
+        }
+
+        /**
+         * Deserialize the key or the value of a record
+         */
+        public Object read(int record, boolean key, PageInputStream in, DataInputStream dataIn) throws IOException {
+            int i = record * INDEX_INTS;
+            ByteBuffer page = pages.get(index[i + 1]);
+            int offset = index[i + 2];
+            int keyLength = index[i + 3];
+            if (key) {
+                in.reset(page, offset, keyLength);
+                return keySerializer.deserialize(dataIn);
+            }
+            in.reset(page, offset + keyLength, index[i + 4] - keyLength);
+            return valueSerializer.deserialize(dataIn);
+        }
+
+        /**
+         * Return the pages to the pool, dropping oversized pages
+         */
+        public void release() {
+            for (ByteBuffer page : pages) {
+                if (page.capacity() == pageSize) {
+                    freePages.add(page);
+                }
+            }
+            pages.clear();
+        }
+    }
+
+    /**
+     * SpillThread: sorts the index of the spilled batch by partition and key
+     * and persists the values of every key while the map task keeps writing.
+     */
+    private class SpillThread extends Thread {
+
+        public SpillThread() {
+            super("map-output-spill");
+        }
+
+        /**
+         * Record the failure of a spill, the next write or flush throws it
+         */
+        private void spillFailed(RuntimeException e) {
+            e.printStackTrace();
+            context.outputFailed(e);
+            synchronized (OffHeapMapOutputBuffer.this) {
+                if (spillError == null) {
+                    spillError = e;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            Batch toSpill;
+            while (true) {
+                synchronized (OffHeapMapOutputBuffer.this) {
+                    while (spilling == null && !closed) {
+                        waitForSpill();
+                    }
+                    if (spilling == null) {
+                        return;
+                    }
+                    toSpill = spilling;
+                }
+
+                try {
+                    spill(toSpill);
+                } catch (IOException e) {
+                    spillFailed(new IllegalStateException("Cannot spill the map output", e));
+                } catch (RuntimeException e) {
+                    // a failing combiner must not leave the map task waiting forever
+                    spillFailed(e);
+                } finally {
+                    synchronized (OffHeapMapOutputBuffer.this) {
+                        toSpill.release();
+                        spilling = null;
+                        OffHeapMapOutputBuffer.this.notifyAll();
+                    }
+                }
+            }
+        }
+
+        // write only buffers KEYOUT keys and VALUEOUT values
+        @SuppressWarnings("unchecked")
+        private void spill(Batch batch) throws IOException {
+            PageInputStream in = new PageInputStream();
+            DataInputStream dataIn = new DataInputStream(in);
+            RecordComparator comparator = new RecordComparator(batch);
+            int[] order = new int[batch.numRecords];
+            for (int r = 0; r < order.length; r++) {
+                order[r] = r;
+            }
+            comparator.sort(order);
+
+            // only the key of the group being persisted is deserialized
+            context.startSpill();
+            int start = 0;
+            while (start < order.length) {
+                int partition = batch.getPartition(order[start]);
+                Object key = batch.read(order[start], true, in, dataIn);
+                List<VALUEOUT> values = new ArrayList<>();
+                int end = start;
+                while (end < order.length && comparator.compare(order[start], order[end]) == 0) {
+                    values.add((VALUEOUT) batch.read(order[end], false, in, dataIn));
+                    end++;
+                }
+                context.persistKeyValues(partition, (KEYOUT) key, values);
+                start = end;
+            }
+        }
+    }
+
+    /**
+     * RecordComparator: orders the records of a batch by partition and key,
+     * in the order of {@link MapOutputBuffer.KeyComparator}. The built-in key
+     * types are compared in place in the pages: zig-zag variable-length longs
+     * and ints by value, doubles by {@link Double#compare}, and strings by
+     * their UTF-8 bytes, which order like the code points.
+     */
+    private class RecordComparator {
+        private final Batch batch;
+        private final Class<?> keySerializerClass;
+        private final PageInputStream in = new PageInputStream();
+        private final DataInputStream dataIn = new DataInputStream(in);
+        private final MapOutputBuffer.KeyComparator keyComparator = new MapOutputBuffer.KeyComparator();
+
+        public RecordComparator(Batch batch) {
+            this.batch = batch;
+            this.keySerializerClass = keySerializer.getClass();
+        }
+
+        /**
+         * Sort record numbers with a merge sort of the primitive ints
+         */
+        public void sort(int[] order) throws IOException {
+            mergeSort(order.clone(), order, 0, order.length);
+        }
+
+        /**
+         * Sort src[from, to) into dest, both holding the same records there
+         */
+        private void mergeSort(int[] src, int[] dest, int from, int to) throws IOException {
+            if (to - from <= INSERTION_SORT_RECORDS) {
+                for (int i = from + 1; i < to; i++) {
+                    int record = dest[i];
+                    int j = i;
+                    while (j > from && compare(dest[j - 1], record) > 0) {
+                        dest[j] = dest[j - 1];
+                        j--;
+                    }
+                    dest[j] = record;
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            mergeSort(dest, src, from, mid);
+            mergeSort(dest, src, mid, to);
+            if (compare(src[mid - 1], src[mid]) <= 0) {
+                // already in order
+                System.arraycopy(src, from, dest, from, to - from);
+                return;
+            }
+            for (int i = from, p = from, q = mid; i < to; i++) {
+                if (q >= to || (p < mid && compare(src[p], src[q]) <= 0)) {
+                    dest[i] = src[p++];
+                } else {
+                    dest[i] = src[q++];
+                }
+            }
+        }
+
+        public int compare(int r1, int r2) throws IOException {
+            int p1 = batch.getPartition(r1);
+            int p2 = batch.getPartition(r2);
+            if (p1 != p2) {
+                return p1 < p2 ? -1 : 1;
+            }
+            ByteBuffer page1 = batch.getPage(r1);
+            ByteBuffer page2 = batch.getPage(r2);
+            int offset1 = batch.getOffset(r1);
+            int offset2 = batch.getOffset(r2);
+            if (keySerializerClass == Serialization.LongSerializer.class
+                    || keySerializerClass == Serialization.IntegerSerializer.class) {
+                long k1 = readVLong(page1, offset1);
+                long k2 = readVLong(page2, offset2);
+                return k1 < k2 ? -1 : (k1 == k2 ? 0 : 1);
+            }
+            if (keySerializerClass == Serialization.DoubleSerializer.class) {
+                return Double.compare(page1.getDouble(offset1), page2.getDouble(offset2));
+            }
+            if (keySerializerClass == Serialization.StringSerializer.class) {
+                return compareStrings(page1, offset1, batch.getKeyLength(r1), page2, offset2, batch.getKeyLength(r2));
+            }
+            Object k1 = batch.read(r1, true, in, dataIn);
+            Object k2 = batch.read(r2, true, in, dataIn);
+            return keyComparator.compare(k1, k2);
+        }
+
+        /**
+         * Compare two serialized strings like {@link String#compareTo}
+         */
+        private int compareStrings(ByteBuffer page1, int offset1, int length1,
+                                   ByteBuffer page2, int offset2, int length2) {
+            int end1 = offset1 + length1;
+            int end2 = offset2 + length2;
+            // skip the lengths
+            int i = offset1 + vlongSize(page1, offset1);
+            int j = offset2 + vlongSize(page2, offset2);
+            while (i < end1 && j < end2) {
+                int b1 = page1.get(i) & 0xff;
+                int b2 = page2.get(j) & 0xff;
+                if (b1 != b2) {
+                    // compareTo compares UTF-16 chars, where the surrogate pairs of
+                    // the supplementary code points (lead byte 0xF0 and up) come
+                    // before the chars from U+E000 (lead bytes 0xEE and 0xEF)
+                    if ((b1 >= 0xF0 && (b2 == 0xEE || b2 == 0xEF)) || (b2 >= 0xF0 && (b1 == 0xEE || b1 == 0xEF))) {
+                        return b1 < b2 ? 1 : -1;
+                    }
+                    return b1 < b2 ? -1 : 1;
+                }
+                i++;
+                j++;
+            }
+            return Integer.compare(end1 - i, end2 - j);
+        }
+    }
+
+    /**
+     * Reads a long written by {@link org.hashbang.io.WritableUtils#writeVLong} from a page
+     */
+    private static long readVLong(ByteBuffer page, int offset) {
+        long zigZag = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = page.get(offset++);
+            zigZag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigZag >>> 1) ^ -(zigZag & 1);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes of a variable-length long in a page
+     */
+    private static int vlongSize(ByteBuffer page, int offset) {
+        int size = 1;
+        while ((page.get(offset + size - 1) & 0x80) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Exposes its buffer so that records can be copied without a new array.
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        public byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * Reads a range of a page without changing the page's position.
+     */
+    private static class PageInputStream extends InputStream {
+        private ByteBuffer page;
+        private int position;
+        private int limit;
+
+        public void reset(ByteBuffer page, int offset, int length) {
+            this.page = page;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        @Override
+        public int read() {
+            if (position >= limit) {
+                return -1;
+            }
+            return page.get(position++) & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= limit) {
+                return -1;
+            }
+            int n = Math.min(len, limit - position);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = page.get(position++);
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+    }
+}
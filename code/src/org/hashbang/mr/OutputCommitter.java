@@ -0,0 +1,40 @@
+package org.hashbang.mr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Publishes the output of reduce tasks.
+ * <p/>
+ * Every reduce task writes its partition to a part file of its own,
+ * <code>part-NNNNN</code>, first under a temporary name. The part file only
+ * becomes visible in the job's output directory once the task succeeds, so
+ * a failed task leaves nothing behind. Implementations need a public
+ * no-argument constructor, see {@link Job#setOutputCommitterClass}.
+ */
+public interface OutputCommitter {
+
+    /**
+     * Opens the temporary output of a reduce task
+     *
+     * @param context
+     * @return stream to write the task's output to
+     * @throws IOException
+     */
+    public OutputStream openTaskOutput(ReduceContext context) throws IOException;
+
+    /**
+     * Publishes the output of a reduce task once it is written and closed
+     *
+     * @param context
+     * @throws IOException
+     */
+    public void commitTask(ReduceContext context) throws IOException;
+
+    /**
+     * Discards the output of a failed reduce task
+     *
+     * @param context
+     */
+    public void abortTask(ReduceContext context);
+}
@@ -0,0 +1,21 @@
+package org.hashbang.mr;
+
+/**
+ * Partitions the key space of the map output.
+ * <p/>
+ * The partition of a key decides which reduce task receives the key and all
+ * its values, so every value of a key must be assigned the same partition.
+ */
+public interface Partitioner<KEY, VALUE> {
+
+    /**
+     * Get the partition number for a given key given the total number of
+     * partitions i.e. the number of reduce tasks for the job.
+     *
+     * @param key           the key to be partitioned.
+     * @param value         the entry value.
+     * @param numPartitions the total number of partitions.
+     * @return the partition number for the <code>key</code>.
+     */
+    public int getPartition(KEY key, VALUE value, int numPartitions);
+}
@@ -0,0 +1,44 @@
+package org.hashbang.mr;
+
+import java.io.IOException;
+
+/**
+ * Breaks the data of an input split into key/value pairs for the
+ * {@link Mapper}.
+ */
+public interface RecordReader<KEYIN, VALUEIN> {
+
+    /**
+     * Read the next key, value pair.
+     *
+     * @return true if a key/value pair was read
+     * @throws IOException
+     */
+    public boolean nextKeyValue() throws IOException;
+
+    /**
+     * Get the current key
+     *
+     * @return the current key or null if there is no current key
+     */
+    public KEYIN getCurrentKey();
+
+    /**
+     * Get the current value.
+     *
+     * @return the object that was read
+     */
+    public VALUEIN getCurrentValue();
+
+    /**
+     * How much of the input the reader has consumed.
+     *
+     * @return a number between 0.0 and 1.0
+     */
+    public float getProgress();
+
+    /**
+     * Close the record reader.
+     */
+    public void close();
+}
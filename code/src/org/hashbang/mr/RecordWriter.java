@@ -0,0 +1,25 @@
+package org.hashbang.mr;
+
+import java.io.IOException;
+
+/**
+ * Writes the key/value pairs of a reduce task to its part file.
+ */
+public interface RecordWriter<KEYOUT, VALUEOUT> {
+
+    /**
+     * Write a key, value pair.
+     *
+     * @param key
+     * @param value
+     * @throws IOException
+     */
+    public void write(KEYOUT key, VALUEOUT value) throws IOException;
+
+    /**
+     * Finish the part file and close the underlying stream.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException;
+}
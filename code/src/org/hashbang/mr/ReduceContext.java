@@ -1,10 +1,7 @@
 package org.hashbang.mr;
 
-import org.hashbang.fs.NamenodeService;
-
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.io.OutputStream;
 
 /**
  * A view of the job that is provided to the tasks while they
@@ -13,40 +10,195 @@ import java.net.Socket;
 
 public class ReduceContext <KEYOUT, VALUEOUT> extends JobContext {
 
-    private Socket socket;
-    private PrintWriter writer;
+    public static final String OUTPUT_FORMAT = "reduce.output.format";
+
+    private transient OutputCommitter committer;
+    private transient RecordWriter<KEYOUT, VALUEOUT> writer;
+    // first failed write, the part file is then incomplete and is not published
+    private transient IOException writeError;
+    private int partition;
+    private volatile long keysReduced;
+    // map outputs already merged during the shuffle, see MapOutputMerger#addMapOutput
+    private transient MapOutputMerger<?> merger;
+    private transient CommitPermission commitPermission;
+    private transient boolean outputCommitted;
+    private transient volatile boolean killed;
+
+    /**
+     * Decides which attempt of a reduce task publishes its output when
+     * several attempts of the task run at the same time.
+     */
+    public interface CommitPermission {
+
+        /**
+         * @param context the attempt whose output is ready
+         * @return true if the attempt may publish its output
+         * @throws IOException
+         */
+        boolean canCommit(ReduceContext context) throws IOException;
+    }
 
     public ReduceContext(JobContext context) {
         super(context);
         this.isJobCompleted = false;
     }
 
+    public ReduceContext(JobContext context, int partition) {
+        this(context);
+        this.partition = partition;
+    }
+
     /**
-     * Write the context to the file
+     * Get the partition of the map output handled by this reduce task.
      *
+     * @return the partition number
      */
-    public void write(KEYOUT key, VALUEOUT value) {
-        // write value to socket output stream
-        String keyValuePair = key.toString() + "\t" + value.toString();
-        writer.println(keyValuePair);
+    public int getPartition() {
+        return partition;
     }
 
-    public void setupConnectionToNamenode() {
-        // create the socket to Namenode Service
+    /**
+     * Write a key-value pair to the task's part file: one tab separated pair
+     * per line, or a {@link SortedFileWriter} record if the job's output
+     * format is <code>sorted</code>. The part file is published once the task
+     * succeeds, see {@link OutputCommitter}.
+     *
+     * @throws IllegalStateException if the part file cannot be written
+     */
+    public void write(KEYOUT key, VALUEOUT value) {
+        if (writeError != null) {
+            throw new IllegalStateException("The output of partition " + partition + " failed", writeError);
+        }
         try {
-            socket = new Socket(this.getNamenodeServerIP(), NamenodeService.NAMENODE_PORT);
+            getWriter().write(key, value);
+        } catch (IOException e) {
+            writeError = e;
+            throw new IllegalStateException("Cannot write the output of partition " + partition, e);
+        }
+    }
 
-            if (socket != null) {
-                writer = new PrintWriter(socket.getOutputStream(), true);
-                writer.println(NamenodeService.REDUCERCLIENT_IDENTIFIER);
-                writer.println(this.getOutputDir());
+    private RecordWriter<KEYOUT, VALUEOUT> getWriter() throws IOException {
+        if (writer == null) {
+            OutputStream out = getOutputCommitter().openTaskOutput(this);
+            if (conf != null && SortedFileWriter.FORMAT.equals(conf.get(OUTPUT_FORMAT))) {
+                writer = new SortedFileWriter<>(out, conf);
+            } else {
+                writer = new TextRecordWriter<>(out);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
+        return writer;
+    }
+
+    private OutputCommitter getOutputCommitter() throws IOException {
+        if (committer == null) {
+            Class<? extends OutputCommitter> cls = getOutputCommitterClass();
+            try {
+                committer = cls == null ? new NamenodeOutputCommitter() : cls.newInstance();
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new IOException("Cannot create the output committer " + cls, e);
+            }
+        }
+        return committer;
+    }
+
+    /**
+     * Closes the task's part file and publishes it. A task writing nothing
+     * publishes an empty part file. The output of an attempt that is not
+     * given the {@link CommitPermission} is discarded and the attempt is
+     * killed, another attempt of the task published its output.
+     *
+     * @throws IOException if the part file cannot be published, or a write failed
+     */
+    public void commitOutput() throws IOException {
+        if (writeError != null) {
+            throw new IOException("The output of partition " + partition + " is incomplete", writeError);
+        }
+        getWriter().close();
+        writer = null;
+        if (commitPermission != null && !commitPermission.canCommit(this)) {
+            killed = true;
+            committer.abortTask(this);
+            return;
+        }
+        committer.commitTask(this);
+        outputCommitted = true;
+    }
+
+    /**
+     * Returns true once the task's output is published
+     *
+     * @return true if the output is committed
+     */
+    public boolean isOutputCommitted() {
+        return outputCommitted;
+    }
+
+    public void setCommitPermission(CommitPermission commitPermission) {
+        this.commitPermission = commitPermission;
+    }
+
+    /**
+     * Stops the reduce task, its output is discarded
+     */
+    public void kill() {
+        killed = true;
+    }
+
+    public boolean isKilled() {
+        return killed;
+    }
+
+    /**
+     * Returns the fraction of the partition's map output reduced so far
+     *
+     * @return progress between 0 and 1
+     */
+    public float getProgress() {
+        MapOutputMerger<?> current = merger;
+        return current == null ? 0.0f : current.getProgress();
+    }
+
+    /**
+     * Closes the task's part file and discards it
+     */
+    public void abortOutput() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            writer = null;
+        }
+        if (committer != null) {
+            committer.abortTask(this);
+        }
+    }
+
+    /**
+     * Returns the number of keys reduced so far
+     *
+     * @return keys reduced
+     */
+    public long getKeysReduced() {
+        return keysReduced;
+    }
+
+    void incrementKeysReduced() {
+        keysReduced++;
+    }
+
+    /**
+     * Returns the merger prepared while the map outputs were pushed to this
+     * reduce task
+     *
+     * @return merger, or null to merge the map outputs in the working directory
+     */
+    public MapOutputMerger<?> getMerger() {
+        return merger;
     }
 
-    public Socket getSocket() {
-        return socket;
+    public void setMerger(MapOutputMerger<?> merger) {
+        this.merger = merger;
     }
 }
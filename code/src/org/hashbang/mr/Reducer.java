@@ -1,11 +1,8 @@
 package org.hashbang.mr;
 
 import java.io.*;
-import java.net.Socket;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Reduces a set of intermediate values which share a key to a smaller set of
@@ -19,7 +16,7 @@ public class Reducer<KEYIN, VALUEIN> implements IReducer<KEYIN, VALUEIN> {
      * Called once at the start of the task.
      */
     public void setup(ReduceContext context) {
-        context.setupConnectionToNamenode();
+
     }
 
     /**
@@ -32,72 +29,82 @@ public class Reducer<KEYIN, VALUEIN> implements IReducer<KEYIN, VALUEIN> {
     }
 
     /**
-     * Called once at the end of the task.
+     * This method is called once for each key with a single-pass view of its
+     * values, read from the map outputs as they are consumed. Override it to
+     * reduce keys with more values than fit in memory. The default
+     * implementation collects the values and calls
+     * {@link #reduce(Object, List, ReduceContext)}.
      */
-    public void cleanup(ReduceContext context) {
-        Socket socket = context.getSocket();
-        if (socket != null) {
-            try {
-                socket.close();
-            } catch (IOException exc) {
-                exc.printStackTrace();
+    public void reduce(KEYIN key, Iterable<VALUEIN> values, ReduceContext context) {
+        List<VALUEIN> valueList;
+        if (values instanceof List) {
+            valueList = (List<VALUEIN>) values;
+        } else {
+            valueList = new ArrayList<>();
+            for (VALUEIN value : values) {
+                valueList.add(value);
             }
         }
+        reduce(key, valueList, context);
+    }
+
+    /**
+     * Called once at the end of the task.
+     */
+    public void cleanup(ReduceContext context) {
+
     }
 
     /**
      * Runs {@link IReducer#setup} once and {@link IReducer#reduce} over each key-valuelist
-     * and finally runs {@link IReducer#cleanup}
+     * and finally runs {@link IReducer#cleanup}. Keys are merged from the sorted map
+     * output runs of the task's partition and reduced in sorted order, continuing the
+     * merge started during the shuffle if there is one. The output written to the
+     * context is published once all keys are reduced, or discarded if the map
+     * outputs cannot be read or the attempt is killed.
      */
+    // the merger and its keys and values belong to this reducer's job, whose
+    // map output types are KEYIN and VALUEIN
+    @SuppressWarnings("unchecked")
     public void run(ReduceContext context) {
         setup(context);
-        HashMap<String, List<String>> keyFiles = new HashMap<>();
-        File mapperDir = new File(context.getWorkingDirectory());
-        String fileName;
-        String key;
-        for (File mapperOutputFile : mapperDir.listFiles()) {
-            fileName = mapperOutputFile.getName();
-            if (fileName.startsWith(JobContext.MAP_OUTPUT_FILE_PREFIX)) {
-                String filePrefix = fileName.substring(0, fileName.lastIndexOf(JobContext.MAP_OUTPUT_FILE_PREFIX));
-                key = filePrefix.substring(JobContext.MAP_OUTPUT_FILE_PREFIX.length());
-                List<String> files = keyFiles.get(key);
-                if (files == null) {
-                    files = new ArrayList<>();
-                }
-                files.add(fileName);
-                keyFiles.put(key, files);
+        boolean succeeded = false;
+        MapOutputMerger<VALUEIN> merger = null;
+        try {
+            merger = (MapOutputMerger<VALUEIN>) context.getMerger();
+            if (merger == null) {
+                merger = new MapOutputMerger<>(context, context.getPartition());
+                context.setMerger(merger);
             }
-        }
-
-        // iterate over each list of files for a key and run reduce()
-        for (Map.Entry<String, List<String>> entry : keyFiles.entrySet()) {
-            key = entry.getKey();
-            List<String> files = entry.getValue();
-            List<VALUEIN> values = new ArrayList<>();
-            for (String mapperOutputFile : files) {
-                ObjectInputStream ois;
+            while (!context.isKilled() && merger.nextKey()) {
                 try {
-                    ois = new ObjectInputStream(new FileInputStream(
-                            context.getWorkingDirectory() + "/" + mapperOutputFile));
-                    VALUEIN value;
-                    while ((value = (VALUEIN) ois.readObject()) != null) {
-                        values.add(value);
-                    }
-                } catch (EOFException e) {
-                    // reached end of file
-                } catch (IOException e) {
-                    e.printStackTrace();
-                } catch (ClassNotFoundException e) {
+                    reduce((KEYIN) merger.getCurrentKey(), merger.getCurrentValues(), context);
+                } catch (Exception e) {
                     e.printStackTrace();
                 }
+                // the key's output would be incomplete, the attempt fails
+                merger.checkCurrentValues();
+                context.incrementKeysReduced();
             }
-            // Call reduce() after getting all values for the current key
+            // a killed attempt's output is discarded
+            succeeded = !context.isKilled();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (merger != null) {
+                merger.close();
+            }
+        }
+        cleanup(context);
+        if (succeeded) {
             try {
-                reduce((KEYIN) key, values, context);
-            } catch (Exception e) {
+                context.commitOutput();
+            } catch (IOException e) {
                 e.printStackTrace();
+                context.abortOutput();
             }
+        } else {
+            context.abortOutput();
         }
-        cleanup(context);
     }
 }
@@ -0,0 +1,136 @@
+package org.hashbang.mr;
+
+import org.hashbang.io.BlockCompressedFile;
+import org.hashbang.io.CompressionCodec;
+import org.hashbang.io.CompressionCodecs;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Opens the value segments of map output data files, written by a
+ * {@link SegmentWriter} with the same configuration. Every data file stays
+ * open until it is closed, shared by all the keys read from it. Compressed
+ * data files keep their most recently read blocks, so that the segments of a
+ * run, which are stored one after the other, are decompressed only once.
+ */
+class SegmentReader {
+
+    private static final int CACHED_BLOCKS = 8;
+    private static final int MAX_BUFFER_SIZE = 64 * 1024;
+
+    private final Configuration conf;
+    private final boolean compressed;
+    private final Map<File, FileChannel> channels;
+    private final Map<File, BlockCompressedFile> compressedFiles;
+
+    public SegmentReader(Configuration conf) {
+        this.conf = conf;
+        this.compressed = CompressionCodecs.isCompressed(conf);
+        this.channels = new HashMap<>();
+        this.compressedFiles = new HashMap<>();
+    }
+
+    /**
+     * Opens a map output index file, or a data file, to read it from the start
+     *
+     * @param file
+     * @param conf configuration of the job that wrote the file
+     * @return stream over the uncompressed bytes
+     * @throws IOException
+     */
+    public static InputStream openFile(File file, Configuration conf) throws IOException {
+        return openFile(file, 0, conf);
+    }
+
+    /**
+     * Opens a map output index file, or a data file, at a position of its
+     * uncompressed bytes
+     *
+     * @param file
+     * @param position
+     * @param conf     configuration of the job that wrote the file
+     * @return stream over the uncompressed bytes, closing the file when closed
+     * @throws IOException
+     */
+    public static InputStream openFile(File file, long position, Configuration conf) throws IOException {
+        CompressionCodec codec = CompressionCodecs.getCodec(conf);
+        if (codec == null) {
+            FileInputStream in = new FileInputStream(file);
+            in.getChannel().position(position);
+            return new BufferedInputStream(in);
+        }
+        final BlockCompressedFile compressedFile = new BlockCompressedFile(file, codec, 1);
+        return new FilterInputStream(compressedFile.openStream(position, compressedFile.length() - position)) {
+            @Override
+            public void close() throws IOException {
+                compressedFile.close();
+            }
+        };
+    }
+
+    /**
+     * Opens a stream over the values of a segment
+     *
+     * @param segment
+     * @return stream positioned at the first value of the segment
+     * @throws IOException
+     */
+    public DataInputStream open(MapOutputSegment segment) throws IOException {
+        File dataFile = segment.getDataFile();
+        if (!compressed) {
+            FileChannel channel = channels.get(dataFile);
+            if (channel == null) {
+                channel = new RandomAccessFile(dataFile, "r").getChannel();
+                channels.put(dataFile, channel);
+            }
+            return segment.open(channel);
+        }
+        BlockCompressedFile compressedFile = compressedFiles.get(dataFile);
+        if (compressedFile == null) {
+            compressedFile = new BlockCompressedFile(dataFile, CompressionCodecs.getCodec(conf), CACHED_BLOCKS);
+            compressedFiles.put(dataFile, compressedFile);
+        }
+        // the blocks are in memory, the buffer only saves calls per value
+        int bufferSize = (int) Math.max(1, Math.min(segment.getLength(), MAX_BUFFER_SIZE));
+        return new DataInputStream(new BufferedInputStream(
+                compressedFile.openStream(segment.getOffset(), segment.getLength()), bufferSize));
+    }
+
+    /**
+     * Closes a data file
+     *
+     * @param dataFile
+     */
+    public void close(File dataFile) {
+        close(channels.remove(dataFile));
+        close(compressedFiles.remove(dataFile));
+    }
+
+    /**
+     * Closes all data files
+     */
+    public void close() {
+        for (FileChannel channel : channels.values()) {
+            close(channel);
+        }
+        channels.clear();
+        for (BlockCompressedFile compressedFile : compressedFiles.values()) {
+            close(compressedFile);
+        }
+        compressedFiles.clear();
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.hashbang.mr;
+
+import org.hashbang.io.BlockCompressedOutputStream;
+import org.hashbang.io.CompressionCodec;
+import org.hashbang.io.CompressionCodecs;
+import org.hashbang.io.Serialization;
+import org.hashbang.io.Serializer;
+
+import java.io.*;
+
+/**
+ * Writes a data file of value segments and the index locating them.
+ * <p/>
+ * The index starts with the key and value class names (UTF) followed by one
+ * entry per segment: <code>spill (int), key length (int), serialized key,
+ * offset (long), length (long), number of values (int)</code>. Within a spill,
+ * segments are written in key order so that every spill of a file is a
+ * sorted run. Keys and values are written with the {@link Serializer} of
+ * their class.
+ * <p/>
+ * When the job sets a compression codec, both files are written as blocks
+ * compressed with it, see {@link BlockCompressedOutputStream}; offsets and
+ * lengths are those of the uncompressed bytes.
+ */
+class SegmentWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CountingOutputStream data;
+    private final DataOutputStream dataOut;
+    private final DataOutputStream index;
+    private final Class<?> keyClass;
+    private final Class<?> valueClass;
+    private final Serializer keySerializer;
+    private final Serializer valueSerializer;
+    private final ByteArrayOutputStream keyBytes;
+    private final DataOutputStream keyOut;
+
+    public SegmentWriter(File dataFile, File indexFile, Class<?> keyClass, Class<?> valueClass,
+                         Configuration conf) throws IOException {
+        this.keyClass = keyClass;
+        this.valueClass = valueClass;
+        this.keySerializer = Serialization.getSerializer(keyClass, conf);
+        this.valueSerializer = Serialization.getSerializer(valueClass, conf);
+        this.data = new CountingOutputStream(openFile(dataFile, conf));
+        this.dataOut = new DataOutputStream(data);
+        this.index = new DataOutputStream(openFile(indexFile, conf));
+        this.keyBytes = new ByteArrayOutputStream();
+        this.keyOut = new DataOutputStream(keyBytes);
+        index.writeUTF(keyClass.getName());
+        index.writeUTF(valueClass.getName());
+    }
+
+    /**
+     * Appends the values of a key as one segment
+     *
+     * @param spill
+     * @param key
+     * @param values
+     * @throws IOException
+     */
+    // checkClass makes sure the serializers are given keys and values of their class
+    @SuppressWarnings("unchecked")
+    public void writeSegment(int spill, Object key, Iterable<?> values) throws IOException {
+        checkClass(key, keyClass, "key");
+        long offset = data.getCount();
+        int numValues = 0;
+        for (Object value : values) {
+            checkClass(value, valueClass, "value");
+            valueSerializer.serialize(value, dataOut);
+            numValues++;
+        }
+
+        keyBytes.reset();
+        keySerializer.serialize(key, keyOut);
+        index.writeInt(spill);
+        index.writeInt(keyBytes.size());
+        keyBytes.writeTo(index);
+        index.writeLong(offset);
+        index.writeLong(data.getCount() - offset);
+        index.writeInt(numValues);
+    }
+
+    private static OutputStream openFile(File file, Configuration conf) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+        CompressionCodec codec = CompressionCodecs.getCodec(conf);
+        return codec == null ? out : new BlockCompressedOutputStream(out, codec);
+    }
+
+    static void checkClass(Object obj, Class<?> cls, String what) {
+        if (!cls.isInstance(obj)) {
+            throw new IllegalArgumentException("Map output " + what + " of " + obj.getClass().getName()
+                    + " where " + cls.getName() + " was expected. Set the map output " + what
+                    + " class of the job to a common super class.");
+        }
+    }
+
+    public void close() throws IOException {
+        dataOut.close();
+        index.close();
+    }
+
+    /**
+     * Counts the bytes written to the data file to compute segment offsets.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        public CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package org.hashbang.mr;
+
+import org.hashbang.io.Serialization;
+import org.hashbang.io.Serializer;
+import org.hashbang.io.WritableUtils;
+import org.hashbang.util.BloomFilter;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Looks keys up in a file written by {@link SortedFileWriter}. The index is
+ * loaded when the file is opened; a lookup then finds the block that may
+ * hold the key with a binary search over the first keys of the blocks, checks
+ * the block's Bloom filter, and reads and scans that single block. Range scans
+ * start the same way and read the following blocks in order.
+ * <p/>
+ * Keys are compared like in the shuffle: with their natural order if they are
+ * Comparable, otherwise by their string form. Readers are not thread-safe.
+ */
+public class SortedFileReader<KEY, VALUE> implements Closeable {
+
+    private final File file;
+    private final FileChannel channel;
+    private final MapOutputBuffer.KeyComparator comparator;
+    private final long[] blockOffsets;
+    private final int[] blockLengths;
+    private final Object[] firstKeys;
+    private final BloomFilter[] filters;
+    private final long numRecords;
+    private Serializer<KEY> keySerializer;
+    private Serializer<VALUE> valueSerializer;
+    private int cachedBlock;
+    private byte[] cachedBytes;
+
+    public SortedFileReader(File file) throws IOException {
+        this(file, new Configuration());
+    }
+
+    /**
+     * @param file
+     * @param conf configuration holding the serializers of the job that wrote the file
+     * @throws IOException if the file was not written by a SortedFileWriter
+     */
+    public SortedFileReader(File file, Configuration conf) throws IOException {
+        this.file = file;
+        this.channel = new RandomAccessFile(file, "r").getChannel();
+        this.comparator = new MapOutputBuffer.KeyComparator();
+        this.cachedBlock = -1;
+        try {
+            long size = channel.size();
+            if (size < SortedFileWriter.TRAILER_BYTES) {
+                throw new IOException("Not a sorted file: " + file);
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(SortedFileWriter.TRAILER_BYTES);
+            readFully(trailer, size - trailer.capacity());
+            long indexOffset = trailer.getLong();
+            this.numRecords = trailer.getLong();
+            if (trailer.getInt() != SortedFileWriter.MAGIC || indexOffset < 0
+                    || indexOffset > size - SortedFileWriter.TRAILER_BYTES) {
+                throw new IOException("Not a sorted file: " + file);
+            }
+            ByteBuffer indexBytes = ByteBuffer.allocate((int) (size - SortedFileWriter.TRAILER_BYTES - indexOffset));
+            readFully(indexBytes, indexOffset);
+            DataInputStream index = new DataInputStream(new ByteArrayInputStream(indexBytes.array()));
+
+            int numBlocks = WritableUtils.readVInt(index);
+            this.blockOffsets = new long[numBlocks];
+            this.blockLengths = new int[numBlocks];
+            byte[][] keyBytes = new byte[numBlocks][];
+            byte[][] filterBytes = new byte[numBlocks][];
+            for (int i = 0; i < numBlocks; i++) {
+                blockOffsets[i] = WritableUtils.readVLong(index);
+                blockLengths[i] = WritableUtils.readVInt(index);
+                WritableUtils.readVInt(index); // records of the block
+                keyBytes[i] = new byte[WritableUtils.readVInt(index)];
+                index.readFully(keyBytes[i]);
+                filterBytes[i] = new byte[WritableUtils.readVInt(index)];
+                index.readFully(filterBytes[i]);
+            }
+            String keyClass = WritableUtils.readString(index);
+            String valueClass = WritableUtils.readString(index);
+            int numHashes = WritableUtils.readVInt(index);
+
+            this.firstKeys = new Object[numBlocks];
+            this.filters = new BloomFilter[numBlocks];
+            if (numBlocks > 0) {
+                loadSerializers(keyClass, valueClass, conf);
+            }
+            for (int i = 0; i < numBlocks; i++) {
+                firstKeys[i] = keySerializer.deserialize(new DataInputStream(new ByteArrayInputStream(keyBytes[i])));
+                if (filterBytes[i].length > 0) {
+                    filters[i] = new BloomFilter(filterBytes[i], numHashes);
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            channel.close();
+            throw new IOException("Cannot read the records of " + file, e);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of records in the file
+     *
+     * @return records
+     */
+    public long getNumRecords() {
+        return numRecords;
+    }
+
+    /**
+     * Looks a key up
+     *
+     * @param key
+     * @return the value of the first record with the key, or null if there is none
+     * @throws IOException
+     */
+    public VALUE get(KEY key) throws IOException {
+        if (firstKeys.length == 0) {
+            return null;
+        }
+        long hash = hash(key);
+        // the first records of the key are either in the last block starting
+        // before it or at the start of the next one
+        for (int b = Math.max(0, lowerBound(key) - 1); b < firstKeys.length; b++) {
+            if (comparator.compare(firstKeys[b], key) > 0) {
+                return null;
+            }
+            if (filters[b] != null && !filters[b].mightContain(hash)) {
+                continue;
+            }
+            DataInputStream in = openBlock(b);
+            while (in.available() > 0) {
+                KEY k = readKey(in);
+                int c = comparator.compare(k, key);
+                if (c == 0) {
+                    return readValue(in);
+                } else if (c > 0) {
+                    return null;
+                }
+                skipValue(in);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Scans the records of a range of keys in order
+     *
+     * @param from first key of the range, or null to start with the first record
+     * @param to   key ending the range, excluded, or null to read to the end
+     * @return reader of the records of the range
+     */
+    public RecordReader<KEY, VALUE> scan(final KEY from, final KEY to) {
+        return new RecordReader<KEY, VALUE>() {
+            private int block = from == null ? 0 : Math.max(0, lowerBound(from) - 1);
+            private DataInputStream in;
+            private KEY key;
+            private VALUE value;
+            private boolean done = firstKeys.length == 0;
+
+            @Override
+            public boolean nextKeyValue() throws IOException {
+                while (!done) {
+                    if (in == null || in.available() == 0) {
+                        if (in != null) {
+                            block++;
+                        }
+                        if (block >= firstKeys.length
+                                || (to != null && comparator.compare(firstKeys[block], to) >= 0)) {
+                            break;
+                        }
+                        in = openBlock(block);
+                        continue;
+                    }
+                    KEY k = readKey(in);
+                    if (from != null && comparator.compare(k, from) < 0) {
+                        skipValue(in);
+                        continue;
+                    }
+                    if (to != null && comparator.compare(k, to) >= 0) {
+                        break;
+                    }
+                    key = k;
+                    value = readValue(in);
+                    return true;
+                }
+                done = true;
+                key = null;
+                value = null;
+                return false;
+            }
+
+            @Override
+            public KEY getCurrentKey() {
+                return key;
+            }
+
+            @Override
+            public VALUE getCurrentValue() {
+                return value;
+            }
+
+            @Override
+            public float getProgress() {
+                return done || firstKeys.length == 0 ? 1.0f : (float) block / firstKeys.length;
+            }
+
+            @Override
+            public void close() {
+                done = true;
+            }
+        };
+    }
+
+    /**
+     * Returns the index of the first block whose first key is not smaller
+     * than a key
+     */
+    private int lowerBound(KEY key) {
+        int low = 0;
+        int high = firstKeys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparator.compare(firstKeys[mid], key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // the file records the classes its keys and values were written with,
+    // which the caller reads as KEY and VALUE
+    @SuppressWarnings("unchecked")
+    private void loadSerializers(String keyClass, String valueClass, Configuration conf)
+            throws ClassNotFoundException {
+        keySerializer = (Serializer<KEY>) Serialization.getSerializer(Serialization.loadClass(keyClass), conf);
+        valueSerializer = (Serializer<VALUE>) Serialization.getSerializer(Serialization.loadClass(valueClass), conf);
+    }
+
+    private long hash(KEY key) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        keySerializer.serialize(key, new DataOutputStream(bytes));
+        return BloomFilter.hash(bytes.toByteArray(), 0, bytes.size());
+    }
+
+    private KEY readKey(DataInputStream in) throws IOException {
+        WritableUtils.readVInt(in);
+        return keySerializer.deserialize(in);
+    }
+
+    private VALUE readValue(DataInputStream in) throws IOException {
+        WritableUtils.readVInt(in);
+        return valueSerializer.deserialize(in);
+    }
+
+    private void skipValue(DataInputStream in) throws IOException {
+        int length = WritableUtils.readVInt(in);
+        if (in.skipBytes(length) != length) {
+            throw new EOFException("Truncated block in " + file);
+        }
+    }
+
+    /**
+     * Reads a block, keeping the last one read for the lookups of neighbouring keys
+     */
+    private DataInputStream openBlock(int b) throws IOException {
+        if (cachedBlock != b) {
+            ByteBuffer buffer = ByteBuffer.allocate(blockLengths[b]);
+            readFully(buffer, blockOffsets[b]);
+            cachedBytes = buffer.array();
+            cachedBlock = b;
+        }
+        return new DataInputStream(new ByteArrayInputStream(cachedBytes));
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Truncated sorted file " + file);
+            }
+            position += n;
+        }
+        buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        cachedBytes = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,181 @@
+package org.hashbang.mr;
+
+import org.hashbang.io.Serialization;
+import org.hashbang.io.Serializer;
+import org.hashbang.io.WritableUtils;
+import org.hashbang.util.BloomFilter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes the output of a reduce task as a binary file sorted by key, for
+ * point lookups and range scans with a {@link SortedFileReader}. Reduce tasks
+ * receive their keys in sorted order, so as long as the reducer writes them
+ * in that order the file is written in a single pass.
+ * <p/>
+ * The records, serialized like the map output (see {@link Serialization}),
+ * are grouped in blocks of about <code>reduce.output.sorted.block.size</code>
+ * bytes. The file ends with a sparse index holding the first key of every
+ * block and, unless <code>reduce.output.sorted.bloom.bits.per.key</code> is
+ * 0, a Bloom filter of the keys of every block, so that looking a key up
+ * reads at most one block when it is absent:
+ * <pre>
+ * block*       (vint key length, key, vint value length, value)*
+ * index        vint number of blocks,
+ *              (vlong offset, vint length, vint records, vint key length, first key,
+ *               vint filter length, filter)*,
+ *              key class, value class, vint filter hashes
+ * trailer      long index offset, long records, int magic
+ * </pre>
+ */
+public class SortedFileWriter<KEYOUT, VALUEOUT> implements RecordWriter<KEYOUT, VALUEOUT> {
+
+    public static final String FORMAT = "sorted";
+    public static final String BLOCK_SIZE = "reduce.output.sorted.block.size";
+    public static final String BLOOM_BITS_PER_KEY = "reduce.output.sorted.bloom.bits.per.key";
+    static final int MAGIC = 0x48425346;
+    static final int TRAILER_BYTES = 20;
+    private static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    private static final int DEFAULT_BLOOM_BITS_PER_KEY = 10;
+
+    private final DataOutputStream out;
+    private final Configuration conf;
+    private final int blockSize;
+    private final int bitsPerKey;
+    private final MapOutputBuffer.KeyComparator comparator;
+    private final ByteArrayOutputStream block;
+    private final DataOutputStream blockOut;
+    private final ByteArrayOutputStream record;
+    private final DataOutputStream recordOut;
+    private final ByteArrayOutputStream index;
+    private final DataOutputStream indexOut;
+    private Serializer<KEYOUT> keySerializer;
+    private Serializer<VALUEOUT> valueSerializer;
+    private Class<?> keyClass;
+    private Class<?> valueClass;
+    private KEYOUT lastKey;
+    private byte[] firstKey;
+    private long[] blockHashes;
+    private int blockRecords;
+    private int numBlocks;
+    private long numRecords;
+    private long position;
+
+    public SortedFileWriter(OutputStream out, Configuration conf) {
+        this.out = new DataOutputStream(out);
+        this.conf = conf;
+        this.blockSize = conf == null ? DEFAULT_BLOCK_SIZE : conf.getInt(BLOCK_SIZE, DEFAULT_BLOCK_SIZE);
+        this.bitsPerKey = conf == null ? DEFAULT_BLOOM_BITS_PER_KEY
+                : conf.getInt(BLOOM_BITS_PER_KEY, DEFAULT_BLOOM_BITS_PER_KEY);
+        this.comparator = new MapOutputBuffer.KeyComparator();
+        this.block = new ByteArrayOutputStream(blockSize + blockSize / 4);
+        this.blockOut = new DataOutputStream(block);
+        this.record = new ByteArrayOutputStream();
+        this.recordOut = new DataOutputStream(record);
+        this.index = new ByteArrayOutputStream();
+        this.indexOut = new DataOutputStream(index);
+        this.blockHashes = new long[64];
+    }
+
+    // the serializers are those of the first record's own classes; the
+    // records of a file are all of the same classes
+    @SuppressWarnings("unchecked")
+    private void createSerializers(KEYOUT key, VALUEOUT value) {
+        keyClass = key.getClass();
+        valueClass = value.getClass();
+        keySerializer = (Serializer<KEYOUT>) Serialization.getSerializer(keyClass, conf);
+        valueSerializer = (Serializer<VALUEOUT>) Serialization.getSerializer(valueClass, conf);
+    }
+
+    /**
+     * Appends a record
+     *
+     * @param key   not smaller than the previous key
+     * @param value
+     * @throws IOException if the key is out of order
+     */
+    @Override
+    public void write(KEYOUT key, VALUEOUT value) throws IOException {
+        if (keySerializer == null) {
+            createSerializers(key, value);
+        } else if (comparator.compare(lastKey, key) > 0) {
+            throw new IOException("Key " + key + " written after " + lastKey + ", keys must be written in sorted order");
+        }
+        lastKey = key;
+
+        record.reset();
+        keySerializer.serialize(key, recordOut);
+        byte[] keyBytes = record.toByteArray();
+        if (blockRecords == 0) {
+            firstKey = keyBytes;
+        }
+        if (bitsPerKey > 0) {
+            if (blockRecords == blockHashes.length) {
+                blockHashes = Arrays.copyOf(blockHashes, blockRecords * 2);
+            }
+            blockHashes[blockRecords] = BloomFilter.hash(keyBytes, 0, keyBytes.length);
+        }
+        WritableUtils.writeVInt(blockOut, keyBytes.length);
+        blockOut.write(keyBytes);
+
+        record.reset();
+        valueSerializer.serialize(value, recordOut);
+        WritableUtils.writeVInt(blockOut, record.size());
+        record.writeTo(blockOut);
+
+        blockRecords++;
+        numRecords++;
+        if (block.size() >= blockSize) {
+            finishBlock();
+        }
+    }
+
+    private void finishBlock() throws IOException {
+        WritableUtils.writeVLong(indexOut, position);
+        WritableUtils.writeVInt(indexOut, block.size());
+        WritableUtils.writeVInt(indexOut, blockRecords);
+        WritableUtils.writeVInt(indexOut, firstKey.length);
+        indexOut.write(firstKey);
+        if (bitsPerKey > 0) {
+            BloomFilter filter = new BloomFilter(blockRecords, bitsPerKey);
+            for (int i = 0; i < blockRecords; i++) {
+                filter.add(blockHashes[i]);
+            }
+            WritableUtils.writeVInt(indexOut, filter.getBytes().length);
+            indexOut.write(filter.getBytes());
+        } else {
+            WritableUtils.writeVInt(indexOut, 0);
+        }
+        block.writeTo(out);
+        position += block.size();
+        block.reset();
+        blockRecords = 0;
+        numBlocks++;
+    }
+
+    /**
+     * Writes the last block and the index, and closes the stream
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (blockRecords > 0) {
+            finishBlock();
+        }
+        long indexOffset = position;
+        WritableUtils.writeVInt(out, numBlocks);
+        index.writeTo(out);
+        WritableUtils.writeString(out, keyClass == null ? "" : keyClass.getName());
+        WritableUtils.writeString(out, valueClass == null ? "" : valueClass.getName());
+        WritableUtils.writeVInt(out, BloomFilter.getNumHashes(bitsPerKey));
+        out.writeLong(indexOffset);
+        out.writeLong(numRecords);
+        out.writeInt(MAGIC);
+        out.close();
+    }
+}
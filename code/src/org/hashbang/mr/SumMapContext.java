@@ -0,0 +1,123 @@
+package org.hashbang.mr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A {@link MapContext} for jobs that count or sum numeric values per key.
+ * <p/>
+ * Instead of buffering every value, the context adds each value to the
+ * running sum of its key in a {@link SumTable}, so a key costs one slot of
+ * primitive arrays however many values it receives. When the table grows
+ * past <code>map.output.spill.percent</code> of <code>map.output.buffer.mb</code>,
+ * the sums are written to disk as a sorted spill, one value per key, and
+ * the table starts over.
+ * <p/>
+ * The sums of a key are combined by the reducer, which must sum the values
+ * it receives. See {@link LongSumMapContext} and {@link IntSumMapContext}.
+ */
+public abstract class SumMapContext<KEYOUT, VALUEOUT extends Number> extends MapContext<KEYOUT, VALUEOUT> {
+
+    // created on the task tracker when the first pair is written
+    private transient SumTable<KEYOUT> table;
+    private transient long softLimit;
+
+    public SumMapContext(int jobID, Job job, long offset, int dataSize) {
+        super(jobID, job, offset, dataSize);
+    }
+
+    /**
+     * Adds the value to the sum of the key
+     *
+     * @param key
+     * @param value
+     */
+    @Override
+    public void write(KEYOUT key, VALUEOUT value) {
+        add(key, value.longValue());
+    }
+
+    /**
+     * Adds an amount to the sum of a key without boxing it
+     *
+     * @param key
+     * @param amount
+     */
+    protected synchronized void add(KEYOUT key, long amount) {
+        if (table == null) {
+            Configuration conf = getConf();
+            long budget = conf.getInt(MapOutputBuffer.BUFFER_SIZE_MB, 100) * 1024L * 1024L;
+            float spillPercent = conf.getFloat(MapOutputBuffer.SPILL_PERCENT, 0.8f);
+            if (spillPercent <= 0 || spillPercent > 1) {
+                spillPercent = 0.8f;
+            }
+            softLimit = (long) (budget * spillPercent);
+            table = new SumTable<>();
+        }
+        table.add(key, amount);
+        if (table.getBytes() >= softLimit) {
+            spill();
+        }
+    }
+
+    /**
+     * Boxes a sum as the map output value type
+     *
+     * @param sum
+     * @return map output value
+     */
+    protected abstract VALUEOUT toValue(long sum);
+
+    /**
+     * Writes the sums in the table as one sorted spill and clears the table
+     */
+    private void spill() {
+        if (table == null || table.size() == 0) {
+            return;
+        }
+        try {
+            final int[] partitions = new int[table.capacity()];
+            List<Integer> slots = new ArrayList<>(table.size());
+            for (int slot = 0; slot < table.capacity(); slot++) {
+                KEYOUT key = table.getKey(slot);
+                if (key != null) {
+                    partitions[slot] = getPartition(key, toValue(table.getSum(slot)));
+                    slots.add(slot);
+                }
+            }
+            final MapOutputBuffer.KeyComparator keyComparator = new MapOutputBuffer.KeyComparator();
+            Collections.sort(slots, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer s1, Integer s2) {
+                    if (partitions[s1] != partitions[s2]) {
+                        return partitions[s1] < partitions[s2] ? -1 : 1;
+                    }
+                    return keyComparator.compare(table.getKey(s1), table.getKey(s2));
+                }
+            });
+            startSpill();
+            for (int slot : slots) {
+                persistKeyValues(partitions[slot], table.getKey(slot),
+                        Collections.singletonList(toValue(table.getSum(slot))));
+            }
+            table.clear();
+        } catch (RuntimeException e) {
+            // a sum out of range or a failing combiner leaves the output incomplete
+            throw outputFailed(e);
+        }
+    }
+
+    /**
+     * Persist all sums to disk (to be used in {@link Mapper#cleanup(MapContext)})
+     */
+    @Override
+    public void persistAll() {
+        synchronized (this) {
+            spill();
+            table = null;
+        }
+        super.persistAll();
+    }
+}
@@ -0,0 +1,138 @@
+package org.hashbang.mr;
+
+import org.hashbang.util.SizeEstimator;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table of keys and primitive long sums.
+ * <p/>
+ * Keys, their cached hash codes and their sums live in parallel arrays and
+ * collisions are resolved by linear probing, so adding to the sum of a key
+ * allocates nothing and no value is ever boxed.
+ */
+class SumTable<K> {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final float LOAD_FACTOR = 0.75f;
+    // key reference, cached hash and sum of a slot
+    private static final int SLOT_BYTES = SizeEstimator.REFERENCE + 4 + 8;
+
+    private Object[] keys;
+    private int[] hashes;
+    private long[] sums;
+    private int size;
+    private int threshold;
+    private long keyBytes;
+
+    public SumTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Adds an amount to the sum of a key, inserting the key if it is new
+     *
+     * @param key
+     * @param amount
+     */
+    public void add(K key, long amount) {
+        int hash = hash(key);
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        while (keys[slot] != null) {
+            if (hashes[slot] == hash && keys[slot].equals(key)) {
+                sums[slot] += amount;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        hashes[slot] = hash;
+        sums[slot] = amount;
+        keyBytes += SizeEstimator.estimate(key);
+        if (++size > threshold) {
+            resize();
+        }
+    }
+
+    /**
+     * Returns the estimated heap bytes held by the table and its keys
+     *
+     * @return estimated size in bytes
+     */
+    public long getBytes() {
+        return (long) keys.length * SLOT_BYTES + keyBytes;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of slots; slots without a key are empty
+     *
+     * @return capacity
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    // keys only holds the keys added, which are K's
+    @SuppressWarnings("unchecked")
+    public K getKey(int slot) {
+        return (K) keys[slot];
+    }
+
+    public long getSum(int slot) {
+        return sums[slot];
+    }
+
+    /**
+     * Removes all keys, shrinking the table back to its initial capacity
+     */
+    public void clear() {
+        if (keys.length == INITIAL_CAPACITY) {
+            Arrays.fill(keys, null);
+        } else {
+            allocate(INITIAL_CAPACITY);
+        }
+        size = 0;
+        keyBytes = 0;
+    }
+
+    private void resize() {
+        Object[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        long[] oldSums = sums;
+        allocate(oldKeys.length * 2);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) {
+                continue;
+            }
+            int slot = oldHashes[i] & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            hashes[slot] = oldHashes[i];
+            sums[slot] = oldSums[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        hashes = new int[capacity];
+        sums = new long[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int hash(Object key) {
+        // spread the high bits, linear probing suffers from clustered hash codes
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+}
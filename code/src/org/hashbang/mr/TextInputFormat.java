@@ -0,0 +1,18 @@
+package org.hashbang.mr;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The default input format: lines of UTF-8 text, keyed by their offset in
+ * the file, see {@link LineRecordReader}.
+ */
+public class TextInputFormat extends FileInputFormat<Long, String> {
+
+    @Override
+    public RecordReader<Long, String> createRecordReader(InputStream in, long start, long length,
+                                                        Configuration conf) throws IOException {
+        int bufferSize = conf == null ? 0 : conf.getInt(LineRecordReader.BUFFER_SIZE, 0);
+        return new LineRecordReader(in, start, length, bufferSize);
+    }
+}
@@ -0,0 +1,37 @@
+package org.hashbang.mr;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes one tab separated key/value pair per line, the default output
+ * format of reduce tasks.
+ */
+class TextRecordWriter<KEYOUT, VALUEOUT> implements RecordWriter<KEYOUT, VALUEOUT> {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Writer writer;
+
+    public TextRecordWriter(OutputStream out) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, UTF8), BUFFER_SIZE);
+    }
+
+    @Override
+    public void write(KEYOUT key, VALUEOUT value) throws IOException {
+        writer.write(key.toString());
+        writer.write('\t');
+        writer.write(value.toString());
+        writer.write('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
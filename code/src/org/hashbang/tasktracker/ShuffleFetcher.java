@@ -0,0 +1,130 @@
+package org.hashbang.tasktracker;
+
+import org.hashbang.fs.DataNode;
+import org.hashbang.fs.NamenodeClient;
+import org.hashbang.mr.JobContext;
+import org.hashbang.mr.MapOutputFile;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ShuffleFetcher:
+ * Copies the map outputs of a reducer's partitions from the shuffle servers
+ * of the task trackers that ran the map tasks into the reducer's working
+ * directory. At most <code>reduce.shuffle.parallel.copies</code> files are
+ * copied at once; all copies from a task tracker share one connection.
+ */
+class ShuffleFetcher {
+
+    public static final String PARALLEL_COPIES = "reduce.shuffle.parallel.copies";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final JobContext context;
+    private final int parallelCopies;
+
+    public ShuffleFetcher(JobContext context) {
+        this.context = context;
+        this.parallelCopies = Math.max(1, context.getConf().getInt(PARALLEL_COPIES, 5));
+    }
+
+    /**
+     * Copies the output of the given partitions of every map task that ran
+     * on another host
+     *
+     * @param mapHosts   the host holding the output of each map task, by task id
+     * @param partitions
+     * @throws IOException if a map output could not be copied
+     */
+    public void fetch(Map<Integer, String> mapHosts, List<Integer> partitions) throws IOException {
+        ExecutorService copiers = Executors.newFixedThreadPool(parallelCopies);
+        List<Future<Long>> copies = new ArrayList<>();
+        try {
+            for (Map.Entry<Integer, String> entry : mapHosts.entrySet()) {
+                if (DataNode.isLocalHost(entry.getValue())) {
+                    // the map task ran here, its output is already in the working directory
+                    continue;
+                }
+                for (int partition : partitions) {
+                    copies.add(copiers.submit(copy(entry.getValue(), entry.getKey(), partition)));
+                }
+            }
+            long bytes = 0;
+            for (Future<Long> copy : copies) {
+                bytes += copy.get();
+            }
+            System.out.println("Fetched " + bytes + " bytes of map output for partitions " + partitions);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException("Shuffle failed", e.getCause());
+        } finally {
+            copiers.shutdownNow();
+        }
+    }
+
+    /**
+     * Copies a partition of a map task's output. Both files are written next
+     * to their final names and moved there, the data file first since the
+     * reduce task looks for the index files
+     */
+    private Callable<Long> copy(final String host, final int taskId, final int partition) {
+        return new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                NamenodeClient client = new NamenodeClient(host, TaskTracker.SHUFFLE_PORT);
+                String dataFile = MapOutputFile.getDataFileName(taskId, partition);
+                String indexFile = MapOutputFile.getIndexFileName(taskId, partition);
+                File index = new File(context.getWorkingDirectory(), indexFile + TMP_SUFFIX);
+                long bytes;
+                try {
+                    bytes = copyFile(client, indexFile, index);
+                } catch (FileNotFoundException e) {
+                    // the map task wrote nothing to the partition
+                    return 0L;
+                }
+                File data = new File(context.getWorkingDirectory(), dataFile + TMP_SUFFIX);
+                bytes += copyFile(client, dataFile, data);
+                if (!data.renameTo(new File(context.getWorkingDirectory(), dataFile))) {
+                    throw new IOException("Cannot rename " + data);
+                }
+                if (!index.renameTo(new File(context.getWorkingDirectory(), indexFile))) {
+                    throw new IOException("Cannot rename " + index);
+                }
+                return bytes;
+            }
+        };
+    }
+
+    /**
+     * Copies a file of the job's directory on the shuffle server
+     */
+    private long copyFile(NamenodeClient client, String name, File target) throws IOException {
+        InputStream in = client.openStream(context.getJobID() + "/" + name, 0, -1);
+        try {
+            OutputStream out = new FileOutputStream(target);
+            try {
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                long bytes = 0;
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                    bytes += n;
+                }
+                return bytes;
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.hashbang.tasktracker;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ShuffleInbox:
+ * The map outputs received by a job's reduce tasks, by partition and in the
+ * order they arrived, together with the map tasks they came from.
+ */
+class ShuffleInbox {
+
+    private final Map<Integer, List<File>> mapOutputs = new HashMap<>();
+    private final Map<Integer, Set<Integer>> receivedTasks = new HashMap<>();
+
+    /**
+     * Records the output of a map task for a partition
+     *
+     * @param partition
+     * @param taskId
+     * @param indexFile index file of the output, null if the task had no output for the partition
+     */
+    public synchronized void add(int partition, int taskId, File indexFile) {
+        Set<Integer> tasks = receivedTasks.get(partition);
+        if (tasks == null) {
+            tasks = new HashSet<>();
+            receivedTasks.put(partition, tasks);
+            mapOutputs.put(partition, new ArrayList<File>());
+        }
+        if (!tasks.add(taskId)) {
+            // already received, from a push or a fetch
+            return;
+        }
+        if (indexFile != null) {
+            mapOutputs.get(partition).add(indexFile);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Waits for map outputs of a partition
+     *
+     * @param partition
+     * @param from      number of map outputs of the partition already taken
+     * @param timeout   in milliseconds
+     * @return the map outputs received after the first <code>from</code>, possibly none
+     * @throws InterruptedException
+     */
+    public synchronized List<File> awaitMapOutputs(int partition, int from, long timeout)
+            throws InterruptedException {
+        List<File> files = getMapOutputs(partition, from);
+        if (files.isEmpty()) {
+            wait(timeout);
+            files = getMapOutputs(partition, from);
+        }
+        return files;
+    }
+
+    /**
+     * Returns the map outputs of a partition received after the first <code>from</code>
+     *
+     * @param partition
+     * @param from
+     * @return map outputs
+     */
+    public synchronized List<File> getMapOutputs(int partition, int from) {
+        List<File> files = mapOutputs.get(partition);
+        return files == null || files.size() <= from
+                ? new ArrayList<File>() : new ArrayList<>(files.subList(from, files.size()));
+    }
+
+    /**
+     * Returns the map tasks whose output for a partition is not received yet
+     *
+     * @param partition
+     * @param taskIds   all the map tasks of the job
+     * @return missing tasks
+     */
+    public synchronized Set<Integer> getMissingTasks(int partition, Collection<Integer> taskIds) {
+        Set<Integer> missing = new HashSet<>(taskIds);
+        Set<Integer> tasks = receivedTasks.get(partition);
+        if (tasks != null) {
+            missing.removeAll(tasks);
+        }
+        return missing;
+    }
+}
@@ -0,0 +1,185 @@
+package org.hashbang.tasktracker;
+
+import org.hashbang.fs.DataNode;
+import org.hashbang.fs.DataTransferUtil;
+import org.hashbang.mr.JobContext;
+import org.hashbang.mr.MapOutputFile;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * ShufflePusher:
+ * Pushes the output of every committed map task of a job to the reducers of
+ * its partitions, while the other map tasks are still running. One thread
+ * per reducer sends one map output at a time and waits for the reducer to
+ * acknowledge it. At most <code>reduce.shuffle.push.pending</code> map
+ * outputs wait for a reducer; further map tasks block on commit until the
+ * reducer catches up.
+ * <p/>
+ * The partitions of the reducer on this host are not pushed, the committed
+ * map outputs are already in its working directory.
+ */
+class ShufflePusher {
+
+    public static final String PENDING_PUSHES = "reduce.shuffle.push.pending";
+    // queued after the last map task of the job
+    private static final int END_OF_JOB = -1;
+
+    private final JobContext context;
+    private final List<Pusher> pushers;
+    private final List<Integer> localPartitions;
+
+    public ShufflePusher(JobContext context) {
+        this.context = context;
+        this.pushers = new ArrayList<>();
+        this.localPartitions = new ArrayList<>();
+        Map<String, List<Integer>> partitionsByReducer = new LinkedHashMap<>();
+        List<String> reducers = context.getReducers();
+        for (int partition = 0; reducers != null && partition < reducers.size(); partition++) {
+            if (DataNode.isLocalHost(reducers.get(partition))) {
+                localPartitions.add(partition);
+                continue;
+            }
+            List<Integer> partitions = partitionsByReducer.get(reducers.get(partition));
+            if (partitions == null) {
+                partitions = new ArrayList<>();
+                partitionsByReducer.put(reducers.get(partition), partitions);
+            }
+            partitions.add(partition);
+        }
+        int pending = Math.max(1, context.getConf().getInt(PENDING_PUSHES, 2));
+        for (Map.Entry<String, List<Integer>> entry : partitionsByReducer.entrySet()) {
+            Pusher pusher = new Pusher(entry.getKey(), entry.getValue(), pending);
+            pusher.start();
+            pushers.add(pusher);
+        }
+    }
+
+    /**
+     * Returns the partitions reduced on this host
+     *
+     * @return partitions
+     */
+    public List<Integer> getLocalPartitions() {
+        return localPartitions;
+    }
+
+    /**
+     * Hands the output of a committed map task to the reducers, waiting while
+     * a reducer has too many map outputs pending. The local reducer gets the
+     * output at once.
+     *
+     * @param taskId
+     * @throws InterruptedException
+     */
+    public void push(int taskId) throws InterruptedException {
+        if (!localPartitions.isEmpty()) {
+            ShuffleInbox inbox = ShuffleReceiver.getInbox(context.getJobID());
+            for (int partition : localPartitions) {
+                File indexFile = new File(context.getWorkingDirectory(),
+                        MapOutputFile.getIndexFileName(taskId, partition));
+                inbox.add(partition, taskId, indexFile.isFile() ? indexFile : null);
+            }
+        }
+        for (Pusher pusher : pushers) {
+            pusher.pending.put(taskId);
+        }
+    }
+
+    /**
+     * Waits until all the map outputs handed over are pushed
+     *
+     * @throws InterruptedException
+     */
+    public void close() throws InterruptedException {
+        for (Pusher pusher : pushers) {
+            pusher.pending.put(END_OF_JOB);
+        }
+        for (Pusher pusher : pushers) {
+            pusher.join();
+        }
+    }
+
+    /**
+     * Pushes map outputs to one reducer
+     */
+    private class Pusher extends Thread {
+
+        private final String reducerIP;
+        private final List<Integer> partitions;
+        private final BlockingQueue<Integer> pending;
+
+        Pusher(String reducerIP, List<Integer> partitions, int capacity) {
+            super("shuffle-pusher-" + reducerIP);
+            this.reducerIP = reducerIP;
+            this.partitions = partitions;
+            this.pending = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public void run() {
+            try {
+                int taskId;
+                while ((taskId = pending.take()) != END_OF_JOB) {
+                    try {
+                        push(taskId);
+                    } catch (IOException e) {
+                        // the reducer fetches the map output once all map tasks are committed
+                        e.printStackTrace();
+                    }
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void push(int taskId) throws IOException {
+            List<File> files = new ArrayList<>();
+            for (int partition : partitions) {
+                File indexFile = new File(context.getWorkingDirectory(),
+                        MapOutputFile.getIndexFileName(taskId, partition));
+                if (indexFile.isFile()) {
+                    // the data file goes first, the reducer picks the output up by its index file
+                    files.add(MapOutputFile.getDataFile(indexFile));
+                    files.add(indexFile);
+                }
+            }
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress(reducerIP, TaskTracker.SHUFFLE_PUSH_PORT));
+            try {
+                DataTransferUtil transfer = new DataTransferUtil();
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(channel.socket().getOutputStream()));
+                out.writeLong(context.getJobID());
+                out.writeInt(taskId);
+                out.writeInt(partitions.size());
+                for (int partition : partitions) {
+                    out.writeInt(partition);
+                }
+                out.writeInt(files.size());
+                for (File file : files) {
+                    long length = file.length();
+                    out.writeUTF(file.getName());
+                    out.writeLong(length);
+                    out.flush();
+                    transfer.transferFileToChannel(Paths.get(file.getPath()), 0, length, channel);
+                }
+                out.flush();
+                // wait for the reducer to acknowledge the push
+                if (channel.socket().getInputStream().read() < 0) {
+                    throw new EOFException("Reducer " + reducerIP + " did not acknowledge map task " + taskId);
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package org.hashbang.tasktracker;
+
+import org.hashbang.mr.JobContext;
+import org.hashbang.mr.MapOutputFile;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+
+/**
+ * ShuffleReceiver:
+ * Accepts the map outputs pushed by the task trackers, see {@link ShufflePusher},
+ * and records them in the {@link ShuffleInbox} of their job. A push is
+ * acknowledged once its files are written, and only a bounded number of
+ * pushes are received at once, so a reducer that falls behind holds back
+ * the pushing map tasks.
+ * <p/>
+ * A push is the job id, the map task id, the partitions it carries and the
+ * map output files of these partitions, each one as its name, length and
+ * content. The partitions without a file had no output.
+ */
+class ShuffleReceiver extends Thread {
+
+    // system property, number of pushes received at the same time
+    public static final String MAX_PUSHES = "hashbang.shuffle.max.pushes";
+    private static final Map<Long, ShuffleInbox> inboxes = new HashMap<>();
+
+    private final Semaphore pushes;
+
+    public ShuffleReceiver() {
+        super("shuffle-receiver");
+        this.pushes = new Semaphore(Math.max(1, Integer.getInteger(MAX_PUSHES, 8)));
+        setDaemon(true);
+    }
+
+    /**
+     * Returns the inbox of a job, created on the first map output received
+     *
+     * @param jobId
+     * @return inbox
+     */
+    public static ShuffleInbox getInbox(long jobId) {
+        synchronized (inboxes) {
+            ShuffleInbox inbox = inboxes.get(jobId);
+            if (inbox == null) {
+                inbox = new ShuffleInbox();
+                inboxes.put(jobId, inbox);
+            }
+            return inbox;
+        }
+    }
+
+    /**
+     * Forgets a job once its reduce tasks are done
+     *
+     * @param jobId
+     */
+    public static void removeInbox(long jobId) {
+        synchronized (inboxes) {
+            inboxes.remove(jobId);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            ServerSocket listener = new ServerSocket(TaskTracker.SHUFFLE_PUSH_PORT);
+            while (true) {
+                final Socket socket = listener.accept();
+                pushes.acquire();
+                new Thread("shuffle-push-" + socket.getInetAddress().getHostAddress()) {
+                    @Override
+                    public void run() {
+                        try {
+                            receive(socket);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        } finally {
+                            pushes.release();
+                        }
+                    }
+                }.start();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void receive(Socket socket) throws IOException {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            long jobId = in.readLong();
+            int taskId = in.readInt();
+            int numPartitions = in.readInt();
+            List<Integer> partitions = new ArrayList<>(numPartitions);
+            for (int i = 0; i < numPartitions; i++) {
+                partitions.add(in.readInt());
+            }
+            File workingDir = new File(JobContext.JOB_BASE_DIR, String.valueOf(jobId));
+            Files.createDirectories(workingDir.toPath());
+            int numFiles = in.readInt();
+            Map<Integer, File> indexFiles = new HashMap<>();
+            for (int i = 0; i < numFiles; i++) {
+                String name = in.readUTF();
+                File file = new File(workingDir, name);
+                if (!file.getName().equals(name)) {
+                    throw new IOException("Invalid map output file " + name);
+                }
+                receiveFile(in, in.readLong(), file);
+                if (MapOutputFile.isIndexFile(file)) {
+                    indexFiles.put(MapOutputFile.getPartition(file), file);
+                }
+            }
+            ShuffleInbox inbox = getInbox(jobId);
+            for (int partition : partitions) {
+                inbox.add(partition, taskId, indexFiles.get(partition));
+            }
+            socket.getOutputStream().write(1);
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Writes a file of the push next to its final name and then moves it
+     * there, the reduce task picks map outputs up by their index files
+     */
+    private static void receiveFile(DataInputStream in, long length, File file) throws IOException {
+        File tmpFile = new File(file.getPath() + ".push");
+        OutputStream out = new FileOutputStream(tmpFile);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            while (length > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+                if (n < 0) {
+                    throw new EOFException("Push of " + file.getName() + " ended early");
+                }
+                out.write(buffer, 0, n);
+                length -= n;
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("Cannot rename " + tmpFile);
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package org.hashbang.tasktracker;
 
+import org.hashbang.fs.BlockInputStream;
+import org.hashbang.fs.DataNode;
 import org.hashbang.fs.NamenodeClient;
+import org.hashbang.fs.NamenodeService;
+import org.hashbang.io.ByteBufferInputStream;
 import org.hashbang.jobtracker.JobTracker;
 import org.hashbang.util.AutoDiscoverQueue;
 import org.hashbang.mr.JobContext;
 import org.hashbang.mr.MapContext;
+import org.hashbang.mr.MapOutputFile;
+import org.hashbang.mr.MapOutputMerger;
 import org.hashbang.mr.ReduceContext;
 import org.hashbang.util.DynamicLoader;
 import org.hashbang.util.StatusLog;
@@ -13,14 +19,28 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.*;
-import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Queue;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 
 /**
  * Created by Navin
@@ -29,17 +49,42 @@ public class TaskTracker {
 
     public static final int POLL_SQS_TIME_INTR = 60000; //in milli seconds
     public static final int TT_LISTEN_PORT = 9091;
+    // serves the map outputs of this task tracker to the reducers
+    public static final int SHUFFLE_PORT = 9093;
+    // receives the map outputs pushed to the reducers of this task tracker
+    public static final int SHUFFLE_PUSH_PORT = 9094;
+    public static final String LOCAL_READ = "map.input.local.read";
+    public static final String PREFETCH_MB = "map.input.prefetch.mb";
+    // system property, number of tasks run at the same time
+    public static final String TASK_SLOTS = "hashbang.tasktracker.slots";
     private String jobTrackerIP;
-    private Queue<JobContext> jobQueue;
+    private BlockingQueue<QueuedTask> jobQueue;
+    private int numSlots;
+    // tasks that may be requested from the JobTracker, one more than the
+    // number of slots so that the next task can be prefetched
+    private Semaphore taskCredits;
+    private Set<JobContext> runningTasks;
+    private DataNode dataNode;
+    private ShufflePusher shufflePusher;
 
-    public TaskTracker() {
-        jobQueue = new LinkedList<JobContext>();
+    public TaskTracker(DataNode dataNode) {
+        this.dataNode = dataNode;
+        jobQueue = new LinkedBlockingQueue<QueuedTask>();
+        numSlots = Math.max(1, Integer.getInteger(TASK_SLOTS, Runtime.getRuntime().availableProcessors()));
+        taskCredits = new Semaphore(numSlots + 1);
+        runningTasks = Collections.synchronizedSet(new HashSet<JobContext>());
         ttAnnounce();
+        dataNode.register(jobTrackerIP);
     }
 
     public static void main(String[] args) throws IOException, InterruptedException {
+        // stores the blocks of the input files, see BlockIngest
+        DataNode dataNode = DataNode.fromSystemProperties();
+        dataNode.start();
+        new ShuffleServer().start();
+        new ShuffleReceiver().start();
         while (true) {
-            TaskTracker taskTracker = new TaskTracker();
+            TaskTracker taskTracker = new TaskTracker(dataNode);
             TaskScheduler scheduler = new TaskScheduler(taskTracker);
             scheduler.start();
             TTListener ttListener = new TTListener(taskTracker);
@@ -56,10 +101,286 @@ public class TaskTracker {
         return jobTrackerIP;
     }
 
-    public Queue<JobContext> getJobQueue() {
+    public BlockingQueue<QueuedTask> getJobQueue() {
         return jobQueue;
     }
 
+    public DataNode getDataNode() {
+        return dataNode;
+    }
+
+    public ShufflePusher getShufflePusher() {
+        return shufflePusher;
+    }
+
+    public void setShufflePusher(ShufflePusher shufflePusher) {
+        this.shufflePusher = shufflePusher;
+    }
+
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns the tasks running on this task tracker, their progress is
+     * reported to the JobTracker
+     *
+     * @return running tasks
+     */
+    public Set<JobContext> getRunningTasks() {
+        return runningTasks;
+    }
+
+    /**
+     * Requests the next task of a job from the JobTracker, waiting until
+     * this task tracker has room for another task
+     *
+     * @param jobId
+     * @return a map task, or a backup or retried attempt of a reduce task,
+     * null once all the job's tasks are committed
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public JobContext requestTask(long jobId) throws IOException, InterruptedException {
+        taskCredits.acquire();
+        JobContext context = null;
+        try {
+            Socket socket = new Socket(jobTrackerIP, JobTracker.JT_LISTEN_PORT);
+            try {
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                out.println(JobTracker.TASK_REQUEST_IDENTIFIER);
+                out.println(jobId);
+                ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+                context = (JobContext) in.readObject();
+                if (context != null) {
+                    context.setAttemptId(in.readInt());
+                }
+            } finally {
+                socket.close();
+            }
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+        } finally {
+            if (context == null) {
+                taskCredits.release();
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Queues a task for the TaskScheduler
+     *
+     * @param context
+     * @return future completed once the task has run
+     */
+    public Future<JobContext> submitTask(JobContext context) {
+        QueuedTask task = new QueuedTask(this, context);
+        jobQueue.add(task);
+        return task;
+    }
+
+    /**
+     * Called once a task is done or could not be run
+     *
+     * @param context
+     */
+    void taskDone(JobContext context) {
+        // all queued tasks were requested from the JobTracker
+        taskCredits.release();
+    }
+
+    /**
+     * Keeps the output of a finished map task attempt if it is the first
+     * attempt of the task to finish, discards it otherwise. An attempt that
+     * failed to write its output is discarded and reported as failed.
+     *
+     * @param context
+     * @return true if the output is kept
+     */
+    public boolean commitMapTask(MapContext context) {
+        if (context.getOutputError() != null) {
+            System.out.println("Attempt " + context.getAttemptId() + " of map task " + context.getTaskId()
+                    + " failed to write its output: " + context.getOutputError());
+            MapOutputFile.abort(context);
+            reportFailedTask(context);
+            return false;
+        }
+        boolean commit;
+        try {
+            commit = !context.isKilled() && requestCommit(context);
+            if (commit) {
+                MapOutputFile.commit(context);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            MapOutputFile.abort(context);
+            reportFailedTask(context);
+            return false;
+        }
+        if (commit) {
+            reportCommitted(context);
+        } else {
+            System.out.println("Discarding attempt " + context.getAttemptId() + " of map task " + context.getTaskId());
+            MapOutputFile.abort(context);
+        }
+        return commit;
+    }
+
+    /**
+     * Asks the JobTracker whether a finished task attempt may keep its
+     * output, only the first attempt of a task to ask may
+     *
+     * @param context
+     * @return true if the attempt's output is the task's output
+     * @throws IOException
+     */
+    boolean requestCommit(JobContext context) throws IOException {
+        Socket socket = new Socket(jobTrackerIP, JobTracker.JT_LISTEN_PORT);
+        try {
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            out.println(JobTracker.TASK_COMMIT_IDENTIFIER);
+            out.println(getAttemptLine(context));
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            return JobTracker.COMMIT.equals(in.readLine());
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Tells the JobTracker that a task attempt published its output, the
+     * task is committed
+     *
+     * @param context
+     */
+    void reportCommitted(JobContext context) {
+        try {
+            Socket socket = new Socket(jobTrackerIP, JobTracker.JT_LISTEN_PORT);
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            out.println(JobTracker.TASK_COMMITTED_IDENTIFIER);
+            out.println(getAttemptLine(context));
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Tells the JobTracker that a task attempt could not be run, so that
+     * it hands the task out again
+     *
+     * @param context
+     */
+    public void reportFailedTask(JobContext context) {
+        try {
+            Socket socket = new Socket(jobTrackerIP, JobTracker.JT_LISTEN_PORT);
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            out.println(JobTracker.TASK_FAILED_IDENTIFIER);
+            out.println(getAttemptLine(context));
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Names a task attempt for the JobTracker: "M jobId taskId attemptId"
+     * for a map task, "R jobId partition attemptId" for a reduce task
+     */
+    private static String getAttemptLine(JobContext context) {
+        if (context instanceof ReduceContext) {
+            return JobTracker.REDUCE_PROGRESS + " " + context.getJobID() + " "
+                    + ((ReduceContext) context).getPartition() + " " + context.getAttemptId();
+        }
+        return JobTracker.MAP_PROGRESS + " " + context.getJobID() + " " + context.getTaskId()
+                + " " + context.getAttemptId();
+    }
+
+    /**
+     * Returns the host holding the committed output of every map task of the
+     * job. Blocks until all the map tasks are committed.
+     *
+     * @param jobId
+     * @return hosts by map task id
+     * @throws IOException
+     */
+    Map<Integer, String> getMapOutputs(long jobId) throws IOException {
+        Socket socket = new Socket(jobTrackerIP, JobTracker.JT_LISTEN_PORT);
+        try {
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            out.println(JobTracker.MAP_OUTPUTS_IDENTIFIER);
+            out.println(jobId);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            int numTasks = Integer.parseInt(in.readLine());
+            if (numTasks < 0) {
+                throw new IOException("Unknown job " + jobId);
+            }
+            Map<Integer, String> mapOutputs = new LinkedHashMap<>();
+            for (int i = 0; i < numTasks; i++) {
+                String[] fields = in.readLine().split(" ");
+                mapOutputs.put(Integer.parseInt(fields[0]), fields[1]);
+            }
+            return mapOutputs;
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Runs a backup or retried attempt of a reduce task handed out by the
+     * JobTracker once all the map tasks are committed. The partition of every
+     * map output is copied from the task tracker holding it, then merged
+     * from the working directory.
+     *
+     * @param context
+     */
+    void runReduceAttempt(ReduceContext context) {
+        try {
+            new ShuffleFetcher(context).fetch(getMapOutputs(context.getJobID()),
+                    Collections.singletonList(context.getPartition()));
+        } catch (IOException e) {
+            e.printStackTrace();
+            reportFailedTask(context);
+            return;
+        }
+        runReduce(context);
+    }
+
+    /**
+     * Runs a reduce task attempt whose map outputs are in. Its output is
+     * published if no other attempt of the task published its own, the
+     * attempt is reported as failed if it could not publish it.
+     *
+     * @param context
+     */
+    void runReduce(final ReduceContext context) {
+        context.setCommitPermission(new ReduceContext.CommitPermission() {
+            @Override
+            public boolean canCommit(ReduceContext attempt) throws IOException {
+                return requestCommit(attempt);
+            }
+        });
+        int partition = context.getPartition();
+        StatusLog statusLog = new StatusLog(jobTrackerIP);
+        statusLog.log("Starting reduce task for partition " + partition
+                + (context.getAttemptId() > 0 ? " (attempt " + context.getAttemptId() + ")" : ""));
+        runningTasks.add(context);
+        try {
+            TaskScheduler.runTask(context);
+        } finally {
+            runningTasks.remove(context);
+        }
+        if (context.isOutputCommitted()) {
+            reportCommitted(context);
+            statusLog.log(StatusLog.REDUCE_COMPLETED + " (partition " + partition + ")");
+        } else if (context.isKilled()) {
+            System.out.println("Discarded attempt " + context.getAttemptId() + " of reduce task " + partition);
+        } else {
+            reportFailedTask(context);
+        }
+    }
+
     /**
      * Fetches the JobTracker IP from the SQS and announces itself to the JobTracker.
      */
@@ -87,61 +408,78 @@ public class TaskTracker {
 }
 
 /**
- * TTListener: Listens to incoming map tasks from the JobTracker.
+ * TTListener: Listens for a job from the JobTracker and requests its map
+ * tasks as task slots free up. The reduce tasks of this task tracker start
+ * with the job and merge the map outputs as they are pushed to them.
  */
 class TTListener extends Thread {
 
-    List<TaskHandler> taskHandlers;
+    public static final String PUSH_TIMEOUT_MS = "reduce.shuffle.push.timeout.ms";
+
     TaskTracker taskTracker;
     ServerSocket listener;
 
     public TTListener(TaskTracker taskTracker) {
         this.taskTracker = taskTracker;
-        taskHandlers = new ArrayList<TaskHandler>();
     }
 
     public void run() {
-        TaskHandler taskHandler;
-        int numTasks; // Number of tasks
-        int counter = 0;
         JobContext context;
 
         try {
             listener = new ServerSocket(TaskTracker.TT_LISTEN_PORT);
             try {
-                do {
-                    Socket socket = listener.accept();
-                    ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
-                    numTasks = ois.readInt();
-                    taskHandler = new TaskHandler(ois, taskTracker);
-                    taskHandlers.add(taskHandler);
-                    taskHandler.start();
-                    counter++;
-                    System.out.println("added " + counter + " out of " + numTasks + " tasks to handlers");
-                } while (counter < numTasks);
-
-                // Waiting for task handlers join
-                int i;
-                TaskHandler th;
-                for (i = 0; i < taskHandlers.size() - 1; i++) {
-                    th = taskHandlers.get(i);
-                    th.join();
-                    System.out.println((i + 1) + " out of " + taskHandlers.size() + " tasks completed");
+                Socket socket = listener.accept();
+                // load job jar dynamically
+                DynamicLoader.loadClass(JobContext.JOB_JAR_FILE);
+                ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+                context = (JobContext) ois.readObject();
+                socket.close();
+                context.setNamenodeServerIP(taskTracker.getJobTrackerIP());
+                TaskScheduler.prepareWorkingDir(context);
+                ProgressReporter progressReporter = new ProgressReporter(taskTracker);
+                progressReporter.start();
+                ShufflePusher shufflePusher = new ShufflePusher(context);
+                taskTracker.setShufflePusher(shufflePusher);
+                List<Future<?>> reduceTasks = startReduceTasks(shufflePusher.getLocalPartitions(), context);
+
+                List<Future<JobContext>> tasks = new ArrayList<>();
+                JobContext task;
+                while ((task = taskTracker.requestTask(context.getJobID())) != null) {
+                    task.setNamenodeServerIP(taskTracker.getJobTrackerIP());
+                    tasks.add(taskTracker.submitTask(task));
                 }
-                th = taskHandlers.get(i);
-                th.join();
+
+                // Waiting for the tasks to complete
+                for (int i = 0; i < tasks.size(); i++) {
+                    try {
+                        tasks.get(i).get();
+                    } catch (ExecutionException e) {
+                        e.printStackTrace();
+                    } catch (CancellationException e) {
+                        System.out.println("Task could not be started");
+                    }
+                    System.out.println((i + 1) + " out of " + tasks.size() + " tasks completed");
+                }
+                shufflePusher.close();
                 System.out.println("All tasks completed");
-                // get context info from the last task handler
-                context = th.getJobContext();
-                // All taskhandlers joined
 
                 listener.close();
                 StatusLog statusLog = new StatusLog(taskTracker.getJobTrackerIP());
                 statusLog.log(StatusLog.MAP_COMPLETED);
-                // notify JT, gext reducer IP and start reduce task
-                startReduceTask(getReducerFromJT(), new ReduceContext(context));
+                for (Future<?> reduceTask : reduceTasks) {
+                    try {
+                        reduceTask.get();
+                    } catch (ExecutionException e) {
+                        e.printStackTrace();
+                    }
+                }
+                ShuffleReceiver.removeInbox(context.getJobID());
+                progressReporter.terminate();
             } catch (InterruptedException e) {
                 e.printStackTrace();
+            } catch (ClassNotFoundException e) {
+                e.printStackTrace();
             } finally {
                 synchronized (this) {
                     // notify TaskTracker.main() that all tasks are complete
@@ -155,131 +493,180 @@ class TTListener extends Thread {
 
 
     /**
-     * Start the reduce task.
-     * There are 2 cases:
-     * 1) The current task tracker becomes the reducer, if it the first one to finish
-     * all the map tasks. It then waits for all the other mappers to transfer the intermediate map outputs
-     * 2) In the second case, it just sends the map outputs to the reducer node.
+     * Start the reduce tasks of the given partitions. They run alongside the
+     * map tasks, merging the map outputs of their partitions as the map tasks
+     * commit, and reduce once the outputs of all the job's map tasks are in.
      *
-     * @param reducerIP
+     * @param partitions
      * @param context
-     * @throws IOException
+     * @return the reduce tasks
      */
-    private void startReduceTask(String reducerIP, ReduceContext context) throws IOException {
-        if (InetAddress.getLocalHost().getHostAddress().contentEquals(reducerIP)) {
-            // if this node is the reducer
-            // start a reducer listener to accept file transfer completion notification from other mappers
-            ReducerListener reducerListener = new ReducerListener(context);
-            reducerListener.start();
-            System.out.println("Initiating reducer on this node");
-            try {
-                reducerListener.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            StatusLog statusLog = new StatusLog(taskTracker.getJobTrackerIP());
-            statusLog.log("Completed map task(s)\nStarting reduce task");
-            TaskScheduler.runTask(context);
-            statusLog.log(StatusLog.JOB_COMPLETED);
-        } else {
-            Socket socket = new Socket(reducerIP, TaskTracker.TT_LISTEN_PORT);
-            // sending map output using scp
-            String srcDir = context.getWorkingDirectory() + "/" + JobContext.MAP_OUTPUT_FILE_PREFIX + "* ";
-            String destDir = context.getWorkingDirectory() + "/";
-            String[] cmd = new String[]{"/bin/bash", "-c", "scp -C -q -oStrictHostKeyChecking=no -oUserKnownHostsFile=/dev/null "
-                    + srcDir + " " + reducerIP + ":" + destDir};
-            Process p = Runtime.getRuntime().exec(cmd);
-            try {
-                p.waitFor();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+    private List<Future<?>> startReduceTasks(final List<Integer> partitions, final JobContext context) {
+        List<Future<?>> reduceTasks = new ArrayList<>();
+        if (partitions.isEmpty()) {
+            return reduceTasks;
+        }
+        System.out.println("Initiating reducer on this node for partitions " + partitions);
+        // one thread per partition and one waiting for the map tasks to be committed
+        ExecutorService executor = Executors.newFixedThreadPool(partitions.size() + 1);
+        final Future<Map<Integer, String>> mapOutputs = executor.submit(new Callable<Map<Integer, String>>() {
+            @Override
+            public Map<Integer, String> call() throws IOException {
+                return taskTracker.getMapOutputs(context.getJobID());
             }
-            // signalling the listener that file copying is done by write 1 to its stream
-            socket.getOutputStream().write(1);
-            System.out.println("Sent map output to " + reducerIP);
+        });
+        for (final int partition : partitions) {
+            final ReduceContext reduceContext = new ReduceContext(context, partition);
+            // later attempts are handed out by the JobTracker
+            reduceContext.setAttemptId(0);
+            reduceTasks.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        runReduceTask(reduceContext, mapOutputs);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        taskTracker.reportFailedTask(reduceContext);
+                    }
+                    return null;
+                }
+            }));
         }
+        executor.shutdown();
+        return reduceTasks;
     }
 
     /**
-     * Returns the IP of the reducer to the caller.
+     * Merges the map outputs of a partition as they arrive and then reduces
+     * the partition. Map outputs that were not pushed within
+     * <code>reduce.shuffle.push.timeout.ms</code> of the last map task's commit
+     * are fetched from the task trackers that ran them.
      *
-     * @return reducer
+     * @param reduceContext
+     * @param mapOutputs the host of every map task's output, known once all the map tasks are committed
+     * @throws IOException
+     * @throws InterruptedException
      */
-    private String getReducerFromJT() {
-        String jobTrackerIP = taskTracker.getJobTrackerIP();
-        String reducer = null;
-        try {
-            Socket socket = new Socket(jobTrackerIP, JobTracker.JT_LISTEN_PORT);
-            PrintWriter out =
-                    new PrintWriter(socket.getOutputStream(), true);
-            out.println(JobTracker.TASK_COMPLETE_IDENTIFIER);
-            BufferedReader in = new BufferedReader(
-                    new InputStreamReader(socket.getInputStream()));
-            reducer = in.readLine();
-        } catch (IOException e) {
-            e.printStackTrace();
+    private void runReduceTask(ReduceContext<?, ?> reduceContext, Future<Map<Integer, String>> mapOutputs)
+            throws IOException, InterruptedException {
+        JobContext context = reduceContext;
+        int partition = reduceContext.getPartition();
+        ShuffleInbox inbox = ShuffleReceiver.getInbox(context.getJobID());
+        MapOutputMerger<Object> merger = new MapOutputMerger<>(reduceContext, partition, false);
+        long pushTimeout = context.getConf().getInt(PUSH_TIMEOUT_MS, 30000);
+        long committedTime = 0;
+        int numMerged = 0;
+        while (true) {
+            List<File> files = inbox.awaitMapOutputs(partition, numMerged, 1000);
+            for (File file : files) {
+                merger.addMapOutput(file);
+            }
+            numMerged += files.size();
+            if (!mapOutputs.isDone()) {
+                continue;
+            }
+            Map<Integer, String> hosts;
+            try {
+                hosts = mapOutputs.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Cannot get the map outputs from the JobTracker", e.getCause());
+            }
+            Set<Integer> missing = inbox.getMissingTasks(partition, hosts.keySet());
+            if (missing.isEmpty()) {
+                // the outputs that arrived with the last map task
+                for (File file : inbox.getMapOutputs(partition, numMerged)) {
+                    merger.addMapOutput(file);
+                }
+                break;
+            }
+            if (committedTime == 0) {
+                committedTime = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - committedTime > pushTimeout) {
+                System.out.println("Fetching the output of map tasks " + missing + " for partition " + partition);
+                Map<Integer, String> missingHosts = new LinkedHashMap<>();
+                for (int taskId : missing) {
+                    missingHosts.put(taskId, hosts.get(taskId));
+                }
+                new ShuffleFetcher(context).fetch(missingHosts, Collections.singletonList(partition));
+                for (int taskId : missing) {
+                    File indexFile = new File(context.getWorkingDirectory(),
+                            MapOutputFile.getIndexFileName(taskId, partition));
+                    inbox.add(partition, taskId, indexFile.isFile() ? indexFile : null);
+                }
+            }
         }
-        return reducer;
+        merger.finish();
+        reduceContext.setMerger(merger);
+        taskTracker.runReduce(reduceContext);
     }
 }
 
 /**
- * TaskHandler :
- * Spawned for each task and waits for the task scheduler to finish the current jobContext.
+ * QueuedTask:
+ * A task waiting in the job queue. Completes once the task has run.
  */
-class TaskHandler extends Thread {
+class QueuedTask extends FutureTask<JobContext> {
 
-    private ObjectInputStream ois;
-    //private Socket socket;
-    private TaskTracker taskTracker;
-    private JobContext jobContext;
+    private final TaskTracker taskTracker;
+    private final JobContext context;
 
-    public TaskHandler(ObjectInputStream ois, TaskTracker taskTracker) throws IOException {
-        this.ois = ois;
-        //this.socket = socket;
+    public QueuedTask(final TaskTracker taskTracker, final JobContext context) {
+        super(new Callable<JobContext>() {
+            @Override
+            public JobContext call() throws Exception {
+                TaskScheduler.prepareWorkingDir(context);
+                if (context instanceof ReduceContext) {
+                    taskTracker.runReduceAttempt((ReduceContext) context);
+                    return context;
+                }
+                taskTracker.getRunningTasks().add(context);
+                try {
+                    TaskScheduler.runTask(context);
+                } finally {
+                    taskTracker.getRunningTasks().remove(context);
+                }
+                if (context instanceof MapContext && taskTracker.commitMapTask((MapContext) context)) {
+                    // waits while a reducer has too many map outputs pending
+                    taskTracker.getShufflePusher().push(context.getTaskId());
+                }
+                context.setIsJobCompleted(true);
+                return context;
+            }
+        });
         this.taskTracker = taskTracker;
+        this.context = context;
     }
 
-    public void run() {
-        try {
-            // load job jar dynamically
-            DynamicLoader.loadClass(JobContext.JOB_JAR_FILE);
-            // Waiting for JobTracker to give a job
-            jobContext = (JobContext) ois.readObject();
-            jobContext.setNamenodeServerIP(taskTracker.getJobTrackerIP());
-            synchronized (taskTracker) {
-                taskTracker.getJobQueue().add(jobContext);
-            }
-            //Waiting for the task to finish.
-            boolean isCompleted = false;
-            while (!isCompleted) {
-                synchronized (jobContext) {
-                    isCompleted = jobContext.isJobCompleted();
-                }
-            }
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public JobContext getContext() {
+        return context;
     }
 
-    public JobContext getJobContext() {
-        return jobContext;
+    @Override
+    protected void done() {
+        taskTracker.taskDone(context);
     }
 }
 
 /**
  * TaskScheduler:
- * Spawned when the task tracker starts. It constantly polls the Job queue for jobcontext and calls runTask on each.
+ * Spawned when the task tracker starts. It takes tasks off the job queue as
+ * task slots free up and runs them on a pool with one thread per slot.
  */
 class TaskScheduler extends Thread {
     private TaskTracker taskTracker;
-    private boolean running;
+    private volatile boolean running;
+    private final Semaphore freeSlots;
+    private final ExecutorService slots;
+    // read-ahead of the next queued map task's split
+    private SplitPrefetcher prefetcher;
 
     public TaskScheduler(TaskTracker taskTracker) {
         this.taskTracker = taskTracker;
         this.running = true;
+        int numSlots = taskTracker.getNumSlots();
+        this.freeSlots = new Semaphore(numSlots);
+        this.slots = Executors.newFixedThreadPool(numSlots);
+        System.out.println("Running up to " + numSlots + " tasks at a time");
     }
 
     /**
@@ -287,46 +674,189 @@ class TaskScheduler extends Thread {
      */
     public void terminate() {
         running = false;
+        interrupt();
+        slots.shutdown();
     }
 
     public void run() {
-        JobContext context;
-        NamenodeClient client;
         while (running) {
-            synchronized (taskTracker) {
-                context = taskTracker.getJobQueue().poll();
+            QueuedTask task;
+            try {
+                freeSlots.acquire();
+                task = taskTracker.getJobQueue().take();
+            } catch (InterruptedException e) {
+                // terminated
+                break;
             }
-            if (context != null) {
-                System.out.println("Running task");
-                String fileName = context.getInputPath();
-                long splitOffset = context.getSplitOffset();
-                int dataSize = context.getDataSize();
-
-                client = new NamenodeClient(context.getNamenodeServerIP());
-
-                byte[] dataBuffer = client.getData(fileName, splitOffset, dataSize);
-                context.setDataBuffer(ByteBuffer.wrap(dataBuffer));
-                long jobID = context.getJobID();
+            JobContext context = task.getContext();
+            if (context instanceof MapContext) {
                 try {
-                    context.setWorkingDir(JobContext.JOB_BASE_DIR + "/" + jobID);
-                    Path path = Paths.get(context.getWorkingDirectory());
-                    if (!Files.exists(path)) {
-                        Files.createDirectory(path);
-                    }
+                    openInput((MapContext) context, takePrefetched(context), taskTracker.getDataNode());
                 } catch (IOException e) {
                     e.printStackTrace();
+                    taskTracker.reportFailedTask((MapContext) context);
+                    task.cancel(false);
+                    freeSlots.release();
+                    continue;
                 }
-                runTask(context);
-                synchronized (context) {
-                    context.setIsJobCompleted(true);
+                // a free slot would take the next task right away
+                if (freeSlots.availablePermits() == 0) {
+                    prefetchNext();
                 }
-            } else {
+            }
+            slots.execute(releasing(task));
+        }
+        if (prefetcher != null) {
+            prefetcher.cancel();
+            prefetcher = null;
+        }
+    }
+
+    /**
+     * Wraps the task to free its slot once it has run
+     */
+    private Runnable releasing(final QueuedTask task) {
+        return new Runnable() {
+            @Override
+            public void run() {
                 try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    task.run();
+                } finally {
+                    freeSlots.release();
                 }
             }
+        };
+    }
+
+    /**
+     * Sets the task's working directory and creates it if needed
+     *
+     * @param context
+     */
+    static void prepareWorkingDir(JobContext context) {
+        long jobID = context.getJobID();
+        try {
+            context.setWorkingDir(JobContext.JOB_BASE_DIR + "/" + jobID);
+            Path path = Paths.get(context.getWorkingDirectory());
+            // concurrent tasks of the job share the directory
+            Files.createDirectories(path);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the split data prefetched for the task, if any
+     *
+     * @param context
+     * @return the prefetched stream, or null
+     */
+    private InputStream takePrefetched(JobContext context) {
+        if (prefetcher == null) {
+            return null;
+        }
+        SplitPrefetcher done = prefetcher;
+        prefetcher = null;
+        if (done.getContext() != context) {
+            done.cancel();
+            return null;
+        }
+        return done.take();
+    }
+
+    /**
+     * Starts reading the split of the next queued map task while the current
+     * task runs, within <code>map.input.prefetch.mb</code> of memory.
+     */
+    private void prefetchNext() {
+        QueuedTask queued = taskTracker.getJobQueue().peek();
+        JobContext next = queued == null ? null : queued.getContext();
+        if (!(next instanceof MapContext) || isLocalInput(next, taskTracker.getDataNode())) {
+            return;
+        }
+        long budget = next.getConf().getInt(TaskTracker.PREFETCH_MB, 64) * 1024L * 1024L;
+        if (budget <= 0) {
+            return;
+        }
+        try {
+            InputStream in = openRemoteInput(next, taskTracker.getDataNode());
+            prefetcher = new SplitPrefetcher(next, in, (int) Math.min(budget, next.getDataSize()));
+            prefetcher.start();
+        } catch (IOException e) {
+            // the task will open its input when it runs
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sets up the job's record reader over a map task's split. When the input file
+     * is on this host, the split is memory-mapped instead of being streamed
+     * from the Namenode server. Input stored on the data nodes is read from
+     * the split's blocks.
+     *
+     * @param context
+     * @param prefetched the split's stream opened ahead of time, or null
+     * @param dataNode   the data node of this task tracker
+     * @throws IOException
+     */
+    private static void openInput(MapContext<?, ?> context, InputStream prefetched, DataNode dataNode) throws IOException {
+        long splitOffset = context.getSplitOffset();
+        int dataSize = context.getDataSize();
+
+        InputStream in;
+        if (prefetched != null) {
+            in = prefetched;
+        } else if (context.getBlocks() != null) {
+            in = new BlockInputStream(context.getBlocks(), dataNode);
+        } else if (isLocalInput(context, dataNode)) {
+            System.out.println("Mapping split at " + splitOffset + " of local file " + context.getInputPath());
+            in = new ByteBufferInputStream(mapSplit(new File(context.getInputPath()), splitOffset));
+        } else {
+            in = openRemoteInput(context, dataNode);
+        }
+        context.setRecordReader(MapContext.newInputFormat(context)
+                .createRecordReader(in, splitOffset, dataSize, context.getConf()));
+    }
+
+    /**
+     * Returns true if the task's input can be read locally
+     */
+    private static boolean isLocalInput(JobContext context, DataNode dataNode) {
+        if (context.getBlocks() != null) {
+            return BlockInputStream.isLocal(context.getBlocks(), dataNode);
+        }
+        return context.getConf().getBoolean(TaskTracker.LOCAL_READ, true)
+                && DataNode.isLocalHost(context.getNamenodeServerIP()) && new File(context.getInputPath()).isFile();
+    }
+
+    private static InputStream openRemoteInput(JobContext context, DataNode dataNode) throws IOException {
+        if (context.getBlocks() != null) {
+            return new BlockInputStream(context.getBlocks(), dataNode);
+        }
+        // stream up to the end of the file, the split's last line may run past it
+        return new NamenodeClient(context.getNamenodeServerIP())
+                .openStream(context.getInputPath(), context.getSplitOffset(), -1);
+    }
+
+    /**
+     * Memory-maps a file from the split's offset. The mapping runs to the end
+     * of the file since the split's last line may run past the split; only
+     * the pages the reader touches are loaded.
+     *
+     * @param file
+     * @param offset
+     * @return the mapped bytes
+     * @throws IOException
+     */
+    private static MappedByteBuffer mapSplit(File file, long offset) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = Math.min(channel.size() - offset, Integer.MAX_VALUE);
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        } finally {
+            raf.close();
         }
     }
 
@@ -336,7 +866,7 @@ class TaskScheduler extends Thread {
      */
     public static void runTask(JobContext context) {
         try {
-            Class cls = null;
+            Class<?> cls = null;
 
             Method runMethod = null;
             if (context instanceof MapContext) {
@@ -364,40 +894,187 @@ class TaskScheduler extends Thread {
 }
 
 /**
- * ReduceListener:
- * Start a reducer listener to accept file transfer completion notification from other mappers
- *
+ * SplitPrefetcher:
+ * Reads the beginning of a queued map task's split into memory, up to a byte
+ * budget, while the task before it runs.
  */
-class ReducerListener extends Thread {
+class SplitPrefetcher extends Thread {
+
+    private static final int READ_SIZE = 64 * 1024;
 
-    private ServerSocket serverSocket;
-    private ReduceContext context;
+    private final JobContext context;
+    private final InputStream in;
+    private final byte[] buffer;
+    private int count;
+    private volatile boolean stopped;
 
-    public ReducerListener(ReduceContext context) {
+    public SplitPrefetcher(JobContext context, InputStream in, int budget) {
+        super("split-prefetch");
         this.context = context;
+        this.in = in;
+        this.buffer = new byte[Math.max(0, budget)];
+        setDaemon(true);
+    }
+
+    public JobContext getContext() {
+        return context;
     }
 
     @Override
     public void run() {
         try {
-            serverSocket = new ServerSocket(TaskTracker.TT_LISTEN_PORT);
-            int count = 0;
-            while (count < context.getNumActiveTTs() - 1) {
-                Socket socket = serverSocket.accept();
-                // reads the 1 written by other mappers
-                socket.getInputStream().read();
-                count++;
+            while (!stopped && count < buffer.length) {
+                int n = in.read(buffer, count, Math.min(READ_SIZE, buffer.length - count));
+                if (n < 0) {
+                    break;
+                }
+                count += n;
+            }
+        } catch (IOException e) {
+            // the error shows up again when the task reads past the prefetched bytes
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops prefetching and returns the split's stream: the bytes read so
+     * far followed by the rest of the split
+     *
+     * @return stream of the split
+     */
+    public InputStream take() {
+        stopped = true;
+        try {
+            join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        return new SequenceInputStream(new ByteArrayInputStream(buffer, 0, count), in);
+    }
+
+    /**
+     * Stops prefetching and drops the data
+     */
+    public void cancel() {
+        stopped = true;
+        try {
+            join();
+            in.close();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
+
+/**
+ * ProgressReporter:
+ * Reports the progress of the running tasks to the JobTracker every second
+ * and kills the map task attempts the JobTracker no longer needs.
+ */
+class ProgressReporter extends Thread {
+
+    private static final int REPORT_INTERVAL = 1000;
+
+    private final TaskTracker taskTracker;
+    private volatile boolean running;
+
+    public ProgressReporter(TaskTracker taskTracker) {
+        super("progress-reporter");
+        this.taskTracker = taskTracker;
+        this.running = true;
+        setDaemon(true);
+    }
+
+    public void terminate() {
+        running = false;
+        interrupt();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Thread.sleep(REPORT_INTERVAL);
+            } catch (InterruptedException e) {
+                break;
+            }
+            List<JobContext> tasks;
+            synchronized (taskTracker.getRunningTasks()) {
+                tasks = new ArrayList<>(taskTracker.getRunningTasks());
+            }
+            if (tasks.isEmpty()) {
+                continue;
             }
-            // all mappers data has been received
-        } catch (IOException exc) {
-            exc.printStackTrace();
-        } finally {
             try {
-                serverSocket.close();
+                report(tasks);
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
+    }
+
+    private void report(List<JobContext> tasks) throws IOException {
+        Socket socket = new Socket(taskTracker.getJobTrackerIP(), JobTracker.JT_LISTEN_PORT);
+        try {
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            out.println(JobTracker.TASK_PROGRESS_IDENTIFIER);
+            out.println(tasks.size());
+            for (JobContext task : tasks) {
+                if (task instanceof MapContext) {
+                    out.println(JobTracker.MAP_PROGRESS + " " + task.getJobID() + " " + task.getTaskId()
+                            + " " + task.getAttemptId() + " " + ((MapContext) task).getProgress());
+                } else {
+                    ReduceContext reduceContext = (ReduceContext) task;
+                    out.println(JobTracker.REDUCE_PROGRESS + " " + task.getJobID() + " "
+                            + reduceContext.getPartition() + " " + task.getAttemptId() + " "
+                            + reduceContext.getProgress() + " " + reduceContext.getKeysReduced());
+                }
+            }
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            for (JobContext task : tasks) {
+                String answer = in.readLine();
+                if (JobTracker.KILL.equals(answer) && task instanceof MapContext) {
+                    System.out.println("Killing attempt " + task.getAttemptId() + " of map task " + task.getTaskId());
+                    ((MapContext) task).kill();
+                } else if (JobTracker.KILL.equals(answer)) {
+                    System.out.println("Killing attempt " + task.getAttemptId() + " of reduce task "
+                            + ((ReduceContext) task).getPartition());
+                    ((ReduceContext) task).kill();
+                }
+            }
+        } finally {
+            socket.close();
+        }
+    }
+}
+
+/**
+ * ShuffleServer:
+ * Serves the files under the job base directory of this task tracker, so that
+ * reducers can fetch the committed map outputs, <code>jobId/file</code>, with
+ * a {@link NamenodeClient}. Paths outside of the base directory are rejected.
+ */
+class ShuffleServer extends Thread {
 
+    private final NamenodeService service;
+
+    public ShuffleServer() {
+        super("shuffle-server");
+        String baseDir = JobContext.JOB_BASE_DIR == null ? "." : JobContext.JOB_BASE_DIR;
+        this.service = new NamenodeService(TaskTracker.SHUFFLE_PORT,
+                Integer.getInteger(NamenodeService.MAX_CONNECTIONS, 4096),
+                Integer.getInteger(NamenodeService.MAX_TRANSFERS, 64), Paths.get(baseDir));
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        try {
+            service.serve();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,112 @@
+package org.hashbang.util;
+
+/**
+ * A Bloom filter over 64-bit hashes of byte strings. Tells for sure that a
+ * key was not added; a key that was added is always reported as present, and
+ * so are a few others, about 1% of them with 10 bits per key.
+ * <p/>
+ * The positions of a key are derived from the two halves of its hash
+ * (double hashing), so a key is hashed once for any number of positions.
+ */
+public class BloomFilter {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final int MAX_HASHES = 30;
+
+    private final byte[] bits;
+    private final int numBits;
+    private final int numHashes;
+
+    /**
+     * Creates an empty filter sized for a number of keys
+     *
+     * @param numKeys
+     * @param bitsPerKey
+     */
+    public BloomFilter(int numKeys, int bitsPerKey) {
+        this(new byte[(int) ((Math.max(64L, (long) numKeys * bitsPerKey) + 7) / 8)], getNumHashes(bitsPerKey));
+    }
+
+    /**
+     * Wraps the bits of a filter written before
+     *
+     * @param bits      as returned by {@link #getBytes()}
+     * @param numHashes
+     */
+    public BloomFilter(byte[] bits, int numHashes) {
+        this.bits = bits;
+        this.numBits = bits.length * 8;
+        this.numHashes = numHashes;
+    }
+
+    /**
+     * Returns the number of positions per key giving the fewest false
+     * positives for a number of bits per key
+     *
+     * @param bitsPerKey
+     * @return number of hashes
+     */
+    public static int getNumHashes(int bitsPerKey) {
+        return Math.max(1, Math.min(MAX_HASHES, (int) Math.round(bitsPerKey * Math.log(2))));
+    }
+
+    /**
+     * Hashes a byte string, after the 64-bit MurmurHash3 mixing steps
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return hash
+     */
+    public static long hash(byte[] bytes, int offset, int length) {
+        long h = length * C1;
+        int end = offset + length;
+        for (int i = offset; i < end; i += 8) {
+            long k = 0;
+            for (int j = Math.min(end, i + 8) - 1; j >= i; j--) {
+                k = (k << 8) | (bytes[j] & 0xff);
+            }
+            k *= C1;
+            k = Long.rotateLeft(k, 31);
+            k *= C2;
+            h ^= k;
+            h = Long.rotateLeft(h, 27) * 5 + 0x52dce729;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public void add(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            bits[bit >>> 3] |= 1 << (bit & 7);
+        }
+    }
+
+    public boolean mightContain(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            if ((bits[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+    public byte[] getBytes() {
+        return bits;
+    }
+}
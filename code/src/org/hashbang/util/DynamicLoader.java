@@ -17,7 +17,7 @@ public class DynamicLoader {
             URL url = null;
             url = f.toURI().toURL();
             URLClassLoader urlClassLoader = (URLClassLoader) ClassLoader.getSystemClassLoader();
-            Class urlClass = URLClassLoader.class;
+            Class<?> urlClass = URLClassLoader.class;
             Method method = urlClass.getDeclaredMethod("addURL", URL.class);
             method.setAccessible(true);
             method.invoke(urlClassLoader, url);
@@ -0,0 +1,37 @@
+package org.hashbang.util;
+
+/**
+ * SizeEstimator : a cheap approximation of the heap footprint of the objects
+ * buffered by the framework, used to keep in-memory buffers within a byte budget.
+ */
+public class SizeEstimator {
+
+    public static final int OBJECT_HEADER = 16;
+    public static final int REFERENCE = 8;
+
+    /**
+     * estimate : approximate number of heap bytes held by the object
+     * @param obj
+     * @return estimated size in bytes
+     */
+    public static long estimate(Object obj) {
+        if (obj == null) {
+            return 0;
+        }
+        if (obj instanceof String) {
+            // String object plus its char array
+            return OBJECT_HEADER + 24 + 2L * ((String) obj).length();
+        }
+        if (obj instanceof Long || obj instanceof Double) {
+            return OBJECT_HEADER + 8;
+        }
+        if (obj instanceof Number || obj instanceof Boolean || obj instanceof Character) {
+            return OBJECT_HEADER;
+        }
+        if (obj instanceof byte[]) {
+            return OBJECT_HEADER + ((byte[]) obj).length;
+        }
+        // unknown types are assumed to be a small object graph
+        return 4 * OBJECT_HEADER;
+    }
+}
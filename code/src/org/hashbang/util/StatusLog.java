@@ -9,6 +9,7 @@ import java.net.Socket;
 public class StatusLog {
     private String server;
     public static final String MAP_COMPLETED = "Map task completed";
+    public static final String REDUCE_COMPLETED = "Reduce task completed";
     public static final String JOB_COMPLETED = "Job completed";
 
     public StatusLog(String server) {
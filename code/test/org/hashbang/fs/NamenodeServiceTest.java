@@ -0,0 +1,154 @@
+package org.hashbang.fs;
+
+import org.hashbang.mr.FileOutputCommitter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NamenodeServiceTest {
+
+    private Path dataDir;
+    private NamenodeService service;
+
+    @Before
+    public void setUp() throws IOException {
+        dataDir = Files.createTempDirectory("namenode");
+        service = new NamenodeService(0, 1, 1, dataDir);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.walkFileTree(dataDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Test
+    public void resolvesRelativePaths() throws IOException {
+        Path base = dataDir.toAbsolutePath().normalize();
+        assertEquals(base.resolve("blk_1"), service.resolve("blk_1"));
+        assertEquals(base.resolve("1/mapoutput_0_0.data"), service.resolve("1/mapoutput_0_0.data"));
+        assertEquals(base.resolve("2/part"), service.resolve("1/../2/./part"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAbsolutePaths() throws IOException {
+        service.resolve("/etc/passwd");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAbsolutePathsLeavingTheDataDir() throws IOException {
+        service.resolve(dataDir.resolve("..").resolve(dataDir.getFileName()).resolve("../x").toString());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsParentPaths() throws IOException {
+        service.resolve("../x");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsParentPathsAfterSubdirectories() throws IOException {
+        service.resolve("1/../../x");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsSiblingDirectoriesSharingThePrefix() throws IOException {
+        service.resolve("../" + dataDir.getFileName() + "x/blk_1");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTheDataDirItself() throws IOException {
+        service.resolve(".");
+    }
+
+    @Test(expected = IOException.class)
+    public void dataNodeRejectsReadsOfOtherFiles() throws IOException {
+        service.setBlockReadsOnly(true);
+        assertEquals(dataDir.toAbsolutePath().normalize().resolve("blk_7"), service.resolveRead("blk_7"));
+        service.resolveRead("1/mapoutput_0_0.data");
+    }
+
+    @Test
+    public void resolvesPartFilesOfOutputDirectories() throws IOException {
+        Path root = dataDir.toAbsolutePath().normalize();
+        service.setOutputRoot(root);
+        Path partFile = root.resolve("out").resolve(FileOutputCommitter.OUTPUT_SUBDIR)
+                .resolve(FileOutputCommitter.getPartFileName(3));
+        assertEquals(partFile, service.resolveOutput(outputDir("out"), 3));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOutputWritesUnlessEnabled() throws IOException {
+        service.resolveOutput(outputDir("out"), 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOutputDirectoriesOutsideTheOutputRoot() throws IOException {
+        service.setOutputRoot(dataDir.toAbsolutePath().normalize().resolve("root"));
+        service.resolveOutput(outputDir("root/../out"), 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsRelativeOutputDirectories() throws IOException {
+        service.setOutputRoot(dataDir.toAbsolutePath().normalize());
+        service.resolveOutput("out", 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCommittedPartFiles() throws IOException {
+        service.setOutputRoot(dataDir.toAbsolutePath().normalize());
+        Path partFile = service.resolveOutput(outputDir("out"), 1);
+        Files.createDirectories(partFile.getParent());
+        Files.createFile(partFile);
+        service.resolveOutput(outputDir("out"), 1);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsFilesAsOutputDirectories() throws IOException {
+        service.setOutputRoot(dataDir.toAbsolutePath().normalize());
+        Files.createFile(dataDir.resolve("blk_1"));
+        service.resolveOutput(outputDir("blk_1"), 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNegativePartitions() throws IOException {
+        service.setOutputRoot(dataDir.toAbsolutePath().normalize());
+        service.resolveOutput(outputDir("out"), -1);
+    }
+
+    @Test
+    public void checksOutputDirectoriesAgainstTheRoot() {
+        Path root = dataDir.toAbsolutePath().normalize();
+        assertTrue(NamenodeService.isOutputDir(root, root.resolve("out")));
+        assertTrue(NamenodeService.isOutputDir(root, root.resolve("a/../out")));
+        assertFalse(NamenodeService.isOutputDir(root, root));
+        assertFalse(NamenodeService.isOutputDir(root, root.resolve("../out")));
+        assertFalse(NamenodeService.isOutputDir(root, Paths.get("out")));
+    }
+
+    private String outputDir(String name) {
+        return dataDir.toAbsolutePath().resolve(name).toString();
+    }
+}
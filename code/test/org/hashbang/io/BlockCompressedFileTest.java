@@ -0,0 +1,155 @@
+package org.hashbang.io;
+
+import org.hashbang.mr.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BlockCompressedFileTest {
+
+    private static final int BLOCK_SIZE = 1024;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("compressed", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void readsRangesAcrossBlocks() throws IOException {
+        byte[] data = mixedData();
+        for (String name : new String[]{CompressionCodecs.LZ4, CompressionCodecs.DEFLATE}) {
+            // the stream and the file each end their codec
+            write(data, getCodec(name));
+            BlockCompressedFile compressed = new BlockCompressedFile(file, getCodec(name), 2);
+            try {
+                assertEquals(data.length, compressed.length());
+                assertRange(compressed, data, 0, data.length);
+                assertRange(compressed, data, BLOCK_SIZE - 1, 2);
+                assertRange(compressed, data, 3 * BLOCK_SIZE + 17, 5 * BLOCK_SIZE);
+                assertRange(compressed, data, data.length - 10, 100);
+                assertRange(compressed, data, data.length, 10);
+                // back to blocks evicted from the cache
+                assertRange(compressed, data, 10, 3 * BLOCK_SIZE);
+            } finally {
+                compressed.close();
+            }
+        }
+    }
+
+    @Test
+    public void readsSingleBytes() throws IOException {
+        byte[] data = mixedData();
+        write(data, new Lz4Codec());
+        BlockCompressedFile compressed = new BlockCompressedFile(file, new Lz4Codec(), 1);
+        try {
+            InputStream in = compressed.openStream(BLOCK_SIZE - 3, 6);
+            for (int i = BLOCK_SIZE - 3; i < BLOCK_SIZE + 3; i++) {
+                assertEquals(data[i] & 0xff, in.read());
+            }
+            assertEquals(-1, in.read());
+        } finally {
+            compressed.close();
+        }
+    }
+
+    @Test
+    public void readsAnEmptyFile() throws IOException {
+        write(new byte[0], new Lz4Codec());
+        BlockCompressedFile compressed = new BlockCompressedFile(file, new Lz4Codec(), 1);
+        try {
+            assertEquals(0, compressed.length());
+            assertEquals(-1, compressed.openStream(0, 10).read());
+        } finally {
+            compressed.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[100]);
+        out.close();
+        new BlockCompressedFile(file, new Lz4Codec(), 1);
+    }
+
+    /**
+     * Incompressible blocks, which are stored, between runs, overlapping
+     * repeats and a partial last block
+     */
+    private static byte[] mixedData() {
+        return Lz4CodecTest.concat(Lz4CodecTest.random(3 * BLOCK_SIZE, 1),
+                Lz4CodecTest.repeat((byte) 7, 2 * BLOCK_SIZE + 300),
+                "abcabcabcabcabcabcabcabcabcabcabcabc".getBytes(),
+                Lz4CodecTest.random(BLOCK_SIZE, 2),
+                Lz4CodecTest.repeat((byte) 'z', 1000),
+                Lz4CodecTest.random(BLOCK_SIZE / 2 + 5, 3));
+    }
+
+    @Test
+    public void findsTheCodecOfAJob() {
+        assertFalse(CompressionCodecs.isCompressed(new Configuration()));
+        assertNull(getCodec(CompressionCodecs.NONE));
+        assertTrue(CompressionCodecs.isCompressed(conf(CompressionCodecs.DEFLATE)));
+        assertTrue(getCodec(CompressionCodecs.LZ4) instanceof Lz4Codec);
+        assertTrue(getCodec(DeflateCodec.class.getName()) instanceof DeflateCodec);
+    }
+
+    private static Configuration conf(String codec) {
+        Configuration conf = new Configuration();
+        conf.set(CompressionCodecs.CODEC, codec);
+        return conf;
+    }
+
+    private static CompressionCodec getCodec(String name) {
+        return CompressionCodecs.getCodec(conf(name));
+    }
+
+    private void write(byte[] data, CompressionCodec codec) throws IOException {
+        BlockCompressedOutputStream out = new BlockCompressedOutputStream(new FileOutputStream(file), codec,
+                BLOCK_SIZE);
+        // in uneven writes, so that blocks fill up in the middle of a write
+        int off = 0;
+        int step = 1;
+        while (off < data.length) {
+            int n = Math.min(step, data.length - off);
+            out.write(data, off, n);
+            off += n;
+            step = step * 3 + 1;
+        }
+        out.close();
+    }
+
+    private static void assertRange(BlockCompressedFile compressed, byte[] data, int offset, int length)
+            throws IOException {
+        InputStream in = compressed.openStream(offset, length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[300];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        int end = Math.min(offset + length, data.length);
+        assertArrayEquals(Arrays.copyOfRange(data, offset, end), out.toByteArray());
+    }
+}
@@ -0,0 +1,138 @@
+package org.hashbang.io;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class Lz4CodecTest {
+
+    private final Lz4Codec codec = new Lz4Codec();
+
+    @Test
+    public void roundTripsShortInputs() throws IOException {
+        for (int length = 0; length <= 20; length++) {
+            roundTrip(repeat((byte) 'a', length));
+            roundTrip(random(length, length));
+        }
+    }
+
+    @Test
+    public void roundTripsIncompressibleData() throws IOException {
+        for (int length : new int[]{100, 4096, 65536, 200000}) {
+            byte[] data = random(length, length);
+            int compressed = roundTrip(data);
+            assertTrue(compressed <= codec.maxCompressedLength(length));
+        }
+    }
+
+    @Test
+    public void roundTripsLiteralRunsOfFifteenAndMore() throws IOException {
+        // a run of distinct literals followed by a match to its start
+        for (int literals : new int[]{14, 15, 16, 254, 255, 269, 270, 271, 600}) {
+            byte[] run = random(literals, literals);
+            roundTrip(concat(run, run, random(8, 1)));
+        }
+    }
+
+    @Test
+    public void roundTripsMatchesOfFifteenAndMore() throws IOException {
+        // match lengths around the token's run mask and the 255 extra byte
+        for (int matchLength : new int[]{18, 19, 20, 258, 259, 260, 273, 274, 1000}) {
+            byte[] prefix = random(32, matchLength);
+            byte[] match = Arrays.copyOf(prefix, Math.min(matchLength, prefix.length));
+            byte[] data = prefix;
+            while (data.length < prefix.length + matchLength) {
+                data = concat(data, match);
+            }
+            data = concat(Arrays.copyOf(data, prefix.length + matchLength), random(16, 7));
+            roundTrip(data);
+        }
+    }
+
+    @Test
+    public void roundTripsOverlappingMatches() throws IOException {
+        // offsets shorter than the match repeat the last bytes written
+        roundTrip(repeat((byte) 0, 100000));
+        byte[] pattern = {1, 2, 3};
+        byte[] data = new byte[0];
+        for (int i = 0; i < 1000; i++) {
+            data = concat(data, pattern);
+        }
+        int compressed = roundTrip(data);
+        assertTrue(compressed < data.length / 10);
+    }
+
+    @Test
+    public void decodesAnOverlappingMatch() throws IOException {
+        // literal 'a', then a match of 9 bytes at offset 1, then 5 literals
+        byte[] block = {0x15, 'a', 1, 0, 0x50, 'b', 'c', 'd', 'e', 'f'};
+        byte[] out = new byte[15];
+        assertEquals(15, codec.decompress(block, 0, block.length, out, 0, out.length));
+        assertArrayEquals("aaaaaaaaaabcdef".getBytes("US-ASCII"), out);
+    }
+
+    @Test
+    public void roundTripsMatchesBeyondTheWindow() throws IOException {
+        // the repeat is too far back to be referenced
+        byte[] chunk = random(70000, 3);
+        roundTrip(concat(chunk, chunk));
+    }
+
+    @Test
+    public void roundTripsAtAnOffset() throws IOException {
+        byte[] data = concat(random(100, 5), repeat((byte) 'x', 300), random(100, 6));
+        byte[] src = concat(random(7, 8), data);
+        byte[] compressed = new byte[codec.maxCompressedLength(data.length) + 3];
+        int length = codec.compress(src, 7, data.length, compressed, 3);
+        byte[] out = new byte[data.length + 5];
+        assertEquals(data.length, codec.decompress(compressed, 3, length, out, 5, data.length));
+        assertArrayEquals(data, Arrays.copyOfRange(out, 5, out.length));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAMatchBeforeTheOutput() throws IOException {
+        byte[] block = {0x10, 'a', 2, 0, 0x00};
+        codec.decompress(block, 0, block.length, new byte[10], 0, 10);
+    }
+
+    private int roundTrip(byte[] data) throws IOException {
+        byte[] compressed = new byte[codec.maxCompressedLength(data.length)];
+        int length = codec.compress(data, 0, data.length, compressed, 0);
+        byte[] out = new byte[data.length];
+        assertEquals(data.length, codec.decompress(compressed, 0, length, out, 0, out.length));
+        assertArrayEquals(data, out);
+        return length;
+    }
+
+    static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    static byte[] repeat(byte b, int length) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, b);
+        return data;
+    }
+
+    static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] data = new byte[length];
+        int off = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, data, off, part.length);
+            off += part.length;
+        }
+        return data;
+    }
+}
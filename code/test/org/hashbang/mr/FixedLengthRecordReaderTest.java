@@ -0,0 +1,108 @@
+package org.hashbang.mr;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class FixedLengthRecordReaderTest {
+
+    private static final int RECORD_LENGTH = 5;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("records", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void readsEveryRecordOnceWhateverTheSplits() throws IOException {
+        byte[] data = records(40);
+        List<String> expected = new ArrayList<>();
+        for (int offset = 0; offset < data.length; offset += RECORD_LENGTH) {
+            expected.add(record(data, offset));
+        }
+        for (int splitSize = 1; splitSize <= data.length + 1; splitSize++) {
+            for (int bufferSize : new int[]{1, 3, 0}) {
+                List<String> records = new ArrayList<>();
+                for (List<String> split : readEachSplit(data, splitSize, bufferSize)) {
+                    records.addAll(split);
+                }
+                assertEquals("splits of " + splitSize + " bytes, buffer of " + bufferSize, expected, records);
+            }
+        }
+    }
+
+    @Test
+    public void startsAtTheFirstRecordAtOrAfterTheSplit() throws IOException {
+        byte[] data = records(3);
+        // the second split starts on a record, the third inside one
+        List<List<String>> splits = readEachSplit(data, RECORD_LENGTH, 0);
+        assertEquals(Arrays.asList(record(data, 0)), splits.get(0));
+        assertEquals(Arrays.asList(record(data, 5)), splits.get(1));
+        splits = readEachSplit(data, 7, 0);
+        assertEquals(Arrays.asList(record(data, 0), record(data, 5)), splits.get(0));
+        assertEquals(Arrays.asList(record(data, 10)), splits.get(1));
+        assertEquals(Arrays.<String>asList(), splits.get(2));
+    }
+
+    @Test(expected = EOFException.class)
+    public void failsOnAPartialLastRecord() throws IOException {
+        readEachSplit(Arrays.copyOf(records(2), 2 * RECORD_LENGTH - 1), 100, 0);
+    }
+
+    private static byte[] records(int numRecords) {
+        byte[] data = new byte[numRecords * RECORD_LENGTH];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7);
+        }
+        return data;
+    }
+
+    private static String record(byte[] data, int offset) {
+        return offset + "=" + Arrays.toString(Arrays.copyOfRange(data, offset, offset + RECORD_LENGTH));
+    }
+
+    /**
+     * Cuts the data like a job input and reads every split from its offset
+     * to the end of the file, as map tasks do
+     */
+    private List<List<String>> readEachSplit(byte[] data, long splitSize, int bufferSize) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+        Configuration conf = new Configuration();
+        conf.set(FixedLengthInputFormat.RECORD_LENGTH, Integer.toString(RECORD_LENGTH));
+        conf.set(LineRecordReader.BUFFER_SIZE, Integer.toString(bufferSize));
+        FixedLengthInputFormat format = new FixedLengthInputFormat();
+        List<List<String>> splits = new ArrayList<>();
+        for (InputSplit split : format.getSplits(new Job(conf), file, splitSize)) {
+            int offset = (int) split.getOffset();
+            RecordReader<Long, byte[]> reader = format.createRecordReader(
+                    new ByteArrayInputStream(data, offset, data.length - offset), offset, split.getLength(), conf);
+            List<String> records = new ArrayList<>();
+            while (reader.nextKeyValue()) {
+                records.add(reader.getCurrentKey() + "=" + Arrays.toString(reader.getCurrentValue()));
+            }
+            reader.close();
+            splits.add(records);
+        }
+        return splits;
+    }
+}
@@ -0,0 +1,154 @@
+package org.hashbang.mr;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LengthPrefixedRecordReaderTest {
+
+    // empty records, records smaller than a length, and records larger than the read buffers
+    private static final int[] RECORD_LENGTHS = {3, 0, 1, 20000, 0, 7, 4, 9000, 2, 0};
+
+    private File file;
+    private List<Long> offsets;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("records", ".bin");
+        offsets = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void readsEveryRecordOnceWhateverTheBlockSize() throws IOException {
+        byte[] data = records(RECORD_LENGTHS);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < RECORD_LENGTHS.length; i++) {
+            expected.add(record(data, offsets.get(i).intValue(), RECORD_LENGTHS[i]));
+        }
+        List<Integer> blockSizes = new ArrayList<>();
+        for (int blockSize = 1; blockSize <= 64; blockSize++) {
+            blockSizes.add(blockSize);
+        }
+        blockSizes.addAll(Arrays.asList(8192, 20000, 20004, 20005, data.length, data.length + 1));
+        for (int blockSize : blockSizes) {
+            for (int bufferSize : new int[]{1, 3, 0}) {
+                List<String> records = new ArrayList<>();
+                for (List<String> split : readEachSplit(data, blockSize, bufferSize)) {
+                    records.addAll(split);
+                }
+                assertEquals("blocks of " + blockSize + " bytes, buffer of " + bufferSize, expected, records);
+            }
+        }
+    }
+
+    @Test
+    public void cutsAtTheFirstRecordAfterEveryBlock() throws IOException {
+        records(RECORD_LENGTHS);
+        List<InputSplit> splits = new LengthPrefixedInputFormat().getSplits(new Job(), file, 10);
+        long end = 0;
+        for (InputSplit split : splits) {
+            assertEquals(end, split.getOffset());
+            assertTrue("split at " + split.getOffset(), offsets.contains(split.getOffset()));
+            end = split.getOffset() + split.getLength();
+        }
+        assertEquals(file.length(), end);
+        // the records are 7, 4, 5, 20004, 4, 11, 8, 9004, 6 and 4 bytes long
+        assertEquals(Arrays.asList(0L, 11L, 20020L, 20035L, 29047L), splitOffsets(splits));
+    }
+
+    @Test
+    public void readsAFileOfOneSplit() throws IOException {
+        byte[] data = records(RECORD_LENGTHS);
+        List<List<String>> splits = readEachSplit(data, data.length + 1, 0);
+        assertEquals(1, splits.size());
+        assertEquals(RECORD_LENGTHS.length, splits.get(0).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsANegativeLength() throws IOException {
+        readEachSplit(new byte[]{0, 0, 0, 1, 42, (byte) 0xff, 0, 0, 0}, 1, 0);
+    }
+
+    @Test(expected = EOFException.class)
+    public void failsOnATruncatedLastRecord() throws IOException {
+        byte[] data = records(RECORD_LENGTHS);
+        readEachSplit(Arrays.copyOf(data, data.length - 1), 100, 0);
+    }
+
+    /**
+     * Writes records of the given lengths to the file, noting their offsets
+     */
+    private byte[] records(int[] lengths) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i = 0; i < lengths.length; i++) {
+            offsets.add((long) bytes.size());
+            out.writeInt(lengths[i]);
+            for (int j = 0; j < lengths[i]; j++) {
+                out.write(i + j);
+            }
+        }
+        byte[] data = bytes.toByteArray();
+        FileOutputStream fileOut = new FileOutputStream(file);
+        fileOut.write(data);
+        fileOut.close();
+        return data;
+    }
+
+    private static String record(byte[] data, int offset, int length) {
+        return offset + "=" + Arrays.toString(Arrays.copyOfRange(data, offset + 4, offset + 4 + length));
+    }
+
+    private static List<Long> splitOffsets(List<InputSplit> splits) {
+        List<Long> offsets = new ArrayList<>();
+        for (InputSplit split : splits) {
+            offsets.add(split.getOffset());
+        }
+        return offsets;
+    }
+
+    /**
+     * Cuts the file like a job input and reads every split from its offset
+     * to the end of the file, as map tasks do
+     */
+    private List<List<String>> readEachSplit(byte[] data, long blockSize, int bufferSize) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+        Configuration conf = new Configuration();
+        conf.set(LineRecordReader.BUFFER_SIZE, Integer.toString(bufferSize));
+        LengthPrefixedInputFormat format = new LengthPrefixedInputFormat();
+        List<List<String>> splits = new ArrayList<>();
+        for (InputSplit split : format.getSplits(new Job(conf), file, blockSize)) {
+            int offset = (int) split.getOffset();
+            RecordReader<Long, byte[]> reader = format.createRecordReader(
+                    new ByteArrayInputStream(data, offset, data.length - offset), offset, split.getLength(), conf);
+            List<String> records = new ArrayList<>();
+            while (reader.nextKeyValue()) {
+                records.add(reader.getCurrentKey() + "=" + Arrays.toString(reader.getCurrentValue()));
+            }
+            reader.close();
+            splits.add(records);
+        }
+        return splits;
+    }
+}
@@ -0,0 +1,144 @@
+package org.hashbang.mr;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class LineRecordReaderTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("lines", ".txt");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void readsEveryLineOnceWhateverTheSplits() throws IOException {
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longLine.append(i);
+        }
+        for (String last : new String[]{"last\n", "last", "last\r\n", ""}) {
+            byte[] data = toBytes("first\n", "\n", "crlf\r\n", "\r\n", "caf\u00E9 \u20AC\n", longLine + "\n",
+                    "a\rb\n", "\n", last);
+            for (int splitSize = 1; splitSize <= data.length + 1; splitSize++) {
+                for (int bufferSize : new int[]{1, 3, 0}) {
+                    assertEquals("splits of " + splitSize + " bytes, buffer of " + bufferSize,
+                            expectedLines(data), readSplits(data, splitSize, bufferSize));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void givesALineStartingAtASplitToThePreviousSplit() throws IOException {
+        byte[] data = toBytes("ab\n", "cd\n", "ef\n");
+        List<List<String>> splits = readEachSplit(data, 3);
+        assertEquals(Arrays.asList("0=ab", "3=cd"), splits.get(0));
+        assertEquals(Arrays.asList("6=ef"), splits.get(1));
+        assertEquals(Arrays.<String>asList(), splits.get(2));
+    }
+
+    @Test
+    public void stripsACarriageReturnSplitFromItsNewline() throws IOException {
+        byte[] data = toBytes("ab\r\n", "cd\r\n");
+        List<List<String>> splits = readEachSplit(data, 3);
+        assertEquals(Arrays.asList("0=ab"), splits.get(0));
+        assertEquals(Arrays.asList("4=cd"), splits.get(1));
+        assertEquals(Arrays.<String>asList(), splits.get(2));
+    }
+
+    @Test
+    public void readsTheLastLineWithoutANewline() throws IOException {
+        byte[] data = toBytes("ab\n", "cd");
+        List<List<String>> splits = readEachSplit(data, 2);
+        assertEquals(Arrays.asList("0=ab"), splits.get(0));
+        assertEquals(Arrays.asList("3=cd"), splits.get(1));
+        assertEquals(Arrays.<String>asList(), splits.get(2));
+    }
+
+    private static byte[] toBytes(String... lines) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (String line : lines) {
+            bytes.write(line.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns "offset=line" for every line of the data, without its \n or \r\n
+     */
+    private static List<String> expectedLines(byte[] data) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        while (start < data.length) {
+            int end = start;
+            while (end < data.length && data[end] != '\n') {
+                end++;
+            }
+            int length = end - start;
+            if (length > 0 && data[end - 1] == '\r') {
+                length--;
+            }
+            lines.add(start + "=" + new String(data, start, length, StandardCharsets.UTF_8));
+            start = end + 1;
+        }
+        return lines;
+    }
+
+    private List<String> readSplits(byte[] data, long splitSize, int bufferSize) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (List<String> split : readEachSplit(data, splitSize, bufferSize)) {
+            lines.addAll(split);
+        }
+        return lines;
+    }
+
+    private List<List<String>> readEachSplit(byte[] data, long splitSize) throws IOException {
+        return readEachSplit(data, splitSize, 0);
+    }
+
+    /**
+     * Cuts the data like a job input and reads every split from its offset
+     * to the end of the file, as map tasks do
+     */
+    private List<List<String>> readEachSplit(byte[] data, long splitSize, int bufferSize) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+        Configuration conf = new Configuration();
+        conf.set(LineRecordReader.BUFFER_SIZE, Integer.toString(bufferSize));
+        TextInputFormat format = new TextInputFormat();
+        List<List<String>> splits = new ArrayList<>();
+        for (InputSplit split : format.getSplits(new Job(conf), file, splitSize)) {
+            int offset = (int) split.getOffset();
+            RecordReader<Long, String> reader = format.createRecordReader(
+                    new ByteArrayInputStream(data, offset, data.length - offset), offset, split.getLength(), conf);
+            List<String> lines = new ArrayList<>();
+            while (reader.nextKeyValue()) {
+                lines.add(reader.getCurrentKey() + "=" + reader.getCurrentValue());
+            }
+            reader.close();
+            splits.add(lines);
+        }
+        return splits;
+    }
+}
@@ -0,0 +1,214 @@
+package org.hashbang.mr;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MapOutputMergerTest {
+
+    private static final int PARTITION = 1;
+    private static final int MERGE_FACTOR = 3;
+    private static final int NUM_MAP_TASKS = 6;
+    private static final int SPILLS_PER_TASK = 3;
+    private static final int NUM_KEYS = 50;
+
+    private Path workingDir;
+    private JobContext context;
+    // the values of every key of the partition, over all map outputs
+    private Map<String, List<Integer>> expected;
+    // the values of every key of the first map output
+    private Map<String, List<Integer>> firstOutput;
+    private List<File> indexFiles;
+
+    @Before
+    public void setUp() throws IOException {
+        workingDir = Files.createTempDirectory("merge");
+        Configuration conf = new Configuration();
+        conf.set(MapOutputMerger.MERGE_FACTOR, Integer.toString(MERGE_FACTOR));
+        context = new JobContext(0, new Job(conf), 0, 0);
+        context.setWorkingDir(workingDir.toString());
+        expected = new TreeMap<>();
+        firstOutput = new TreeMap<>();
+        indexFiles = new ArrayList<>();
+
+        Random random = new Random(13);
+        int value = 0;
+        for (int task = 0; task < NUM_MAP_TASKS; task++) {
+            SegmentWriter writer = newWriter(task, PARTITION);
+            for (int spill = 0; spill < SPILLS_PER_TASK; spill++) {
+                // the same keys show up in many runs, the second spill of a task is empty
+                for (int k = 0; k < NUM_KEYS; k++) {
+                    if (spill == 1 || random.nextInt(3) != 0) {
+                        continue;
+                    }
+                    List<Integer> values = new ArrayList<>();
+                    for (int n = random.nextInt(3); n >= 0; n--) {
+                        values.add(value++);
+                    }
+                    writer.writeSegment(spill, key(k), values);
+                    add(expected, key(k), values);
+                    if (task == 0) {
+                        add(firstOutput, key(k), values);
+                    }
+                }
+            }
+            writer.close();
+            indexFiles.add(new File(workingDir.toFile(), MapOutputFile.getIndexFileName(task, PARTITION)));
+        }
+        // a map task with no output for the partition
+        newWriter(NUM_MAP_TASKS, PARTITION).close();
+        indexFiles.add(new File(workingDir.toFile(), MapOutputFile.getIndexFileName(NUM_MAP_TASKS, PARTITION)));
+        // the output of another partition is left alone
+        SegmentWriter other = newWriter(0, PARTITION + 1);
+        other.writeSegment(0, key(0), Collections.singletonList(-1));
+        other.close();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.walkFileTree(workingDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Test
+    public void mergesTheWorkingDirectoryInSeveralPasses() throws IOException {
+        assertTrue(countRuns() > MERGE_FACTOR);
+        MapOutputMerger<Integer> merger = new MapOutputMerger<>(context, PARTITION);
+        try {
+            // the last pass reads runs written by the intermediate passes
+            assertTrue(countMergeFiles() > 0);
+            assertMerged(merger);
+        } finally {
+            merger.close();
+        }
+        assertFalse(mergeDir().exists());
+    }
+
+    @Test
+    public void mergesMapOutputsAsTheyArrive() throws IOException {
+        MapOutputMerger<Integer> merger = new MapOutputMerger<>(context, PARTITION, false);
+        try {
+            int runs = 0;
+            boolean merged = false;
+            for (File indexFile : indexFiles) {
+                merger.addMapOutput(indexFile);
+                runs += MapOutputRun.readRuns(indexFile, context.getConf()).size();
+                if (runs >= 2 * MERGE_FACTOR) {
+                    merged = true;
+                }
+                // the oldest runs are merged once twice the merge factor are waiting
+                assertEquals(merged, countMergeFiles() > 0);
+            }
+            assertTrue(merged);
+            merger.finish();
+            assertMerged(merger);
+        } finally {
+            merger.close();
+        }
+        assertFalse(mergeDir().exists());
+    }
+
+    @Test
+    public void mergesRunsThatFitInOnePass() throws IOException {
+        MapOutputMerger<Integer> merger = new MapOutputMerger<>(context, PARTITION, false);
+        try {
+            // two runs with keys in common, and a map output without runs
+            merger.addMapOutput(indexFiles.get(0));
+            merger.addMapOutput(indexFiles.get(NUM_MAP_TASKS));
+            merger.finish();
+            assertEquals(0, countMergeFiles());
+            assertEquals(firstOutput, readAll(merger));
+        } finally {
+            merger.close();
+        }
+    }
+
+    private static void add(Map<String, List<Integer>> keys, String key, List<Integer> values) {
+        if (!keys.containsKey(key)) {
+            keys.put(key, new ArrayList<Integer>());
+        }
+        keys.get(key).addAll(values);
+    }
+
+    private static String key(int k) {
+        return String.format("k%03d", k);
+    }
+
+    private SegmentWriter newWriter(int task, int partition) throws IOException {
+        return new SegmentWriter(new File(workingDir.toFile(), MapOutputFile.getDataFileName(task, partition)),
+                new File(workingDir.toFile(), MapOutputFile.getIndexFileName(task, partition)),
+                String.class, Integer.class, context.getConf());
+    }
+
+    private File mergeDir() {
+        return new File(workingDir.toFile(), "merge_" + PARTITION);
+    }
+
+    private int countMergeFiles() {
+        File[] files = mergeDir().listFiles();
+        return files == null ? 0 : files.length;
+    }
+
+    private int countRuns() throws IOException {
+        int runs = 0;
+        for (File indexFile : indexFiles) {
+            runs += MapOutputRun.readRuns(indexFile, context.getConf()).size();
+        }
+        return runs;
+    }
+
+    /**
+     * Reads the keys of the merger, checking they come in order, with the
+     * values of each key sorted
+     */
+    private static Map<String, List<Integer>> readAll(MapOutputMerger<Integer> merger) throws IOException {
+        Map<String, List<Integer>> merged = new TreeMap<>();
+        String previous = null;
+        while (merger.nextKey()) {
+            String key = (String) merger.getCurrentKey();
+            assertTrue(previous + " before " + key, previous == null || previous.compareTo(key) < 0);
+            List<Integer> values = new ArrayList<>();
+            for (Integer value : merger.getCurrentValues()) {
+                values.add(value);
+            }
+            Collections.sort(values);
+            merged.put(key, values);
+            previous = key;
+        }
+        return merged;
+    }
+
+    private void assertMerged(MapOutputMerger<Integer> merger) throws IOException {
+        assertEquals(expected, readAll(merger));
+        assertEquals(1.0f, merger.getProgress(), 0.0f);
+    }
+}
@@ -0,0 +1,221 @@
+package org.hashbang.mr;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapMapOutputBufferTest {
+
+    private static final int NUM_KEYS = 500;
+    private static final int NUM_RECORDS = 5000;
+
+    private Path workingDir;
+    private Configuration conf;
+    private final MapOutputBuffer.KeyComparator keyComparator = new MapOutputBuffer.KeyComparator();
+
+    @Before
+    public void setUp() throws IOException {
+        workingDir = Files.createTempDirectory("mapoutput");
+        conf = new Configuration();
+        conf.set(OffHeapMapOutputBuffer.PAGE_SIZE_KB, "1");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.walkFileTree(workingDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Test
+    public void sortsLongsLikeTheKeyComparator() throws IOException {
+        // around the boundaries of the zig-zag encoding's bytes
+        List<Object> keys = new ArrayList<Object>(Arrays.asList(Long.MIN_VALUE, Long.MAX_VALUE, 0L, -1L, 1L,
+                -64L, 63L, -65L, 64L, -8192L, 8191L, -8193L, 8192L, (long) Integer.MIN_VALUE, (long) Integer.MAX_VALUE,
+                Long.MIN_VALUE + 1, Long.MAX_VALUE - 1));
+        Random random = new Random(7);
+        for (int i = 0; i < 100; i++) {
+            keys.add(random.nextLong() >> random.nextInt(64));
+        }
+        assertSpillOrder(Long.class, keys);
+    }
+
+    @Test
+    public void sortsIntegersLikeTheKeyComparator() throws IOException {
+        List<Object> keys = new ArrayList<Object>(Arrays.asList(Integer.MIN_VALUE, Integer.MAX_VALUE, 0, -1, 1,
+                -64, 63, -65, 64));
+        Random random = new Random(11);
+        for (int i = 0; i < 100; i++) {
+            keys.add(random.nextInt() >> random.nextInt(32));
+        }
+        assertSpillOrder(Integer.class, keys);
+    }
+
+    @Test
+    public void sortsDoublesLikeTheKeyComparator() throws IOException {
+        List<Object> keys = new ArrayList<Object>(Arrays.asList(Double.NaN, -0.0, 0.0, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, Double.MIN_VALUE, -Double.MIN_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE,
+                1.0, -1.0, 0.5, -0.5));
+        assertSpillOrder(Double.class, keys);
+    }
+
+    @Test
+    public void sortsStringsLikeTheKeyComparator() throws IOException {
+        // one, two and three byte chars, and the surrogate pairs of the
+        // supplementary planes, which compareTo puts before U+E000
+        List<Object> keys = new ArrayList<Object>(Arrays.asList("", "a", "ab", "a\u0000", "\u0000", "\u007f",
+                "\u0080", "\u07FF", "\u0800", "\uD7FF", "\uE000", "\uEFFF", "\uF000", "\uFFFF",
+                "\uD800\uDC00", "\uD83D\uDE00", "\uDBFF\uDFFF", "a\uD83D\uDE00", "a\uFFFF", "abc",
+                "\uD83D\uDE00\u0000", "\u00E9t\u00E9", "ete"));
+        assertSpillOrder(String.class, keys);
+    }
+
+    @Test
+    public void mergesSpillsBackIntoTheirRecords() throws IOException {
+        // a spill every few kilobytes
+        conf.set(MapOutputBuffer.BUFFER_SIZE_MB, "1");
+        conf.set(MapOutputBuffer.SPILL_PERCENT, "0.01");
+        List<Integer> records = new ArrayList<>();
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            records.add(i);
+        }
+        Collections.shuffle(records, new Random(3));
+        MapContext<Object, Object> context = newContext(String.class, Integer.class);
+        OffHeapMapOutputBuffer<Object, Object> buffer = new OffHeapMapOutputBuffer<>(context);
+        for (int value : records) {
+            buffer.write(0, key(value % NUM_KEYS), value);
+        }
+        buffer.flush();
+        context.persistAll();
+
+        List<MapOutputRun> runs = MapOutputRun.readRuns(indexFile(context), conf);
+        assertTrue(runs.size() > 1);
+        for (MapOutputRun run : runs) {
+            assertSorted(readKeys(run));
+        }
+
+        MapOutputFile.commit(context);
+        MapOutputMerger<Integer> merger = new MapOutputMerger<>(context, 0);
+        try {
+            List<Object> keys = new ArrayList<>();
+            while (merger.nextKey()) {
+                String key = (String) merger.getCurrentKey();
+                keys.add(key);
+                List<Integer> values = new ArrayList<>();
+                for (Integer value : merger.getCurrentValues()) {
+                    values.add(value);
+                }
+                Collections.sort(values);
+                List<Integer> expected = new ArrayList<>();
+                for (int value = Integer.parseInt(key.substring(1)); value < NUM_RECORDS; value += NUM_KEYS) {
+                    expected.add(value);
+                }
+                assertEquals(key, expected, values);
+            }
+            assertEquals(NUM_KEYS, keys.size());
+            assertSorted(keys);
+        } finally {
+            merger.close();
+        }
+    }
+
+    private static String key(int i) {
+        return String.format("k%04d", i);
+    }
+
+    private MapContext<Object, Object> newContext(Class<?> keyClass, Class<?> valueClass) {
+        Job job = new Job(conf);
+        job.setMapOutputKeyClass(keyClass);
+        job.setMapOutputValueClass(valueClass);
+        MapContext<Object, Object> context = new MapContext<>(0, job, 0, 0);
+        context.setWorkingDir(workingDir.toString());
+        return context;
+    }
+
+    private static File indexFile(MapContext<?, ?> context) {
+        return new File(MapOutputFile.getAttemptDir(context),
+                MapOutputFile.getIndexFileName(context.getTaskId(), 0));
+    }
+
+    /**
+     * Spills the distinct keys, each with two values, in a shuffled order and checks
+     * the spill has them in the order of the key comparator
+     */
+    private void assertSpillOrder(Class<?> keyClass, List<Object> keys) throws IOException {
+        List<Object> shuffled = new ArrayList<>(new LinkedHashSet<>(keys));
+        Collections.shuffle(shuffled, new Random(5));
+        MapContext<Object, Object> context = newContext(keyClass, Integer.class);
+        OffHeapMapOutputBuffer<Object, Object> buffer = new OffHeapMapOutputBuffer<>(context);
+        for (int i = 0; i < shuffled.size(); i++) {
+            buffer.write(0, shuffled.get(i), i);
+            buffer.write(0, shuffled.get(shuffled.size() - 1 - i), i);
+        }
+        buffer.flush();
+        context.persistAll();
+
+        List<MapOutputRun> runs = MapOutputRun.readRuns(indexFile(context), conf);
+        assertEquals(1, runs.size());
+        List<Object> expected = new ArrayList<>(new LinkedHashSet<>(keys));
+        Collections.sort(expected, keyComparator);
+        assertEquals(expected, readKeys(runs.get(0)));
+        MapOutputRun.Cursor cursor = runs.get(0).open();
+        try {
+            while (cursor.next()) {
+                assertEquals(cursor.getKey().toString(), 2, cursor.getSegment().getNumValues());
+            }
+        } finally {
+            cursor.close();
+        }
+        MapOutputFile.abort(context);
+    }
+
+    /**
+     * Returns the keys of a run in their order
+     */
+    private static List<Object> readKeys(MapOutputRun run) throws IOException {
+        List<Object> keys = new ArrayList<>();
+        MapOutputRun.Cursor cursor = run.open();
+        try {
+            while (cursor.next()) {
+                keys.add(cursor.getKey());
+            }
+        } finally {
+            cursor.close();
+        }
+        return keys;
+    }
+
+    private void assertSorted(List<Object> keys) {
+        for (int i = 1; i < keys.size(); i++) {
+            assertTrue(keys.get(i - 1) + " before " + keys.get(i),
+                    keyComparator.compare(keys.get(i - 1), keys.get(i)) < 0);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.hashbang.mr;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class SortedFileTest {
+
+    private static final int NUM_KEYS = 500;
+
+    private File file;
+    private List<String> keys;
+    private List<Integer> values;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("sorted", ".bin");
+        keys = new ArrayList<>();
+        values = new ArrayList<>();
+        for (int i = 0; i < NUM_KEYS; i++) {
+            // every seventh key has enough records to fill several blocks
+            int records = i % 7 == 3 ? 40 : 1;
+            for (int j = 0; j < records; j++) {
+                keys.add(key(i));
+                values.add(values.size());
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void getsTheFirstRecordOfDuplicateKeys() throws IOException {
+        for (String bitsPerKey : new String[]{"10", "0"}) {
+            SortedFileReader<String, Integer> reader = write(bitsPerKey);
+            try {
+                assertEquals(keys.size(), reader.getNumRecords());
+                for (int i = 0; i < NUM_KEYS; i++) {
+                    assertEquals(key(i), values.get(keys.indexOf(key(i))), reader.get(key(i)));
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void getsNothingForAbsentKeys() throws IOException {
+        SortedFileReader<String, Integer> reader = write("10");
+        try {
+            assertNull(reader.get("a"));
+            assertNull(reader.get("z"));
+            for (int i = 0; i < NUM_KEYS; i++) {
+                assertNull(reader.get(key(i) + "x"));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void scansRangesStartingInsideDuplicates() throws IOException {
+        SortedFileReader<String, Integer> reader = write("10");
+        try {
+            assertScan(reader, null, null);
+            assertScan(reader, key(3), key(4));
+            assertScan(reader, key(10), key(11));
+            assertScan(reader, key(101), key(250));
+            assertScan(reader, key(2) + "x", key(17));
+            assertScan(reader, key(480), null);
+            assertScan(reader, null, key(24));
+            assertScan(reader, "z", null);
+            assertScan(reader, key(5), key(5));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void readsAnEmptyFile() throws IOException {
+        new SortedFileWriter<String, Integer>(new FileOutputStream(file), new Configuration()).close();
+        SortedFileReader<String, Integer> reader = new SortedFileReader<>(file);
+        try {
+            assertEquals(0, reader.getNumRecords());
+            assertNull(reader.get("a"));
+            assertFalse(reader.scan(null, null).nextKeyValue());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsKeysOutOfOrder() throws IOException {
+        SortedFileWriter<String, Integer> writer = new SortedFileWriter<>(new FileOutputStream(file), null);
+        try {
+            writer.write("b", 1);
+            writer.write("a", 2);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String key(int i) {
+        return String.format("k%05d", i);
+    }
+
+    private SortedFileReader<String, Integer> write(String bitsPerKey) throws IOException {
+        Configuration conf = new Configuration();
+        // small blocks, so that the duplicate keys cross block boundaries
+        conf.set(SortedFileWriter.BLOCK_SIZE, "64");
+        conf.set(SortedFileWriter.BLOOM_BITS_PER_KEY, bitsPerKey);
+        SortedFileWriter<String, Integer> writer = new SortedFileWriter<>(new FileOutputStream(file), conf);
+        for (int i = 0; i < keys.size(); i++) {
+            writer.write(keys.get(i), values.get(i));
+        }
+        writer.close();
+        return new SortedFileReader<>(file, conf);
+    }
+
+    private void assertScan(SortedFileReader<String, Integer> reader, String from, String to) throws IOException {
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            if ((from == null || keys.get(i).compareTo(from) >= 0) && (to == null || keys.get(i).compareTo(to) < 0)) {
+                expected.add(keys.get(i) + "=" + values.get(i));
+            }
+        }
+        List<String> scanned = new ArrayList<>();
+        RecordReader<String, Integer> records = reader.scan(from, to);
+        while (records.nextKeyValue()) {
+            scanned.add(records.getCurrentKey() + "=" + records.getCurrentValue());
+        }
+        records.close();
+        assertEquals(from + " to " + to, expected, scanned);
+    }
+}
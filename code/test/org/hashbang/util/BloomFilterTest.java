@@ -0,0 +1,57 @@
+package org.hashbang.util;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BloomFilterTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void hasNoFalseNegatives() {
+        for (int bitsPerKey : new int[]{1, 4, 10, 20}) {
+            for (int numKeys : new int[]{0, 1, 7, 1000, 50000}) {
+                BloomFilter filter = new BloomFilter(numKeys, bitsPerKey);
+                for (int i = 0; i < numKeys; i++) {
+                    filter.add(hash("key" + i));
+                }
+                BloomFilter read = new BloomFilter(filter.getBytes().clone(), filter.getNumHashes());
+                for (int i = 0; i < numKeys; i++) {
+                    assertTrue("key" + i, filter.mightContain(hash("key" + i)));
+                    assertTrue("key" + i, read.mightContain(hash("key" + i)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void hasFewFalsePositives() {
+        BloomFilter filter = new BloomFilter(10000, 10);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(hash("key" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain(hash("other" + i))) {
+                falsePositives++;
+            }
+        }
+        // about 1% expected
+        assertTrue(falsePositives + " false positives", falsePositives < 300);
+    }
+
+    @Test
+    public void hashesRangesOfBytes() {
+        byte[] bytes = "xxabcdefghijxx".getBytes(UTF8);
+        assertEquals(hash("abcdefghij"), BloomFilter.hash(bytes, 2, 10));
+    }
+
+    private static long hash(String key) {
+        byte[] bytes = key.getBytes(UTF8);
+        return BloomFilter.hash(bytes, 0, bytes.length);
+    }
+}